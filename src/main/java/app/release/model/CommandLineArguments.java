@@ -1,7 +1,14 @@
 package app.release.model;
 
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 public class CommandLineArguments {
 
     @Option(name = "-key", required = true, usage = "JSON key file of authorized service account")
@@ -11,16 +18,16 @@ public class CommandLineArguments {
     private String appName;
 
     
-    @Option(name = "-releasename", usage = "name of the new release", required = true)
+    @Option(name = "-releasename", usage = "name of the new release, required unless -listings is given")
     private String releaseName;
 
-    @Option(name = "-packageName", usage = "(optional) Provide with AAB File")
+    @Option(name = "-packageName", usage = "(optional) Package name, read from the AAB or APK manifest if not given")
     private String packageName;
 
-    @Option(name = "-file", required = true, usage = "APK Or AAB file to be released")
+    @Option(name = "-file", usage = "APK Or AAB file to be released, required unless -manifest is given")
     private String file;
 
-    @Option(name = "-track", required = true, usage = "Release track to use. Eg. internal, alpha, beta or production, see https://developers.google.com/android-publisher/tracks")
+    @Option(name = "-track", usage = "Release track to use. Eg. internal, alpha, beta or production, see https://developers.google.com/android-publisher/tracks. Required unless -manifest is given")
     private String trackName;
 
     @Option(name = "-status", required = false, usage = "Eg. completed (default), draft (only releases with status draft may be created on draft app), inProgress, see https://developers.google.com/android-publisher/api-ref/rest/v3/edits.tracks#Status")
@@ -32,6 +39,171 @@ public class CommandLineArguments {
     @Option(name = "-notesFile", forbids = "-notes", usage = "(optional) Release notes from file")
     private String notesPath;
 
+    @Option(name = "-mapping", usage = "(optional) ProGuard or R8 mapping.txt of the apk or aab, uploaded into the same edit")
+    private String mappingPath;
+
+    @Option(name = "-nativeSymbols", usage = "(optional) Native debug symbols zip of the apk or aab, uploaded into the same edit")
+    private String nativeSymbolsPath;
+
+    @Option(name = "-chunkSize", usage = "(optional) Upload in resumable chunks of this many MB, continuing an interrupted upload on rerun")
+    private Integer chunkSizeMb;
+
+    @Option(name = "-uploadState", depends = "-chunkSize", usage = "(optional) File that keeps the progress of a resumable upload, defaults to <file>.upload-state")
+    private String uploadStatePath;
+
+    @Option(name = "-manifest", forbids = "-file", usage = "(optional) JSON file listing many releases to publish in one run, see README")
+    private String manifestPath;
+
+    @Option(name = "-plan", forbids = {"-file", "-manifest"}, usage = "(optional) JSON release plan: several artifacts and tracks of one app published in a single edit, see README")
+    private String planPath;
+
+    @Option(name = "-listings", forbids = {"-file", "-manifest", "-plan"}, usage = "(optional) Directory of store listings and images to sync, see README")
+    private String listingsPath;
+
+    @Option(name = "-rollout", forbids = {"-file", "-manifest", "-plan", "-listings", "-server"}, usage = "(optional) Staged rollout command: schedule, halt, resume, status, tick or run, see README")
+    private String rollout;
+
+    @Option(name = "-ramp", depends = "-rollout", usage = "(optional) Rollout ramp of user fractions and dwell times, e.g. 0.01:24h,0.05:24h,0.2:48h,1")
+    private String ramp;
+
+    @Option(name = "-watch", forbids = {"-file", "-manifest", "-plan", "-listings", "-rollout", "-server"}, usage = "(optional) Publish apk and aab files dropped into these comma separated directories, each as <dir>=<track> or <dir> for -track, see README")
+    private String watch;
+
+    @Option(name = "-settle", depends = "-watch", usage = "(optional) Seconds the size and modification time of a watched file must not change before it is published, unless a <file>.done marker exists, defaults to 3")
+    private int settleSeconds = 3;
+
+    @Option(name = "-queueSize", depends = "-watch", usage = "(optional) Complete watched files waiting for a worker before the watcher waits too, defaults to 100")
+    private int queueSize = 100;
+
+    @Option(name = "-index", forbids = {"-file", "-manifest", "-plan", "-listings", "-rollout", "-server", "-watch"}, usage = "(optional) Track index command: refresh or query, see README")
+    private String index;
+
+    @Option(name = "-maxAge", depends = "-index", usage = "(optional) Refresh only packages of the track index not listed for this many minutes, defaults to 0")
+    private int maxAgeMinutes;
+
+    @Option(name = "-validateOnly", forbids = {"-listings", "-rollout"}, usage = "(optional) Only run the preflight checks of the release against Play, nothing is uploaded or committed")
+    private boolean validateOnly;
+
+    @Option(name = "-internalSharing", forbids = {"-plan", "-listings", "-rollout", "-index", "-validateOnly"}, usage = "(optional) Upload through internal app sharing and print the download URL as JSON, no edit or track is used")
+    private boolean internalSharing;
+
+    @Option(name = "-parallelism", usage = "(optional) Number of releases of a manifest, jobs of the server or image types of a listing sync, processed at the same time, defaults to 4")
+    private int parallelism = 4;
+
+    @Option(name = "-server", forbids = {"-file", "-manifest", "-plan"}, usage = "(optional) Run as resident server accepting publish jobs over HTTP, see README")
+    private boolean server;
+
+    @Option(name = "-port", depends = "-server", usage = "(optional) Local port of the server, defaults to 8421")
+    private int port = 8421;
+
+    @Option(name = "-leaseDir", usage = "(optional) Lock directory on storage shared by all nodes publishing the same apps, a per-package lease is taken there before an edit is opened")
+    private String leaseDir;
+
+    @Option(name = "-leaseTtl", depends = "-leaseDir", usage = "(optional) Seconds a lease of a crashed node is kept before another node may take it over, defaults to 120")
+    private int leaseTtlSeconds = 120;
+
+    @Option(name = "-leaseWait", depends = "-leaseDir", usage = "(optional) Seconds to wait for the lease of a package another node holds, defaults to 600")
+    private int leaseWaitSeconds = 600;
+
+    @Option(name = "-shardKeys", usage = "(optional) Comma separated JSON key files of further service accounts, the packages of a batch are spread across these and -key")
+    private String shardKeys;
+
+    @Option(name = "-stateDir", usage = "(optional) Directory for caches and state kept between runs, defaults to ~/.app-release-manager")
+    private String stateDir = System.getProperty("user.home") + "/.app-release-manager";
+
+    @Option(name = "-apiRate", usage = "(optional) Maximum Play API requests per second of one service account, defaults to 10")
+    private double apiRate = 10;
+
+    @Option(name = "-maxRetries", usage = "(optional) Retries of a Play API request that was rate limited or failed temporarily, defaults to 4")
+    private int maxRetries = 4;
+
+    @Option(name = "-maxUploadRate", usage = "(optional) Upload at most this many KB per second, shared by all uploads of the process")
+    private Integer maxUploadRateKb;
+
+    @Option(name = "-rootUrl", usage = "(optional) Root URL of the Play Developer API, e.g. of a local stand-in for benchmarks, defaults to https://www.googleapis.com/")
+    private String rootUrl;
+
+    @Option(name = "-transport", usage = "(optional) HTTP transport of the Play API clients: net (HttpURLConnection) or apache (pooled Apache HttpClient), defaults to net")
+    private String transport = "net";
+
+    @Option(name = "-connectTimeout", usage = "(optional) Seconds to wait for a connection to the Play API, defaults to 180")
+    private int connectTimeoutSeconds = 180;
+
+    @Option(name = "-readTimeout", usage = "(optional) Seconds to wait for data from the Play API, defaults to 180")
+    private int readTimeoutSeconds = 180;
+
+    @Option(name = "-sendBuffer", usage = "(optional) Socket send buffer of HTTPS connections in KB, for large uploads over long links, defaults to the OS default")
+    private int sendBufferKb;
+
+    @Option(name = "-maxConnections", usage = "(optional) Connections of the apache transport pool to the Play API, defaults to 20")
+    private int maxConnections = 20;
+
+    @Option(name = "-metricsFile", usage = "(optional) File to append a JSON line with the stage timings of each publish to")
+    private String metricsFile;
+
+    @Option(name = "-prometheusFile", usage = "(optional) File to write the stage timings of the last publish to, in Prometheus text format")
+    private String prometheusFile;
+
+    /**
+     * Options that describe how a batch is run rather than one release of it.
+     */
+    private static final List<String> BATCH_OPTIONS = Arrays.asList("-manifest", "-parallelism", "-port", "-watch", "-settle", "-queueSize");
+
+    /**
+     * Options of a release that take no value, given as "true" or "false" in the options of a batch entry or job.
+     */
+    private static final List<String> FLAG_OPTIONS = Arrays.asList("-validateOnly", "-internalSharing");
+
+    /**
+     * The arguments these were parsed from, so batch entries can be derived from them.
+     */
+    private String[] rawArguments = new String[0];
+
+    /**
+     * Parse process arguments.
+     *
+     * @param args process arguments
+     * @return parsed arguments
+     * @throws CmdLineException arguments error
+     */
+    public static CommandLineArguments parse(String... args) throws CmdLineException {
+        CommandLineArguments arguments = new CommandLineArguments();
+        new CmdLineParser(arguments).parseArgument(args);
+        arguments.rawArguments = args;
+        return arguments;
+    }
+
+    /**
+     * Derive the arguments of one release of a batch: these arguments with the given options applied on top.
+     *
+     * @param options option values by option name without the leading dash, e.g. "file" or "track", and "true" or
+     *                "false" for a flag such as "internalSharing"
+     */
+    public CommandLineArguments withOverrides(Map<String, String> options) throws CmdLineException {
+        List<String> args = new ArrayList<>();
+        for (int i = 0; i < rawArguments.length; i++) {
+            if (BATCH_OPTIONS.contains(rawArguments[i])) {
+                i++;
+            } else if (FLAG_OPTIONS.contains(rawArguments[i]) && options.containsKey(rawArguments[i].substring(1))) {
+                // the flag is set or cleared by the options
+            } else if (!"-server".equals(rawArguments[i])) {
+                args.add(rawArguments[i]);
+            }
+        }
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            String name = "-" + option.getKey();
+            if (FLAG_OPTIONS.contains(name)) {
+                if (Boolean.parseBoolean(option.getValue())) {
+                    args.add(name);
+                }
+                continue;
+            }
+            args.add(name);
+            args.add(option.getValue());
+        }
+        return parse(args.toArray(new String[0]));
+    }
+
     public String getJsonKeyPath() {
         return jsonKeyPath;
     }
@@ -89,4 +261,144 @@ public class CommandLineArguments {
     public String getPackageName() {
         return packageName;
     }
+
+    public String getMappingPath() {
+        return mappingPath;
+    }
+
+    public String getNativeSymbolsPath() {
+        return nativeSymbolsPath;
+    }
+
+    public Integer getChunkSizeMb() {
+        return chunkSizeMb;
+    }
+
+    public String getManifestPath() {
+        return manifestPath;
+    }
+
+    public String getPlanPath() {
+        return planPath;
+    }
+
+    public String getListingsPath() {
+        return listingsPath;
+    }
+
+    public String getRollout() {
+        return rollout;
+    }
+
+    public String getRamp() {
+        return ramp;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public String getLeaseDir() {
+        return leaseDir;
+    }
+
+    public int getLeaseTtlSeconds() {
+        return leaseTtlSeconds;
+    }
+
+    public int getLeaseWaitSeconds() {
+        return leaseWaitSeconds;
+    }
+
+    public String getShardKeys() {
+        return shardKeys;
+    }
+
+    public String getWatch() {
+        return watch;
+    }
+
+    public int getSettleSeconds() {
+        return settleSeconds;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public int getMaxAgeMinutes() {
+        return maxAgeMinutes;
+    }
+
+    public boolean isValidateOnly() {
+        return validateOnly;
+    }
+
+    public boolean isInternalSharing() {
+        return internalSharing;
+    }
+
+    public boolean isServer() {
+        return server;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getStateDir() {
+        return stateDir;
+    }
+
+    public String getUploadStatePath() {
+        return uploadStatePath == null ? file + ".upload-state" : uploadStatePath;
+    }
+
+    public double getApiRate() {
+        return apiRate;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public Integer getMaxUploadRateKb() {
+        return maxUploadRateKb;
+    }
+
+    public String getRootUrl() {
+        return rootUrl;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    public int getConnectTimeoutSeconds() {
+        return connectTimeoutSeconds;
+    }
+
+    public int getReadTimeoutSeconds() {
+        return readTimeoutSeconds;
+    }
+
+    public int getSendBufferKb() {
+        return sendBufferKb;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    public String getPrometheusFile() {
+        return prometheusFile;
+    }
 }
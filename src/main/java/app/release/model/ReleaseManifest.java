@@ -0,0 +1,73 @@
+package app.release.model;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.Data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * List of releases to publish in one batch run, read from a JSON file like
+ * <pre>
+ * {
+ *   "releases": [
+ *     { "file": "a.aab", "packageName": "com.example.a", "track": "internal", "notes": "new release" },
+ *     { "file": "b.apk", "packageName": "com.example.b", "track": "beta" }
+ *   ]
+ * }
+ * </pre>
+ * The keys of an entry are command line option names without the leading dash. Options not given in an entry are
+ * taken from the command line.
+ */
+public class ReleaseManifest {
+
+    private final List<Map<String, String>> releases;
+
+    private ReleaseManifest(List<Map<String, String>> releases) {
+        this.releases = releases;
+    }
+
+    public static ReleaseManifest load(Path manifestFile) throws IOException {
+        GenericJson json;
+        try (InputStream in = Files.newInputStream(manifestFile)) {
+            json = JacksonFactory.getDefaultInstance().createJsonParser(in).parse(GenericJson.class);
+        }
+        Object entries = json.get("releases");
+        if (!(entries instanceof Collection)) {
+            throw new IOException("Manifest " + manifestFile + " has no \"releases\" list");
+        }
+        List<Map<String, String>> releases = new ArrayList<>();
+        for (Object entry : (Collection<?>) entries) {
+            if (!(entry instanceof Map)) {
+                throw new IOException("Manifest " + manifestFile + " contains a release that is not an object: " + entry);
+            }
+            Map<String, String> options = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> option : ((Map<?, ?>) entry).entrySet()) {
+                // the parser stands in a JSON null with a null marker of the value type
+                if (Data.isNull(option.getValue())) {
+                    throw new IOException("Manifest " + manifestFile + " contains a release with a null \"" + option.getKey()
+                            + "\", leave the key out to take the option from the command line");
+                }
+                options.put(option.getKey().toString(), option.getValue().toString());
+            }
+            releases.add(options);
+        }
+        return new ReleaseManifest(releases);
+    }
+
+    /**
+     * @return the options of each release, in manifest order
+     */
+    public List<Map<String, String>> getReleases() {
+        return Collections.unmodifiableList(releases);
+    }
+}
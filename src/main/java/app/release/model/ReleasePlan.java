@@ -0,0 +1,160 @@
+package app.release.model;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Several artifacts and track releases of one app, published in a single edit. Read from a JSON file like
+ * <pre>
+ * {
+ *   "packageName": "com.example.app",
+ *   "artifacts": [ "app.aab", "wear.apk" ],
+ *   "tracks": [
+ *     { "track": "internal" },
+ *     { "track": "alpha", "artifacts": [ "app.aab" ], "status": "draft", "notes": "alpha release" }
+ *   ]
+ * }
+ * </pre>
+ * A track without "artifacts" gets all artifacts of the plan. Artifact paths are relative to the plan file.
+ */
+public class ReleasePlan {
+
+    private final String packageName;
+    private final List<Path> artifacts;
+    private final List<TrackPlan> tracks;
+
+    private ReleasePlan(String packageName, List<Path> artifacts, List<TrackPlan> tracks) {
+        this.packageName = packageName;
+        this.artifacts = artifacts;
+        this.tracks = tracks;
+    }
+
+    public static ReleasePlan load(Path planFile) throws IOException {
+        GenericJson json;
+        try (InputStream in = Files.newInputStream(planFile)) {
+            json = JacksonFactory.getDefaultInstance().createJsonParser(in).parse(GenericJson.class);
+        }
+        Path baseDir = planFile.toAbsolutePath().getParent();
+        List<Path> artifacts = paths(baseDir, json.get("artifacts"));
+        if (artifacts.isEmpty()) {
+            throw new IOException("Plan " + planFile + " has no \"artifacts\"");
+        }
+        if (!(json.get("tracks") instanceof Collection)) {
+            throw new IOException("Plan " + planFile + " has no \"tracks\" list");
+        }
+        List<TrackPlan> tracks = new ArrayList<>();
+        for (Object entry : (Collection<?>) json.get("tracks")) {
+            Map<?, ?> track = (Map<?, ?>) entry;
+            if (track.get("track") == null) {
+                throw new IOException("Plan " + planFile + " contains a track without a name: " + track);
+            }
+            List<Path> trackArtifacts = track.containsKey("artifacts") ? paths(baseDir, track.get("artifacts")) : artifacts;
+            if (!artifacts.containsAll(trackArtifacts)) {
+                throw new IOException("Track " + track.get("track") + " of plan " + planFile + " uses artifacts not listed in \"artifacts\"");
+            }
+            tracks.add(new TrackPlan(track.get("track").toString(), trackArtifacts, string(track.get("status")),
+                    string(track.get("releaseName")), string(track.get("notes")),
+                    track.get("userFraction") == null ? null : Double.valueOf(track.get("userFraction").toString())));
+        }
+        return new ReleasePlan(string(json.get("packageName")), artifacts, tracks);
+    }
+
+    private static List<Path> paths(Path baseDir, Object list) throws IOException {
+        if (!(list instanceof Collection)) {
+            return Collections.emptyList();
+        }
+        Set<Path> paths = new LinkedHashSet<>();
+        for (Object path : (Collection<?>) list) {
+            paths.add(baseDir.resolve(path.toString()).normalize());
+        }
+        return new ArrayList<>(paths);
+    }
+
+    private static String string(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * @return the package name of the plan, or null if it is taken from the command line
+     */
+    public String getPackageName() {
+        return packageName;
+    }
+
+    /**
+     * @return the distinct artifacts of the plan, each is uploaded once
+     */
+    public List<Path> getArtifacts() {
+        return Collections.unmodifiableList(artifacts);
+    }
+
+    public List<TrackPlan> getTracks() {
+        return Collections.unmodifiableList(tracks);
+    }
+
+    /**
+     * The release to create on one track.
+     */
+    public static class TrackPlan {
+        private final String track;
+        private final List<Path> artifacts;
+        private final String status;
+        private final String releaseName;
+        private final String notes;
+        private final Double userFraction;
+
+        TrackPlan(String track, List<Path> artifacts, String status, String releaseName, String notes, Double userFraction) {
+            this.track = track;
+            this.artifacts = artifacts;
+            this.status = status;
+            this.releaseName = releaseName;
+            this.notes = notes;
+            this.userFraction = userFraction;
+        }
+
+        public String getTrack() {
+            return track;
+        }
+
+        public List<Path> getArtifacts() {
+            return Collections.unmodifiableList(artifacts);
+        }
+
+        /**
+         * @return the release status or null for the one given on the command line
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the release name or null for the one given on the command line
+         */
+        public String getReleaseName() {
+            return releaseName;
+        }
+
+        /**
+         * @return the release notes or null for the ones given on the command line
+         */
+        public String getNotes() {
+            return notes;
+        }
+
+        public Double getUserFraction() {
+            return userFraction;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package app.release.model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Store listings and graphics of one app, read from a directory tree like
+ * <pre>
+ * listings/
+ *   en-US/
+ *     title.txt
+ *     short-description.txt
+ *     full-description.txt
+ *     video.txt
+ *     phoneScreenshots/01.png, 02.png
+ *     featureGraphic/feature.png
+ *   de-DE/
+ *     ...
+ * </pre>
+ * Text files that are missing leave the value on Play unchanged. Images of a type are ordered by file name.
+ */
+public class StoreListings {
+
+    /**
+     * Image types of the Play Developer API, see https://developers.google.com/android-publisher/api-ref/rest/v3/AppImageType
+     */
+    public static final List<String> IMAGE_TYPES = Collections.unmodifiableList(Arrays.asList(
+            "phoneScreenshots", "sevenInchScreenshots", "tenInchScreenshots", "tvScreenshots", "wearScreenshots",
+            "icon", "featureGraphic", "tvBanner", "promoGraphic"));
+
+    private final List<LocaleListing> locales;
+
+    private StoreListings(List<LocaleListing> locales) {
+        this.locales = locales;
+    }
+
+    public static StoreListings load(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("Listings directory " + directory + " does not exist");
+        }
+        List<LocaleListing> locales = new ArrayList<>();
+        for (Path localeDir : sorted(directory)) {
+            if (!Files.isDirectory(localeDir)) {
+                continue;
+            }
+            Map<String, List<Path>> images = new LinkedHashMap<>();
+            for (Path typeDir : sorted(localeDir)) {
+                String type = typeDir.getFileName().toString();
+                if (!Files.isDirectory(typeDir)) {
+                    continue;
+                }
+                if (!IMAGE_TYPES.contains(type)) {
+                    throw new IOException("Unknown image type " + typeDir + ", expected one of " + IMAGE_TYPES);
+                }
+                List<Path> files = new ArrayList<>();
+                for (Path file : sorted(typeDir)) {
+                    String name = file.getFileName().toString().toLowerCase();
+                    if (Files.isRegularFile(file) && (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg"))) {
+                        files.add(file);
+                    }
+                }
+                images.put(type, files);
+            }
+            locales.add(new LocaleListing(localeDir.getFileName().toString(), text(localeDir, "title.txt"),
+                    text(localeDir, "short-description.txt"), text(localeDir, "full-description.txt"),
+                    text(localeDir, "video.txt"), images));
+        }
+        return new StoreListings(locales);
+    }
+
+    private static List<Path> sorted(Path directory) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            stream.forEach(entries::add);
+        }
+        Collections.sort(entries);
+        return entries;
+    }
+
+    private static String text(Path localeDir, String fileName) throws IOException {
+        Path file = localeDir.resolve(fileName);
+        return Files.isRegularFile(file) ? new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim() : null;
+    }
+
+    public List<LocaleListing> getLocales() {
+        return locales;
+    }
+
+    /**
+     * Listing texts and images of one language.
+     */
+    public static class LocaleListing {
+
+        private final String language;
+        private final String title;
+        private final String shortDescription;
+        private final String fullDescription;
+        private final String video;
+        private final Map<String, List<Path>> images;
+
+        LocaleListing(String language, String title, String shortDescription, String fullDescription, String video,
+                      Map<String, List<Path>> images) {
+            this.language = language;
+            this.title = title;
+            this.shortDescription = shortDescription;
+            this.fullDescription = fullDescription;
+            this.video = video;
+            this.images = images;
+        }
+
+        public String getLanguage() {
+            return language;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getShortDescription() {
+            return shortDescription;
+        }
+
+        public String getFullDescription() {
+            return fullDescription;
+        }
+
+        public String getVideo() {
+            return video;
+        }
+
+        /**
+         * @return whether any listing text is given
+         */
+        public boolean hasText() {
+            return title != null || shortDescription != null || fullDescription != null || video != null;
+        }
+
+        /**
+         * @return image files by image type, only types that have a directory are included
+         */
+        public Map<String, List<Path>> getImages() {
+            return images;
+        }
+    }
+}
@@ -3,6 +3,8 @@ package app.release.publisher;
 import java.util.Locale;
 
 import app.release.model.CommandLineArguments;
+import app.release.publisher.android.PlayRequestExecutor;
+import app.release.publisher.server.PublishServer;
 import lombok.extern.slf4j.Slf4j;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -17,8 +19,16 @@ public class ApplicationPublisher {
     public static void main(String... args) {
         try {
             CommandLineArguments arguments = toCommandLineArguments(args);
+            if (arguments.isServer()) {
+                new PublishServer(arguments).start();
+                return;
+            }
             Publisher publisher = PublisherFactory.buildPublisher(arguments);
-            publisher.publish();
+            try {
+                publisher.publish();
+            } finally {
+                log.info("Play API requests: {}", PlayRequestExecutor.metrics());
+            }
         } catch (Exception e) {
             log.error("ERROR: [{}]", e.getMessage());
             e.printStackTrace();
@@ -27,14 +37,31 @@ public class ApplicationPublisher {
     }
 
     private static CommandLineArguments toCommandLineArguments(String[] args) throws CmdLineException {
-        CommandLineArguments arguments = new CommandLineArguments();
-        CmdLineParser parser = new CmdLineParser(arguments);
+        CmdLineParser parser = new CmdLineParser(new CommandLineArguments());
         // must have args
         if (args == null || args.length < 1) {
             String msg = "No arguments given";
             throw new CmdLineException(parser, localize(msg), msg);
         }
-        parser.parseArgument(args);
+        CommandLineArguments arguments = CommandLineArguments.parse(args);
+        if (!"net".equals(arguments.getTransport()) && !"apache".equals(arguments.getTransport())) {
+            String msg = "Option -transport must be net or apache";
+            throw new CmdLineException(parser, localize(msg), msg);
+        }
+        // a single release needs a file and a track, a batch or plan takes them from its file
+        if (arguments.getRollout() != null || arguments.getIndex() != null || arguments.getWatch() != null) {
+            return arguments;
+        }
+        if (!arguments.isServer() && arguments.getManifestPath() == null && arguments.getPlanPath() == null
+                && arguments.getListingsPath() == null
+                && (arguments.getFile() == null || arguments.getTrackName() == null && !arguments.isInternalSharing())) {
+            String msg = "Options -file and -track are required unless -manifest, -plan, -listings, -rollout, -index, -watch or -server is given, -internalSharing needs no -track";
+            throw new CmdLineException(parser, localize(msg), msg);
+        }
+        if (!arguments.isServer() && arguments.getListingsPath() == null && !arguments.isInternalSharing() && arguments.getReleaseName() == null) {
+            String msg = "Option -releasename is required unless -listings, -rollout, -index, -watch, -server or -internalSharing is given";
+            throw new CmdLineException(parser, localize(msg), msg);
+        }
         return arguments;
     }
 
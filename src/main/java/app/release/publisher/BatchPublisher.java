@@ -0,0 +1,182 @@
+package app.release.publisher;
+
+import app.release.model.CommandLineArguments;
+import app.release.model.ReleaseManifest;
+import app.release.publisher.android.PublishPipeline;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes all releases listed in a {@link ReleaseManifest} on a bounded worker pool.
+ * <p>
+ * Play allows only one open edit per app, so releases of the same package, as read from their artifacts, are published
+ * one after the other while different packages are published in parallel. With {@code -shardKeys} the packages are spread across several service
+ * accounts, each with its own API quota; a package always goes to the same account. With {@code -internalSharing} no
+ * edit is opened, so every release is uploaded in parallel, also those of the same package.
+ */
+@Slf4j
+public class BatchPublisher implements Publisher {
+
+    private final CommandLineArguments arguments;
+
+    public BatchPublisher(CommandLineArguments arguments) {
+        this.arguments = arguments;
+    }
+
+    @Override
+    public void publish() throws Exception {
+
+        // load manifest
+        log.info("Loading manifest...");
+        ReleaseManifest manifest = ReleaseManifest.load(FileSystems.getDefault().getPath(arguments.getManifestPath()).normalize());
+        List<Result> results = new ArrayList<>();
+        Map<String, List<Result>> resultsByPackage = new LinkedHashMap<>();
+        List<String> keys = serviceAccountKeys();
+        int threads = Math.max(1, arguments.getParallelism());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // the releases log into the job of the publish server that runs the batch
+        Executor executor = PublishPipeline.withMdc(pool);
+        long start = System.nanoTime();
+        try {
+            // read the package names of the artifacts in parallel, they are cached for the publishes
+            List<Future<String>> packageNames = new ArrayList<>();
+            for (Map<String, String> options : manifest.getReleases()) {
+                packageNames.add(CompletableFuture.supplyAsync(() -> packageName(arguments, options), executor));
+            }
+            for (int i = 0; i < manifest.getReleases().size(); i++) {
+                Map<String, String> options = manifest.getReleases().get(i);
+                String packageName = packageNames.get(i).get();
+                if (keys.size() > 1 && !options.containsKey("key")) {
+                    options = new LinkedHashMap<>(options);
+                    options.put("key", keys.get(Math.floorMod(packageName.hashCode(), keys.size())));
+                }
+                Result result = new Result(options);
+                results.add(result);
+                // without an edit internal sharing uploads of the same package do not need to wait for each other
+                String group = arguments.isInternalSharing() ? "release-" + i : packageName;
+                resultsByPackage.computeIfAbsent(group, k -> new ArrayList<>()).add(result);
+            }
+            log.info("Manifest lists [{}] releases of [{}] packages", results.size(), resultsByPackage.size());
+
+            // publish, one task per package
+            log.info("Publishing with [{}] workers...", Math.min(threads, resultsByPackage.size()));
+            List<Future<?>> tasks = new ArrayList<>();
+            for (List<Result> packageResults : resultsByPackage.values()) {
+                tasks.add(CompletableFuture.runAsync(() -> packageResults.forEach(this::publish), executor));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        if (results.isEmpty()) {
+            return;
+        }
+
+        // report
+        int failed = 0;
+        log.info("Batch finished in [{}] s:", seconds(System.nanoTime() - start));
+        for (Result result : results) {
+            if (result.error == null) {
+                log.info("  [OK]     {} ({} s)", result.options, seconds(result.nanos));
+            } else {
+                failed++;
+                log.error("  [FAILED] {} ({} s): {}", result.options, seconds(result.nanos), result.error.getMessage());
+            }
+        }
+        log.info("[{}] of [{}] releases published", results.size() - failed, results.size());
+        if (failed > 0) {
+            throw new IOException(failed + " of " + results.size() + " releases failed");
+        }
+    }
+
+    private void publish(Result result) {
+        long start = System.nanoTime();
+        try {
+            CommandLineArguments releaseArguments = arguments.withOverrides(result.options);
+            if (releaseArguments.getPlanPath() == null && (releaseArguments.getFile() == null
+                    || releaseArguments.getTrackName() == null && !releaseArguments.isInternalSharing())) {
+                throw new IllegalArgumentException("Release needs a file and a track, or a plan");
+            }
+            PublisherFactory.buildPublisher(releaseArguments).publish();
+        } catch (Exception e) {
+            log.error("Release {} failed: {}", result.options, e.getMessage());
+            result.error = e;
+        }
+        result.nanos = System.nanoTime() - start;
+    }
+
+    /**
+     * @return the packages the releases of the manifest of the arguments open edits of, see {@link #packageName}
+     */
+    public static Set<String> packageNames(CommandLineArguments arguments) throws IOException {
+        ReleaseManifest manifest = ReleaseManifest.load(FileSystems.getDefault().getPath(arguments.getManifestPath()).normalize());
+        Set<String> packageNames = new LinkedHashSet<>();
+        for (Map<String, String> options : manifest.getReleases()) {
+            packageNames.add(packageName(arguments, options));
+        }
+        return packageNames;
+    }
+
+    /**
+     * @return the package the release opens an edit of, or the file, plan or listings it names if the package is not
+     * known, so a release whose artifact can not be read still fails on its own when it is published
+     */
+    private static String packageName(CommandLineArguments arguments, Map<String, String> options) {
+        String path = options.containsKey("file") ? options.get("file")
+                : options.containsKey("plan") ? options.get("plan") : options.get("listings");
+        try {
+            String packageName = PublisherFactory.packageName(arguments.withOverrides(options));
+            return packageName != null ? packageName : String.valueOf(path);
+        } catch (Exception e) {
+            log.warn("Could not read the package name of release {}: {}", options, e.getMessage());
+            return String.valueOf(path);
+        }
+    }
+
+    /**
+     * @return the key of {@code -key} followed by those of {@code -shardKeys}
+     */
+    private List<String> serviceAccountKeys() {
+        List<String> keys = new ArrayList<>();
+        keys.add(arguments.getJsonKeyPath());
+        if (arguments.getShardKeys() != null) {
+            for (String key : arguments.getShardKeys().split(",")) {
+                if (!key.trim().isEmpty()) {
+                    keys.add(key.trim());
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static String seconds(long nanos) {
+        return String.format("%.1f", nanos / 1e9);
+    }
+
+    private static class Result {
+        private final Map<String, String> options;
+        private volatile Exception error;
+        private volatile long nanos;
+
+        Result(Map<String, String> options) {
+            this.options = options;
+        }
+    }
+}
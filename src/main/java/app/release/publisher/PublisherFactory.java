@@ -1,10 +1,24 @@
 package app.release.publisher;
 
 import app.release.publisher.android.AabPublisher;
+import app.release.publisher.android.AndroidPublisherClientPool;
 import app.release.publisher.android.ApkPublisher;
+import app.release.publisher.android.ArtifactCache;
+import app.release.publisher.android.EditLeases;
+import app.release.publisher.android.InternalSharingPublisher;
+import app.release.publisher.android.ListingPublisher;
+import app.release.publisher.android.ReleasePlanPublisher;
+import app.release.publisher.android.RolloutScheduler;
+import app.release.publisher.android.TrackIndexCommand;
 import app.release.model.CommandLineArguments;
+import app.release.model.ReleasePlan;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Paths;
+import java.util.function.Function;
+
 @Slf4j
 public class PublisherFactory {
 
@@ -12,19 +26,99 @@ public class PublisherFactory {
     }
 
     public static Publisher buildPublisher(CommandLineArguments arguments) {
+        return buildPublisher(arguments, AndroidPublisherClientPool.getDefault());
+    }
+
+    /**
+     * Build the publisher for the given arguments, reusing the clients and credentials of the given pool.
+     */
+    public static Publisher buildPublisher(CommandLineArguments arguments, AndroidPublisherClientPool clientPool) {
+        if (arguments.getManifestPath() != null) {
+            log.info("Constructing Batch Publisher for manifest [{}]", arguments.getManifestPath());
+            return new BatchPublisher(arguments);
+        }
+        if (arguments.getWatch() != null) {
+            log.info("Constructing Watch Publisher for directories [{}]", arguments.getWatch());
+            return new WatchPublisher(arguments);
+        }
+        if (arguments.getRollout() != null) {
+            log.info("Constructing Rollout Scheduler for command [{}]", arguments.getRollout());
+            return new RolloutScheduler(arguments, clientPool);
+        }
+        if (arguments.getIndex() != null) {
+            log.info("Constructing Track Index Command for command [{}]", arguments.getIndex());
+            return new TrackIndexCommand(arguments, clientPool);
+        }
+        if (arguments.getListingsPath() != null) {
+            log.info("Constructing Listing Publisher for directory [{}]", arguments.getListingsPath());
+            return leased(arguments, lease -> new ListingPublisher(arguments, clientPool, lease));
+        }
+        if (arguments.getPlanPath() != null) {
+            log.info("Constructing Release Plan Publisher for plan [{}]", arguments.getPlanPath());
+            return leased(arguments, lease -> new ReleasePlanPublisher(arguments, clientPool, lease));
+        }
         String fileName = arguments.getFile();
-        Publisher publisher;
+        if (fileName == null) {
+            throw new IllegalArgumentException("No -file given, pass an artifact or one of -manifest, -watch, -rollout, "
+                    + "-index, -listings or -plan");
+        }
+        if (arguments.isInternalSharing()) {
+            // no edit is opened, so no lease is needed and uploads of the same app run in parallel
+            log.info("Constructing Internal Sharing Publisher for file [{}]", fileName);
+            if (!fileName.toLowerCase().endsWith(".apk") && !fileName.toLowerCase().endsWith(".aab")) {
+                throw new RuntimeException("File Type is not supported for: " + fileName);
+            }
+            return new InternalSharingPublisher(arguments, clientPool);
+        }
+        Function<EditLeases.Lease, Publisher> publisher;
         if (fileName.toLowerCase().endsWith(".apk")) {
             log.info("Constructing APK Publisher for file [{}]", fileName);
-            publisher = new ApkPublisher(arguments);
+            publisher = lease -> new ApkPublisher(arguments, clientPool, lease);
         } else if (fileName.toLowerCase().endsWith(".aab")) {
             log.info("Constructing AAB Publisher for file [{}]", fileName);
-            publisher = new AabPublisher(arguments);
+            publisher = lease -> new AabPublisher(arguments, clientPool, lease);
         } else {
             log.error("Unsupported File type received: [{}]", fileName);
             throw new RuntimeException("File Type is not supported for: " + fileName);
         }
 
-        return publisher;
+        return leased(arguments, publisher);
+    }
+
+    /**
+     * @return the package a publish with the given arguments opens an edit of: the package of the plan, {@code
+     * -packageName} or the package read from the artifact, null if none is known
+     */
+    public static String packageName(CommandLineArguments arguments) throws IOException {
+        if (arguments.getPlanPath() != null) {
+            String packageName = ReleasePlan.load(Paths.get(arguments.getPlanPath()).normalize()).getPackageName();
+            return packageName == null ? arguments.getPackageName() : packageName;
+        }
+        if (arguments.getPackageName() != null || arguments.getFile() == null) {
+            return arguments.getPackageName();
+        }
+        // the publisher finds the inspected artifact in the cache
+        return ArtifactCache.open(FileSystems.getDefault().getPath(arguments.getStateDir())).inspect(Paths.get(arguments.getFile())).getPackageName();
+    }
+
+    /**
+     * Hold the edit lease of the package while the publisher runs, if leases are configured. The package name of an
+     * artifact is then read before the publish starts, and the publisher checks the lease before it commits.
+     */
+    private static Publisher leased(CommandLineArguments arguments, Function<EditLeases.Lease, Publisher> publisher) {
+        if (arguments.getLeaseDir() == null) {
+            return publisher.apply(EditLeases.unleased());
+        }
+        return () -> {
+            String name = packageName(arguments);
+            if (name == null) {
+                // the publisher fails for the missing package name itself
+                publisher.apply(EditLeases.unleased()).publish();
+                return;
+            }
+            try (EditLeases.Lease lease = EditLeases.forArguments(arguments).acquire(name)) {
+                publisher.apply(lease).publish();
+            }
+        };
     }
 }
@@ -0,0 +1,284 @@
+package app.release.publisher;
+
+import app.release.model.CommandLineArguments;
+import app.release.publisher.android.ArtifactCache;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes every apk and aab dropped into the watched directories, each directory to its own track.
+ * <p>
+ * Directories are given with {@code -watch}, e.g. {@code -watch builds/internal=internal,builds/beta=beta}; a directory
+ * without a track uses {@code -track}. A file is published once it is complete: when a marker file named like it with
+ * {@code .done} appended exists, or when its size and modification time did not change for {@code -settle} seconds.
+ * <p>
+ * Complete files wait in a queue of {@code -queueSize} for {@code -parallelism} workers, which keep running for the
+ * lifetime of the process. When the queue is full the watcher stops taking new files until a worker is free, new
+ * files are then picked up from the directory events buffered meanwhile. Files of the same package are published one
+ * after the other. Every file is published once: published and failed files are remembered by path, size and
+ * modification time in {@code -stateDir}, so only a rebuilt file is published again, also after a restart.
+ */
+@Slf4j
+public class WatchPublisher implements Publisher {
+
+    private static final long POLL_MILLIS = 250;
+    private static final String MARKER_SUFFIX = ".done";
+
+    private final CommandLineArguments arguments;
+    private final Map<Path, String> tracks = new LinkedHashMap<>();
+    private final Map<Path, Pending> pending = new LinkedHashMap<>();
+    private final Set<String> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Map<String, Object> packageLocks = new ConcurrentHashMap<>();
+    private final BlockingQueue<Pending> queue;
+    private final ProcessedFiles processed;
+
+    public WatchPublisher(CommandLineArguments arguments) {
+        this.arguments = arguments;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, arguments.getQueueSize()));
+        this.processed = new ProcessedFiles(FileSystems.getDefault().getPath(arguments.getStateDir()).resolve("watch-processed.properties"));
+        for (String spec : arguments.getWatch().split(",")) {
+            String[] dirAndTrack = spec.trim().split("=", 2);
+            String track = dirAndTrack.length > 1 ? dirAndTrack[1].trim() : arguments.getTrackName();
+            if (track == null && !arguments.isInternalSharing()) {
+                throw new IllegalArgumentException("No track for watched directory " + dirAndTrack[0] + ", give it as <dir>=<track> or with -track");
+            }
+            Path dir = Paths.get(dirAndTrack[0].trim()).toAbsolutePath().normalize();
+            if (!Files.isDirectory(dir)) {
+                throw new IllegalArgumentException("Watched directory does not exist: " + dir);
+            }
+            tracks.put(dir, track);
+        }
+    }
+
+    @Override
+    public void publish() throws Exception {
+        processed.load();
+        int workers = Math.max(1, arguments.getParallelism());
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::work, "watch-worker-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+        }
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            // register before the first scan, so no file dropped in between is missed
+            for (Path dir : tracks.keySet()) {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                scan(dir);
+                log.info("Watching [{}] for track [{}]", dir, tracks.get(dir));
+            }
+            log.info("Publishing complete files with [{}] workers, queue of [{}], settle time [{}] s", workers,
+                    queue.remainingCapacity(), arguments.getSettleSeconds());
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scan(dir);
+                        } else {
+                            detected(dir.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                }
+                enqueueComplete();
+            }
+        }
+    }
+
+    private void scan(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                detected(file);
+            }
+        }
+    }
+
+    private void detected(Path file) {
+        String name = file.getFileName().toString();
+        Path artifact = name.endsWith(MARKER_SUFFIX) ? file.resolveSibling(name.substring(0, name.length() - MARKER_SUFFIX.length())) : file;
+        String artifactName = artifact.getFileName().toString().toLowerCase();
+        if ((artifactName.endsWith(".apk") || artifactName.endsWith(".aab")) && !pending.containsKey(artifact)) {
+            pending.put(artifact, new Pending(artifact, tracks.get(artifact.getParent())));
+        }
+    }
+
+    /**
+     * Queue the pending files that are complete, waiting for room in the queue if it is full.
+     */
+    private void enqueueComplete() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        List<Pending> complete = new ArrayList<>();
+        for (Iterator<Pending> it = pending.values().iterator(); it.hasNext(); ) {
+            Pending file = it.next();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file.file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // deleted or renamed before it was complete
+                it.remove();
+                continue;
+            }
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (attributes.size() != file.size || modified != file.modified) {
+                file.size = attributes.size();
+                file.modified = modified;
+                file.changed = now;
+            }
+            boolean marked = Files.exists(file.file.resolveSibling(file.file.getFileName() + MARKER_SUFFIX));
+            if (marked || now - file.changed >= TimeUnit.SECONDS.toMillis(arguments.getSettleSeconds())) {
+                it.remove();
+                file.key = file.file + "|" + file.size + "|" + file.modified;
+                if (!processed.contains(file.key) && inFlight.add(file.key)) {
+                    complete.add(file);
+                }
+            }
+        }
+        for (Pending file : complete) {
+            if (!queue.offer(file)) {
+                log.warn("Queue full, waiting for a worker before taking [{}]", file.file);
+                queue.put(file);
+            }
+            log.info("[{}] is complete, queued for track [{}]", file.file, file.track);
+        }
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Pending file;
+            try {
+                file = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                publish(file);
+            } finally {
+                inFlight.remove(file.key);
+            }
+        }
+    }
+
+    private void publish(Pending file) {
+        long start = System.currentTimeMillis();
+        try {
+            Map<String, String> options = new LinkedHashMap<>();
+            options.put("file", file.file.toString());
+            if (file.track != null) {
+                options.put("track", file.track);
+            }
+            if (arguments.getReleaseName() == null) {
+                String name = file.file.getFileName().toString();
+                options.put("releasename", name.substring(0, name.lastIndexOf('.')));
+            }
+            CommandLineArguments releaseArguments = arguments.withOverrides(options);
+            // Play allows only one open edit per app, so files of the same package wait for each other
+            String packageName = releaseArguments.getPackageName() != null ? releaseArguments.getPackageName()
+                    : ArtifactCache.open(FileSystems.getDefault().getPath(arguments.getStateDir())).inspect(file.file).getPackageName();
+            Object packageLock = packageLocks.computeIfAbsent(packageName == null ? file.file.toString() : packageName, k -> new Object());
+            synchronized (packageLock) {
+                log.info("Publishing [{}] to track [{}], [{}] ms after it was detected", file.file, file.track, start - file.detected);
+                PublisherFactory.buildPublisher(releaseArguments).publish();
+            }
+            processed.add(file.key, "succeeded");
+            log.info("Published [{}] in [{}] s, [{}] s after it was detected", file.file, seconds(System.currentTimeMillis() - start),
+                    seconds(System.currentTimeMillis() - file.detected));
+        } catch (Exception e) {
+            log.error("Publishing [{}] failed: {}", file.file, e.getMessage());
+            processed.add(file.key, "failed: " + e.getMessage());
+        }
+    }
+
+    private static String seconds(long millis) {
+        return String.format("%.1f", millis / 1e3);
+    }
+
+    /**
+     * A file seen in a watched directory, waiting to be complete.
+     */
+    private static class Pending {
+        private final Path file;
+        private final String track;
+        private final long detected = System.currentTimeMillis();
+        private long size = -1;
+        private long modified = -1;
+        private long changed = detected;
+        private String key;
+
+        Pending(Path file, String track) {
+            this.file = file;
+            this.track = track;
+        }
+    }
+
+    /**
+     * Files published or failed, by path, size and modification time, kept in the state directory.
+     */
+    private static class ProcessedFiles {
+        private final Path stateFile;
+        private final Properties entries = new Properties();
+
+        ProcessedFiles(Path stateFile) {
+            this.stateFile = stateFile;
+        }
+
+        synchronized void load() throws IOException {
+            if (Files.isRegularFile(stateFile)) {
+                try (InputStream in = Files.newInputStream(stateFile)) {
+                    entries.load(in);
+                }
+                // forget files that were deleted, the state would only grow otherwise
+                for (String key : entries.stringPropertyNames()) {
+                    String path = key.substring(0, key.lastIndexOf('|', key.lastIndexOf('|') - 1));
+                    if (!Files.exists(Paths.get(path))) {
+                        entries.remove(key);
+                    }
+                }
+            }
+        }
+
+        synchronized boolean contains(String key) {
+            return entries.containsKey(key);
+        }
+
+        synchronized void add(String key, String result) {
+            entries.setProperty(key, System.currentTimeMillis() + " " + result);
+            try {
+                Files.createDirectories(stateFile.getParent());
+                Path tmp = Files.createTempFile(stateFile.getParent(), stateFile.getFileName().toString(), ".tmp");
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    entries.store(out, "app-release-manager watched files: path|size|mtime = time and result of the publish");
+                }
+                Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                log.warn("Could not save processed files [{}]: {}", stateFile, e.getMessage());
+            }
+        }
+    }
+}
@@ -2,41 +2,40 @@ package app.release.publisher.android;
 
 import app.release.model.CommandLineArguments;
 import app.release.publisher.Publisher;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.http.AbstractInputStreamContent;
-import com.google.api.client.http.FileContent;
-import com.google.api.client.http.HttpRequestInitializer;
-import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.services.androidpublisher.AndroidPublisher;
-import com.google.api.services.androidpublisher.AndroidPublisherScopes;
 import com.google.api.services.androidpublisher.model.*;
-import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.GoogleCredentials;
-import com.google.auth.oauth2.ServiceAccountCredentials;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Uploads android aab files to Play Store.
  */
 @Slf4j
+@SuppressWarnings("try")
 public class AabPublisher implements Publisher {
 
     private static final String MIME_TYPE_AAB = "application/octet-stream";
     private final CommandLineArguments arguments;
+    private final AndroidPublisherClientPool clientPool;
+    private final EditLeases.Lease lease;
 
-    public AabPublisher(CommandLineArguments arguments) {
+    /**
+     * @param lease the lease of the edit of the app, checked before the edit is committed
+     */
+    public AabPublisher(CommandLineArguments arguments, AndroidPublisherClientPool clientPool, EditLeases.Lease lease) {
         this.arguments = arguments;
+        this.clientPool = clientPool;
+        this.lease = lease;
     }
 
     /**
@@ -46,22 +45,43 @@ public class AabPublisher implements Publisher {
      */
     @Override
     public void publish() throws Exception {
+        PublishMetrics metrics = new PublishMetrics("aab", arguments.getFile());
+        try {
+            publish(metrics);
+            metrics.finish(arguments, null);
+        } catch (Exception e) {
+            metrics.finish(arguments, e);
+            throw e;
+        }
+    }
 
-        // load key file credentials
-        log.info("Loading account credentials...");
-        Path jsonKey = FileSystems.getDefault().getPath(arguments.getJsonKeyPath()).normalize();
-        GoogleCredentials credentials = ServiceAccountCredentials.fromStream(new FileInputStream(jsonKey.toFile()))
-                .createScoped(Collections.singleton(AndroidPublisherScopes.ANDROIDPUBLISHER));
+    private void publish(PublishMetrics metrics) throws Exception {
 
-        // load aab file info
+        // hash the aab file, fetch the access token and insert the edit at the same time
         log.info("Loading file information...");
         Path file = FileSystems.getDefault().getPath(arguments.getFile()).normalize();
-        String applicationName = arguments.getAppName();
-        String packageName = arguments.getPackageName();
+        CompletableFuture<ArtifactInfo> inspection = PublishPipeline.inspect(arguments, metrics, file);
+        CompletableFuture<GoogleCredentials> authentication = PublishPipeline.credentials(arguments, metrics, clientPool);
+
+        // the package name is only read from the manifest if not given
+        String packageName = arguments.getPackageName() == null ? PublishPipeline.await(inspection).getPackageName() : arguments.getPackageName();
+        metrics.setPackageName(packageName);
+        String applicationName = arguments.getAppName() == null ? packageName : arguments.getAppName();
         log.info("Application Name: [{}]", applicationName);
         log.info("Package Name: [{}]", packageName);
 
-        // load release notes
+        // init publisher
+        CompletableFuture<AndroidPublisher> client = PublishPipeline.client(arguments, metrics, clientPool, authentication, applicationName);
+        PlayRequestExecutor executor = PlayRequestExecutor.forArguments(arguments);
+
+        // create an edit, or continue the one of an interrupted resumable upload
+        CompletableFuture<ResumableUpload> resumable = PublishPipeline.resumable(arguments, executor, client, file, MIME_TYPE_AAB);
+        CompletableFuture<String> editCreation = PublishPipeline.edit(metrics, executor, client, resumable, packageName);
+
+        // list the tracks for the preflight while the file is inspected
+        CompletableFuture<List<Track>> trackList = PublishPipeline.tracks(arguments, metrics, executor, client, editCreation, packageName);
+
+        // load release notes meanwhile
         log.info("Loading release notes...");
         List<LocalizedText> releaseNotes = new ArrayList<>();
         if (arguments.getNotesPath() != null) {
@@ -77,125 +97,113 @@ public class AabPublisher implements Publisher {
             releaseNotes.add(new LocalizedText().setLanguage(Locale.US.toString()).setText(arguments.getNotes()));
         }
 
-        // init publisher
-        log.info("Initialising publisher service...");
-        AndroidPublisher publisher = new AndroidPublisher.Builder(
-                GoogleNetHttpTransport.newTrustedTransport(),
-                JacksonFactory.getDefaultInstance(),
-                setHttpTimeout(new HttpCredentialsAdapter(credentials))).setApplicationName(applicationName).build();
-
-        // create an edit
-        log.info("Initialising new edit...");
-        AppEdit edit = null;
-        try {
-            edit = publisher.edits().insert(packageName, null).execute();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        final String editId = edit.getId();
-        log.info("Edit created with Id: [{}]", editId);
+        final AndroidPublisher publisher = PublishPipeline.await(client);
+        final ResumableUpload resumableUpload = PublishPipeline.await(resumable);
+        final String editId = PublishPipeline.await(editCreation);
 
         long bundleVersionCode = 0;
         try {
-            
-            // publish the file
-            log.info("Uploading AAB file...");
-            AbstractInputStreamContent aabContent = new FileContent(MIME_TYPE_AAB, file.toFile());
-            Bundle bundle = publisher.edits().bundles().upload(packageName, editId, aabContent).execute();
-            bundleVersionCode = (long) bundle.getVersionCode();
-            log.info("AAB File uploaded with Version Code: [{}]", bundle.getVersionCode());
+            final ArtifactInfo aabInfo = PublishPipeline.await(inspection);
+
+            // publish the file, unless Play already has it
+            Long existingVersionCode;
+            try (PublishMetrics.Stage stage = metrics.stage("existing")) {
+                existingVersionCode = ExistingArtifacts.findBundle(publisher, executor, packageName, editId, aabInfo.getSha256());
+            }
+
+            // check the release against the tracks of the app before any byte is sent
+            String status = arguments.getStatus() == null ? "completed" : arguments.getStatus();
+            try (PublishMetrics.Stage stage = metrics.stage("preflight")) {
+                Preflight preflight = new Preflight(packageName, PublishPipeline.await(trackList));
+                preflight.checkArtifact(file, aabInfo, arguments.getTrackName(), existingVersionCode != null);
+                preflight.checkRelease(arguments.getTrackName(), status, null);
+                preflight.verify();
+            }
+            if (arguments.isValidateOnly()) {
+                log.info("Validation only, deleting edit [{}] without uploading", editId);
+                executor.execute("edits.delete", publisher.edits().delete(packageName, editId));
+                return;
+            }
+
+            if (existingVersionCode != null) {
+                bundleVersionCode = existingVersionCode;
+                log.info("AAB File already uploaded, skipping upload");
+            } else {
+                log.info("Uploading AAB file...");
+                Bundle bundle;
+                try (PublishMetrics.Stage stage = metrics.stage("upload")) {
+                    if (resumableUpload == null) {
+                        ChannelContent aabContent = new ChannelContent(MIME_TYPE_AAB, file, BandwidthLimiter.forArguments(arguments));
+                        bundle = executor.executeUpload("bundles.upload", () -> {
+                            AndroidPublisher.Edits.Bundles.Upload upload = publisher.edits().bundles().upload(packageName, editId, aabContent);
+                            upload.getMediaHttpUploader().setProgressListener(
+                                    uploader -> metrics.progressChanged(uploader.getNumBytesUploaded(), aabInfo.getSize()));
+                            return upload;
+                        });
+                        aabContent.verifySha256(aabInfo.getSha256(), "the inspected file");
+                        aabContent.verifySha256(bundle.getSha256(), "Play");
+                    } else {
+                        resumableUpload.setProgressListener(metrics);
+                        resumableUpload.setBandwidthLimiter(BandwidthLimiter.forArguments(arguments));
+                        bundle = resumableUpload.upload(packageName, editId, "bundles", Bundle.class);
+                        resumableUpload.verifySha256(aabInfo.getSha256(), "the inspected file");
+                        resumableUpload.verifySha256(bundle.getSha256(), "Play");
+                    }
+                }
+                bundleVersionCode = (long) bundle.getVersionCode();
+                log.info("AAB File uploaded with Version Code: [{}]", bundle.getVersionCode());
+            }
+
+            // upload mapping and native symbols while the release is created
+            CompletableFuture<Void> deobfuscation = DeobfuscationFiles.upload(publisher, executor, metrics, arguments,
+                    packageName, editId, bundleVersionCode);
 
             // create a release on track
             log.info("Creating a release on track:[{}]", arguments.getTrackName());
             TrackRelease release = new TrackRelease()
                     .setName(arguments.getReleaseName())
-                    .setStatus(arguments.getStatus() == null ? "completed" : arguments.getStatus())
+                    .setStatus(status)
                     .setVersionCodes(Collections.singletonList(bundleVersionCode))
                     //.setUserFraction(1.0) // IN_PROGRESS release must have fraction
                     .setReleaseNotes(releaseNotes);
 
             Track track = new Track().setReleases(Collections.singletonList(release))
                     .setTrack(arguments.getTrackName());
-            publisher.edits().tracks().update(packageName, editId, arguments.getTrackName(), track).execute();
+            try (PublishMetrics.Stage stage = metrics.stage("track.update")) {
+                executor.execute("tracks.update", publisher.edits().tracks().update(packageName, editId, arguments.getTrackName(), track));
+            }
             log.info("Release created on track: [{}]", arguments.getTrackName());
 
+            PublishPipeline.await(deobfuscation);
+
             // commit edit
             log.info("Committing edit...");
-            publisher.edits().commit(packageName, editId).execute();
+            lease.checkHeld();
+            try (PublishMetrics.Stage stage = metrics.stage("commit")) {
+                executor.executeNonIdempotent("edits.commit", publisher.edits().commit(packageName, editId));
+            }
             log.info("Success. Committed Edit id: [{}]. Release created.", editId);
+            TrackIndex.forArguments(arguments).record(packageName, Collections.singletonList(track));
 
             // Success
 
         } catch (final Exception e) {
             String errorMessage = "Operation Failed: " + e.getMessage();
             e.printStackTrace();
-            log.error("Operation failed due to an errorMessage!, Deleting edit...");
-            try {
-                publisher.edits().delete(packageName, editId).execute();
-            } catch (Exception e2) {
-                errorMessage += "\nFailed to delete edit: " + e2.getMessage();
+            if (resumableUpload != null && resumableUpload.isInterrupted()) {
+                // keep the edit, so a rerun can continue the upload where it stopped
+                log.error("Upload interrupted, keeping edit [{}] to resume from [{}]", editId, arguments.getUploadStatePath());
+                throw new IOException(errorMessage, e);
             }
-            log.error("Error: [{}]", errorMessage);
-            throw new IOException(errorMessage, e);
-        }
-
-        // extra step, try to activate draft release on internalt testing track.. doesn't work for unreleased draft app?
-        // TODO not working
-        //updateVersionStatusCompleted(publisher, packageName, bundleVersionCode);
-
-    }
-
-    public void updateVersionStatusCompleted(AndroidPublisher publisher, String packageName, long bundleVersionCode) throws Exception {
-
-        // create an edit
-        log.info("Initialising new edit...");
-        AppEdit edit = null;
-        try {
-            edit = publisher.edits().insert(packageName, null).execute();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        final String editId = edit.getId();
-        log.info("Edit created with Id: [{}]", editId);
-
-        try {
-            // create a release on track
-            log.info("Updating a release on track:[{}]", arguments.getTrackName());
-            TrackRelease release = new TrackRelease()
-                    .setStatus("inProgress")
-                    .setUserFraction(0.0)
-                    .setVersionCodes(Collections.singletonList(bundleVersionCode));
-
-            Track track = new Track().setReleases(Collections.singletonList(release))
-                    .setTrack(arguments.getTrackName());
-            publisher.edits().tracks().update(packageName, editId, arguments.getTrackName(), track).execute();
-            log.info("Release updated on track: [{}]", arguments.getTrackName());
-
-            // commit edit
-            log.info("Committing edit...");
-            publisher.edits().commit(packageName, editId).execute();
-            log.info("Success. Committed Edit id: [{}]. Release updated.", editId);
-
-            // Success
-        } catch (final Exception e) {
-            String errorMessage = "Operation Failed: " + e.getMessage();
-            e.printStackTrace();
             log.error("Operation failed due to an errorMessage!, Deleting edit...");
             try {
-                publisher.edits().delete(packageName, editId).execute();
+                executor.execute("edits.delete", publisher.edits().delete(packageName, editId));
             } catch (Exception e2) {
                 errorMessage += "\nFailed to delete edit: " + e2.getMessage();
             }
             log.error("Error: [{}]", errorMessage);
             throw new IOException(errorMessage, e);
         }
-    }
 
-    private HttpRequestInitializer setHttpTimeout(final HttpRequestInitializer requestInitializer) {
-        return httpRequest -> {
-            requestInitializer.initialize(httpRequest);
-            httpRequest.setConnectTimeout(3 * 60000); // 3 minutes connect timeout
-            httpRequest.setReadTimeout(3 * 60000); // 3 minutes read timeout
-        };
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,136 @@
+package app.release.publisher.android;
+
+import app.release.model.CommandLineArguments;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.AndroidPublisherScopes;
+import com.google.auth.http.HttpCredentialsAdapter;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.auth.oauth2.ServiceAccountCredentials;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands out {@link AndroidPublisher} clients that share one HTTP transport and one set of credentials per key file.
+ * <p>
+ * Building the trusted transport, parsing the service account key and fetching an OAuth token each cost a noticeable
+ * amount of time, so they are done once per process instead of once per publish. The credentials keep their access
+ * token and only refresh it shortly before it expires.
+ */
+@Slf4j
+public class AndroidPublisherClientPool {
+
+    private static final AndroidPublisherClientPool DEFAULT = new AndroidPublisherClientPool();
+    private static final AtomicBoolean FIRST_REQUEST = new AtomicBoolean();
+
+    private final Map<String, HttpTransport> transports = new HashMap<>();
+    private final Map<Path, GoogleCredentials> credentialsByKey = new HashMap<>();
+    private final Map<String, AndroidPublisher> clients = new HashMap<>();
+
+    /**
+     * @return the pool shared by all publishers of this process
+     */
+    public static AndroidPublisherClientPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get the client for the given service account key and application name, creating it on first use.
+     */
+    public AndroidPublisher get(String jsonKeyPath, String applicationName) throws IOException, GeneralSecurityException {
+        return get(jsonKeyPath, applicationName, null);
+    }
+
+    /**
+     * Get the client for the key, root URL and transport settings of the arguments, creating it on first use.
+     */
+    public AndroidPublisher get(CommandLineArguments arguments, String applicationName) throws IOException, GeneralSecurityException {
+        return get(arguments.getJsonKeyPath(), applicationName, arguments.getRootUrl(), HttpTransports.Options.forArguments(arguments));
+    }
+
+    /**
+     * Get the client for the given service account key and application name, creating it on first use.
+     *
+     * @param rootUrl root URL of the API, or null for the Google endpoint
+     */
+    public AndroidPublisher get(String jsonKeyPath, String applicationName, String rootUrl) throws IOException, GeneralSecurityException {
+        return get(jsonKeyPath, applicationName, rootUrl, HttpTransports.Options.DEFAULT);
+    }
+
+    /**
+     * Get the client for the given service account key and application name, creating it on first use.
+     *
+     * @param rootUrl root URL of the API, or null for the Google endpoint
+     * @param options transport and timeouts of the client
+     */
+    public synchronized AndroidPublisher get(String jsonKeyPath, String applicationName, String rootUrl, HttpTransports.Options options)
+            throws IOException, GeneralSecurityException {
+        Path jsonKey = Paths.get(jsonKeyPath).toAbsolutePath().normalize();
+        String clientKey = jsonKey + "|" + applicationName + "|" + rootUrl + "|" + options;
+        AndroidPublisher client = clients.get(clientKey);
+        if (client == null) {
+            log.info("Initialising publisher service for [{}]...", applicationName);
+            AndroidPublisher.Builder builder = new AndroidPublisher.Builder(
+                    transport(options),
+                    JacksonFactory.getDefaultInstance(),
+                    setHttpTimeout(new HttpCredentialsAdapter(credentials(jsonKey)), options)).setApplicationName(applicationName);
+            if (rootUrl != null) {
+                builder.setRootUrl(rootUrl.endsWith("/") ? rootUrl : rootUrl + "/");
+            }
+            client = builder.build();
+            clients.put(clientKey, client);
+        }
+        return client;
+    }
+
+    /**
+     * Get the scoped credentials of the given service account key, loading them on first use.
+     */
+    public synchronized GoogleCredentials credentials(Path jsonKey) throws IOException {
+        GoogleCredentials credentials = credentialsByKey.get(jsonKey);
+        if (credentials == null) {
+            log.info("Loading account credentials [{}]...", jsonKey);
+            try (InputStream in = Files.newInputStream(jsonKey)) {
+                credentials = ServiceAccountCredentials.fromStream(in)
+                        .createScoped(Collections.singleton(AndroidPublisherScopes.ANDROIDPUBLISHER));
+            }
+            credentialsByKey.put(jsonKey, credentials);
+        }
+        return credentials;
+    }
+
+    private HttpTransport transport(HttpTransports.Options options) throws IOException, GeneralSecurityException {
+        HttpTransport transport = transports.get(options.transportKey());
+        if (transport == null) {
+            transport = HttpTransports.create(options);
+            transports.put(options.transportKey(), transport);
+        }
+        return transport;
+    }
+
+    private static HttpRequestInitializer setHttpTimeout(final HttpRequestInitializer requestInitializer, HttpTransports.Options options) {
+        return httpRequest -> {
+            if (FIRST_REQUEST.compareAndSet(false, true)) {
+                // startup cost of the packaging, see startup-benchmark
+                log.info("First API call [{}] ms after JVM start",
+                        System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime());
+            }
+            requestInitializer.initialize(httpRequest);
+            httpRequest.setConnectTimeout(options.getConnectTimeoutMillis());
+            httpRequest.setReadTimeout(options.getReadTimeoutMillis());
+        };
+    }
+}
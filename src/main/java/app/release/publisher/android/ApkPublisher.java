@@ -2,63 +2,55 @@ package app.release.publisher.android;
 
 import app.release.model.CommandLineArguments;
 import app.release.publisher.Publisher;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.http.AbstractInputStreamContent;
-import com.google.api.client.http.FileContent;
-import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.services.androidpublisher.AndroidPublisher;
-import com.google.api.services.androidpublisher.AndroidPublisherScopes;
 import com.google.api.services.androidpublisher.model.*;
-import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.GoogleCredentials;
-import com.google.auth.oauth2.ServiceAccountCredentials;
 import lombok.extern.slf4j.Slf4j;
-import net.dongliu.apk.parser.ApkFile;
-import net.dongliu.apk.parser.bean.ApkMeta;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Uploads android apk files to Play Store.
  */
 @Slf4j
+@SuppressWarnings("try")
 public class ApkPublisher implements Publisher {
 
     private static final String MIME_TYPE_APK = "application/vnd.android.package-archive";
     private final CommandLineArguments arguments;
+    private final AndroidPublisherClientPool clientPool;
+    private final EditLeases.Lease lease;
 
-    public ApkPublisher(CommandLineArguments arguments) {
+    /**
+     * @param lease the lease of the edit of the app, checked before the edit is committed
+     */
+    public ApkPublisher(CommandLineArguments arguments, AndroidPublisherClientPool clientPool, EditLeases.Lease lease) {
         this.arguments = arguments;
+        this.clientPool = clientPool;
+        this.lease = lease;
     }
 
     @Override
-    public void publish() throws IOException, GeneralSecurityException {
+    public void publish() throws Exception {
+        PublishMetrics metrics = new PublishMetrics("apk", arguments.getFile());
+        try {
+            publish(metrics);
+            metrics.finish(arguments, null);
+        } catch (Exception e) {
+            metrics.finish(arguments, e);
+            throw e;
+        }
+    }
 
-        // load key file credentials
-        log.info("Loading account credentials...");
-        Path jsonKey = FileSystems.getDefault().getPath(arguments.getJsonKeyPath()).normalize();
-        GoogleCredentials credentials = ServiceAccountCredentials.fromStream(new FileInputStream(jsonKey.toFile())).createScoped(Collections.singleton(AndroidPublisherScopes.ANDROIDPUBLISHER));
-        // load apk file info
-        log.info("Loading apk file information...");
-        Path apkFile = FileSystems.getDefault().getPath(arguments.getFile()).normalize();
-        ApkFile apkInfo = new ApkFile(apkFile.toFile());
-        ApkMeta apkMeta = apkInfo.getApkMeta();
-        final String applicationName = arguments.getAppName() == null ? apkMeta.getName() : arguments.getAppName();
-        final String packageName = apkMeta.getPackageName();
-        log.info("ApplicationPublisher Name: [{}]", apkMeta.getName());
-        log.info("ApplicationPublisher Id: [{}]", apkMeta.getPackageName());
-        log.info("ApplicationPublisher Version Code: %d%n", apkMeta.getVersionCode());
-        log.info("ApplicationPublisher Version Name: [{}]", apkMeta.getVersionName());
-        apkInfo.close();
+    private void publish(PublishMetrics metrics) throws Exception {
 
         // load release notes
         log.info("Loading release notes...");
@@ -71,51 +63,127 @@ public class ApkPublisher implements Publisher {
             releaseNotes.add(new LocalizedText().setLanguage(Locale.US.toString()).setText(arguments.getNotes()));
         }
 
+        // hash the apk file, fetch the access token and insert the edit at the same time
+        log.info("Loading apk file information...");
+        Path apkFile = FileSystems.getDefault().getPath(arguments.getFile()).normalize();
+        CompletableFuture<ArtifactInfo> inspection = PublishPipeline.inspect(arguments, metrics, apkFile);
+        CompletableFuture<GoogleCredentials> authentication = PublishPipeline.credentials(arguments, metrics, clientPool);
+
+        // the package name is only read from the manifest if not given
+        final String packageName = arguments.getPackageName() == null ? PublishPipeline.await(inspection).getPackageName() : arguments.getPackageName();
+        metrics.setPackageName(packageName);
+        final String applicationName = arguments.getAppName() == null ? packageName : arguments.getAppName();
+        log.info("ApplicationPublisher Name: [{}]", applicationName);
+        log.info("ApplicationPublisher Id: [{}]", packageName);
+
         // init publisher
-        log.info("Initialising publisher service...");
-        AndroidPublisher publisher = new AndroidPublisher.Builder(
-                GoogleNetHttpTransport.newTrustedTransport(),
-                JacksonFactory.getDefaultInstance(),
-                new HttpCredentialsAdapter(credentials)
-        ).setApplicationName(applicationName).build();
+        CompletableFuture<AndroidPublisher> client = PublishPipeline.client(arguments, metrics, clientPool, authentication, applicationName);
+        PlayRequestExecutor executor = PlayRequestExecutor.forArguments(arguments);
+
+        // create an edit, or continue the one of an interrupted resumable upload
+        CompletableFuture<ResumableUpload> resumable = PublishPipeline.resumable(arguments, executor, client, apkFile, MIME_TYPE_APK);
+        CompletableFuture<String> editCreation = PublishPipeline.edit(metrics, executor, client, resumable, packageName);
 
+        // list the tracks for the preflight while the file is inspected
+        CompletableFuture<List<Track>> trackList = PublishPipeline.tracks(arguments, metrics, executor, client, editCreation, packageName);
 
-        // create an edit
-        log.info("Initialising new edit...");
-        AppEdit edit = publisher.edits().insert(packageName, null).execute();
-        final String editId = edit.getId();
-        log.info("Edit created. Id: [{}]", editId);
+        final AndroidPublisher publisher = PublishPipeline.await(client);
+        final ResumableUpload resumableUpload = PublishPipeline.await(resumable);
+        final String editId = PublishPipeline.await(editCreation);
 
         try {
-            // publish the apk
-            log.info("Uploading apk file...");
-            AbstractInputStreamContent apkContent = new FileContent(MIME_TYPE_APK, apkFile.toFile());
-            Apk apk = publisher.edits().apks().upload(packageName, editId, apkContent).execute();
-            log.info("Apk uploaded. Version Code: [{}]", apk.getVersionCode());
+            final ArtifactInfo apkInfo = PublishPipeline.await(inspection);
+            log.info("ApplicationPublisher Version Code: [{}]", apkInfo.getVersionCode());
+            log.info("ApplicationPublisher Version Name: [{}]", apkInfo.getVersionName());
+
+            // publish the apk, unless Play already has it
+            Long apkVersionCode;
+            try (PublishMetrics.Stage stage = metrics.stage("existing")) {
+                apkVersionCode = ExistingArtifacts.findApk(publisher, executor, packageName, editId, apkInfo.getSha256());
+            }
+
+            // check the release against the tracks of the app before any byte is sent
+            try (PublishMetrics.Stage stage = metrics.stage("preflight")) {
+                Preflight preflight = new Preflight(packageName, PublishPipeline.await(trackList));
+                preflight.checkArtifact(apkFile, apkInfo, arguments.getTrackName(), apkVersionCode != null);
+                preflight.checkRelease(arguments.getTrackName(), "completed", null);
+                preflight.verify();
+            }
+            if (arguments.isValidateOnly()) {
+                log.info("Validation only, deleting edit [{}] without uploading", editId);
+                executor.execute("edits.delete", publisher.edits().delete(packageName, editId));
+                return;
+            }
+
+            if (apkVersionCode != null) {
+                log.info("Apk already uploaded, skipping upload");
+            } else {
+                log.info("Uploading apk file...");
+                Apk apk;
+                try (PublishMetrics.Stage stage = metrics.stage("upload")) {
+                    if (resumableUpload == null) {
+                        ChannelContent apkContent = new ChannelContent(MIME_TYPE_APK, apkFile, BandwidthLimiter.forArguments(arguments));
+                        apk = executor.executeUpload("apks.upload", () -> {
+                            AndroidPublisher.Edits.Apks.Upload upload = publisher.edits().apks().upload(packageName, editId, apkContent);
+                            upload.getMediaHttpUploader().setProgressListener(
+                                    uploader -> metrics.progressChanged(uploader.getNumBytesUploaded(), apkInfo.getSize()));
+                            return upload;
+                        });
+                        apkContent.verifySha256(apkInfo.getSha256(), "the inspected file");
+                        apkContent.verifySha256(apk.getBinary() == null ? null : apk.getBinary().getSha256(), "Play");
+                    } else {
+                        resumableUpload.setProgressListener(metrics);
+                        resumableUpload.setBandwidthLimiter(BandwidthLimiter.forArguments(arguments));
+                        apk = resumableUpload.upload(packageName, editId, "apks", Apk.class);
+                        resumableUpload.verifySha256(apkInfo.getSha256(), "the inspected file");
+                        resumableUpload.verifySha256(apk.getBinary() == null ? null : apk.getBinary().getSha256(), "Play");
+                    }
+                }
+                apkVersionCode = (long) apk.getVersionCode();
+                log.info("Apk uploaded. Version Code: [{}]", apk.getVersionCode());
+            }
+
+            // upload mapping and native symbols while the release is created
+            CompletableFuture<Void> deobfuscation = DeobfuscationFiles.upload(publisher, executor, metrics, arguments,
+                    packageName, editId, apkVersionCode);
 
             // create a release on track
             log.info("Creating a release on track: [{}]", arguments.getTrackName());
             TrackRelease release = new TrackRelease().setName("Automated publish").setStatus("completed")
-                    .setVersionCodes(Collections.singletonList((long) apk.getVersionCode()))
+                    .setVersionCodes(Collections.singletonList(apkVersionCode))
                     .setReleaseNotes(releaseNotes);
             Track track = new Track().setReleases(Collections.singletonList(release)).setTrack(arguments.getTrackName());
-            publisher.edits().tracks().update(packageName, editId, arguments.getTrackName(), track).execute();
+            try (PublishMetrics.Stage stage = metrics.stage("track.update")) {
+                executor.execute("tracks.update", publisher.edits().tracks().update(packageName, editId, arguments.getTrackName(), track));
+            }
             log.info("Release created on track: [{}]", arguments.getTrackName());
 
+            PublishPipeline.await(deobfuscation);
+
             // commit edit
             log.info("Committing edit...");
-            publisher.edits().commit(packageName, editId).execute();
+            lease.checkHeld();
+            try (PublishMetrics.Stage stage = metrics.stage("commit")) {
+                executor.executeNonIdempotent("edits.commit", publisher.edits().commit(packageName, editId));
+            }
             log.info("Success. Committed Edit id: [{}]", editId);
+            TrackIndex.forArguments(arguments).record(packageName, Collections.singletonList(track));
 
             // Success
         } catch (Exception e) {
             // error message
             String msg = "Operation Failed: " + e.getMessage();
 
+            if (resumableUpload != null && resumableUpload.isInterrupted()) {
+                // keep the edit, so a rerun can continue the upload where it stopped
+                log.error("Upload interrupted, keeping edit [{}] to resume from [{}]", editId, arguments.getUploadStatePath());
+                throw new IOException(msg, e);
+            }
+
             // abort
             log.error("Operation failed due to an error!, Deleting edit...");
             try {
-                publisher.edits().delete(packageName, editId).execute();
+                executor.execute("edits.delete", publisher.edits().delete(packageName, editId));
             } catch (Exception e2) {
                 // log abort error as well
                 msg += "\nFailed to delete edit: " + e2.getMessage();
@@ -0,0 +1,165 @@
+package app.release.publisher.android;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache of {@link ArtifactInspector} results keyed by path, size and modification time, so an unchanged
+ * artifact is never read and hashed twice.
+ * <p>
+ * Only the entry of the current version of a file is kept. Processes sharing the state directory merge their entries
+ * under a lock file when they write the cache. The cache only saves work: a cache file that can not be read or
+ * written is logged and the artifact is inspected as if it was not cached.
+ */
+@Slf4j
+@SuppressWarnings("try")
+public class ArtifactCache {
+
+    private static final String CACHE_FILE = "artifact-cache.properties";
+    private static final String LOCK_FILE = "artifact-cache.lock";
+    private static final Map<Path, ArtifactCache> CACHES = new ConcurrentHashMap<>();
+
+    private final Path cacheFile;
+    private final Path lockFile;
+    private final Properties entries = new Properties();
+
+    private ArtifactCache(Path cacheFile) {
+        this.cacheFile = cacheFile;
+        this.lockFile = cacheFile.resolveSibling(LOCK_FILE);
+    }
+
+    /**
+     * @param stateDir directory holding the cache file, created if missing
+     * @return the cache of that directory, shared within this process, empty if its file can not be read
+     */
+    public static ArtifactCache open(Path stateDir) {
+        Path cacheFile = stateDir.toAbsolutePath().normalize().resolve(CACHE_FILE);
+        ArtifactCache cache = CACHES.get(cacheFile);
+        if (cache == null) {
+            cache = new ArtifactCache(cacheFile);
+            cache.load();
+            ArtifactCache existing = CACHES.putIfAbsent(cacheFile, cache);
+            cache = existing == null ? cache : existing;
+        }
+        return cache;
+    }
+
+    /**
+     * Get metadata and hash of the artifact, inspecting it only if it changed since it was last seen.
+     */
+    public ArtifactInfo inspect(Path file) throws IOException {
+        String key = key(file);
+        String cached;
+        synchronized (this) {
+            cached = entries.getProperty(key);
+        }
+        if (cached != null) {
+            String[] values = cached.split("\t", -1);
+            try {
+                ArtifactInfo info = new ArtifactInfo(file, Files.size(file), empty(values[0]),
+                        values[1].isEmpty() ? null : Long.valueOf(values[1]), empty(values[2]), values[3]);
+                log.info("Using cached information of [{}]", file);
+                return info;
+            } catch (RuntimeException e) {
+                log.warn("Ignoring the corrupt cache entry of [{}]: {}", file, e.toString());
+            }
+        }
+        ArtifactInfo info = ArtifactInspector.inspect(file);
+        synchronized (this) {
+            entries.setProperty(key, String.join("\t", nonNull(info.getPackageName()),
+                    info.getVersionCode() == null ? "" : info.getVersionCode().toString(),
+                    nonNull(info.getVersionName()), info.getSha256()));
+            save();
+        }
+        return info;
+    }
+
+    private static String key(Path file) throws IOException {
+        return file.toAbsolutePath().normalize() + "|" + Files.size(file) + "|" + Files.getLastModifiedTime(file).toMillis();
+    }
+
+    private synchronized void load() {
+        entries.putAll(read());
+        prune();
+    }
+
+    /**
+     * Write the cache, merged with the entries other processes wrote since it was read, under the lock file. A cache
+     * that can not be written, e.g. in a full or read-only state directory, is logged and kept in memory only.
+     */
+    private void save() {
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = lockChannel.lock()) {
+                Properties written = read();
+                for (String key : written.stringPropertyNames()) {
+                    entries.putIfAbsent(key, written.getProperty(key));
+                }
+                prune();
+                Path tmp = Files.createTempFile(cacheFile.getParent(), CACHE_FILE, ".tmp");
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    entries.store(out, "app-release-manager artifact cache: path|size|mtime = package, version code, version name, sha256");
+                }
+                Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            log.warn("Could not update artifact cache [{}]: {}", cacheFile, e.getMessage());
+        }
+    }
+
+    /**
+     * @return the entries of the cache file, none if it is missing or can not be read
+     */
+    private Properties read() {
+        Properties properties = new Properties();
+        if (Files.isRegularFile(cacheFile)) {
+            try (InputStream in = Files.newInputStream(cacheFile)) {
+                properties.load(in);
+            } catch (IOException | RuntimeException e) {
+                // e.g. a malformed escape, the entries are written again by the next save
+                log.warn("Could not read artifact cache [{}], starting empty: {}", cacheFile, e.toString());
+                return new Properties();
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Forget artifacts that were deleted or rebuilt since they were inspected, the cache would only grow otherwise.
+     */
+    private void prune() {
+        for (String key : entries.stringPropertyNames()) {
+            try {
+                Path file = Paths.get(key.substring(0, key.lastIndexOf('|', key.lastIndexOf('|') - 1)));
+                if (!Files.isRegularFile(file) || !key.equals(key(file))) {
+                    entries.remove(key);
+                }
+            } catch (IOException | RuntimeException e) {
+                // a file that can not be read any more or a corrupt key
+                entries.remove(key);
+            }
+        }
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String empty(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,58 @@
+package app.release.publisher.android;
+
+import java.nio.file.Path;
+
+/**
+ * Metadata and content hash of an apk or aab file, as read by {@link ArtifactInspector}.
+ */
+public class ArtifactInfo {
+
+    private final Path file;
+    private final long size;
+    private final String packageName;
+    private final Long versionCode;
+    private final String versionName;
+    private final String sha256;
+
+    public ArtifactInfo(Path file, long size, String packageName, Long versionCode, String versionName, String sha256) {
+        this.file = file;
+        this.size = size;
+        this.packageName = packageName;
+        this.versionCode = versionCode;
+        this.versionName = versionName;
+        this.sha256 = sha256;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    /**
+     * @return the version code or null if the manifest does not declare one
+     */
+    public Long getVersionCode() {
+        return versionCode;
+    }
+
+    /**
+     * @return the version name or null if the manifest does not declare one as plain text
+     */
+    public String getVersionName() {
+        return versionName;
+    }
+
+    /**
+     * @return lower case hex SHA-256 of the whole file
+     */
+    public String getSha256() {
+        return sha256;
+    }
+}
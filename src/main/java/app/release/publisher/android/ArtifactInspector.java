@@ -0,0 +1,488 @@
+package app.release.publisher.android;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads package name, version code and version name of an apk or aab, and the SHA-256 of the file, in one sequential
+ * pass with constant memory.
+ * <p>
+ * Only the ZIP central directory and the bytes of the manifest entry are looked at; no other entry is inflated. The
+ * manifest is the binary XML {@code AndroidManifest.xml} of an apk or the protobuf
+ * {@code base/manifest/AndroidManifest.xml} of an aab. A truncated or malformed artifact fails with an IOException
+ * naming the file.
+ */
+@Slf4j
+public class ArtifactInspector {
+
+    private static final String APK_MANIFEST = "AndroidManifest.xml";
+    private static final String AAB_MANIFEST = "base/manifest/AndroidManifest.xml";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_MANIFEST_SIZE = 16 * 1024 * 1024;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final int ATTR_VERSION_CODE = 0x0101021b;
+    private static final int ATTR_VERSION_NAME = 0x0101021c;
+
+    private ArtifactInspector() {
+    }
+
+    public static ArtifactInfo inspect(Path file) throws IOException {
+        try {
+            return decode(file);
+        } catch (RuntimeException e) {
+            // the decoders index into the bytes of the artifact, which may point anywhere in a malformed one
+            throw new IOException("Corrupt artifact " + file + ": " + e, e);
+        }
+    }
+
+    private static ArtifactInfo decode(Path file) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ManifestEntry entry = findManifest(file, channel, size);
+
+            // locate the manifest data behind its local header
+            ByteBuffer localHeader = read(file, channel, entry.localHeaderOffset, 30);
+            if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new IOException("Corrupt local header of " + entry.name + " in " + file);
+            }
+            long dataStart = entry.localHeaderOffset + 30 + u16(localHeader, 26) + u16(localHeader, 28);
+            long dataEnd = dataStart + entry.compressedSize;
+            if (entry.compressedSize > MAX_MANIFEST_SIZE || dataEnd > size) {
+                throw new IOException("Manifest entry " + entry.name + " out of bounds in " + file);
+            }
+
+            // hash the whole file, keeping the manifest bytes as they pass by
+            MessageDigest digest = sha256();
+            byte[] compressed = new byte[(int) entry.compressedSize];
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long position = 0;
+            channel.position(0);
+            while (position < size) {
+                buffer.clear();
+                int n = channel.read(buffer);
+                if (n < 0) {
+                    break;
+                }
+                buffer.flip();
+                long from = Math.max(position, dataStart);
+                long to = Math.min(position + n, dataEnd);
+                if (from < to) {
+                    System.arraycopy(buffer.array(), (int) (from - position), compressed, (int) (from - dataStart), (int) (to - from));
+                }
+                digest.update(buffer);
+                position += n;
+            }
+
+            byte[] manifest = entry.method == 0 ? compressed : inflate(file, compressed, entry.uncompressedSize);
+            ArtifactInfo info = AAB_MANIFEST.equals(entry.name)
+                    ? ProtoManifest.decode(file, size, manifest, hex(digest.digest()))
+                    : BinaryXmlManifest.decode(file, size, manifest, hex(digest.digest()));
+            log.info("Inspected [{}] in [{}] ms: package [{}], version code [{}], version name [{}], sha256 [{}]",
+                    file, (System.nanoTime() - start) / 1000000, info.getPackageName(), info.getVersionCode(),
+                    info.getVersionName(), info.getSha256());
+            return info;
+        }
+    }
+
+    /**
+     * Find the manifest in the central directory, which is located through the end of central directory record.
+     */
+    private static ManifestEntry findManifest(Path file, FileChannel channel, long size) throws IOException {
+        int tailLength = (int) Math.min(size, 22 + 0xFFFF);
+        ByteBuffer tail = read(file, channel, size - tailLength, tailLength);
+        int eocd = -1;
+        for (int i = tailLength - 22; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new IOException("Not a zip file, end of central directory not found in " + file);
+        }
+        long cdSize = u32(tail, eocd + 12);
+        long cdOffset = u32(tail, eocd + 16);
+        if (cdOffset == ZIP64_MAGIC && eocd >= 20 && tail.getInt(eocd - 20) == ZIP64_EOCD_LOCATOR_SIGNATURE) {
+            ByteBuffer zip64Eocd = read(file, channel, tail.getLong(eocd - 20 + 8), 56);
+            if (zip64Eocd.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                throw new IOException("Corrupt zip64 end of central directory in " + file);
+            }
+            cdSize = zip64Eocd.getLong(40);
+            cdOffset = zip64Eocd.getLong(48);
+        }
+        if (cdSize > Integer.MAX_VALUE || cdOffset + cdSize > size) {
+            throw new IOException("Corrupt central directory in " + file);
+        }
+
+        ByteBuffer cd = read(file, channel, cdOffset, (int) cdSize);
+        int pos = 0;
+        while (pos + 46 <= cd.limit() && cd.getInt(pos) == CENTRAL_DIRECTORY_SIGNATURE) {
+            int nameLength = u16(cd, pos + 28);
+            int extraLength = u16(cd, pos + 30);
+            int commentLength = u16(cd, pos + 32);
+            byte[] nameBytes = new byte[nameLength];
+            cd.position(pos + 46);
+            cd.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            if (APK_MANIFEST.equals(name) || AAB_MANIFEST.equals(name)) {
+                ManifestEntry entry = new ManifestEntry();
+                entry.name = name;
+                entry.method = u16(cd, pos + 10);
+                entry.compressedSize = u32(cd, pos + 20);
+                entry.uncompressedSize = u32(cd, pos + 24);
+                entry.localHeaderOffset = u32(cd, pos + 42);
+                readZip64Extra(cd, pos + 46 + nameLength, extraLength, entry);
+                return entry;
+            }
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+        throw new IOException("Neither " + APK_MANIFEST + " nor " + AAB_MANIFEST + " found, " + file + " is not an apk or aab");
+    }
+
+    /**
+     * Replace sizes and offset that do not fit 32 bits with the values of the zip64 extra field.
+     */
+    private static void readZip64Extra(ByteBuffer cd, int extraStart, int extraLength, ManifestEntry entry) {
+        int pos = extraStart;
+        while (pos + 4 <= extraStart + extraLength) {
+            int id = u16(cd, pos);
+            int length = u16(cd, pos + 2);
+            if (id == 0x0001) {
+                int field = pos + 4;
+                if (entry.uncompressedSize == ZIP64_MAGIC) {
+                    entry.uncompressedSize = cd.getLong(field);
+                    field += 8;
+                }
+                if (entry.compressedSize == ZIP64_MAGIC) {
+                    entry.compressedSize = cd.getLong(field);
+                    field += 8;
+                }
+                if (entry.localHeaderOffset == ZIP64_MAGIC) {
+                    entry.localHeaderOffset = cd.getLong(field);
+                }
+                return;
+            }
+            pos += 4 + length;
+        }
+    }
+
+    private static byte[] inflate(Path file, byte[] compressed, long uncompressedSize) throws IOException {
+        if (uncompressedSize > MAX_MANIFEST_SIZE) {
+            throw new IOException("Manifest too large: " + uncompressedSize + " bytes in " + file);
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] manifest = new byte[(int) uncompressedSize];
+            int n = 0;
+            while (n < manifest.length && !inflater.finished()) {
+                int inflated = inflater.inflate(manifest, n, manifest.length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != manifest.length) {
+                throw new IOException("Manifest truncated, inflated " + n + " of " + manifest.length + " bytes in " + file);
+            }
+            return manifest;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt manifest entry in " + file, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static ByteBuffer read(Path file, FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static int u16(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    private static long u32(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & 0xFFFFFFFFL;
+    }
+
+    private static class ManifestEntry {
+        private String name;
+        private int method;
+        private long compressedSize;
+        private long uncompressedSize;
+        private long localHeaderOffset;
+    }
+
+    /**
+     * Decoder for the root element of an apk's binary XML manifest.
+     */
+    private static class BinaryXmlManifest {
+
+        private static final int RES_STRING_POOL_TYPE = 0x0001;
+        private static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+        private static final int RES_XML_RESOURCE_MAP_TYPE = 0x0180;
+        private static final int UTF8_FLAG = 1 << 8;
+        private static final int TYPE_STRING = 0x03;
+        private static final int TYPE_INT_DEC = 0x10;
+        private static final int TYPE_INT_HEX = 0x11;
+
+        static ArtifactInfo decode(Path file, long size, byte[] manifest, String sha256) throws IOException {
+            ByteBuffer xml = ByteBuffer.wrap(manifest).order(ByteOrder.LITTLE_ENDIAN);
+            String[] strings = new String[0];
+            int[] resourceIds = new int[0];
+            int pos = u16(xml, 2);
+            while (pos + 8 <= xml.limit()) {
+                int type = u16(xml, pos);
+                int headerSize = u16(xml, pos + 2);
+                int chunkSize = xml.getInt(pos + 4);
+                if (chunkSize < 8 || pos + chunkSize > xml.limit()) {
+                    break;
+                }
+                if (type == RES_STRING_POOL_TYPE) {
+                    strings = stringPool(xml, pos);
+                } else if (type == RES_XML_RESOURCE_MAP_TYPE) {
+                    resourceIds = new int[(chunkSize - headerSize) / 4];
+                    for (int i = 0; i < resourceIds.length; i++) {
+                        resourceIds[i] = xml.getInt(pos + headerSize + i * 4);
+                    }
+                } else if (type == RES_XML_START_ELEMENT_TYPE) {
+                    return manifestElement(file, size, sha256, xml, pos, headerSize, strings, resourceIds);
+                }
+                pos += chunkSize;
+            }
+            throw new IOException("No manifest element found in " + file);
+        }
+
+        private static ArtifactInfo manifestElement(Path file, long size, String sha256, ByteBuffer xml, int pos, int headerSize,
+                                                    String[] strings, int[] resourceIds) {
+            int ext = pos + headerSize;
+            int attributeStart = u16(xml, ext + 8);
+            int attributeSize = u16(xml, ext + 10);
+            int attributeCount = u16(xml, ext + 12);
+            String packageName = null;
+            Long versionCode = null;
+            String versionName = null;
+            for (int i = 0; i < attributeCount; i++) {
+                int attr = ext + attributeStart + i * attributeSize;
+                int nameIndex = xml.getInt(attr + 4);
+                int resourceId = nameIndex >= 0 && nameIndex < resourceIds.length ? resourceIds[nameIndex] : 0;
+                String name = nameIndex >= 0 && nameIndex < strings.length ? strings[nameIndex] : "";
+                int dataType = xml.get(attr + 15) & 0xFF;
+                int data = xml.getInt(attr + 16);
+                String text = dataType == TYPE_STRING && data >= 0 && data < strings.length ? strings[data] : null;
+                if ("package".equals(name)) {
+                    packageName = text;
+                } else if (resourceId == ATTR_VERSION_CODE || "versionCode".equals(name)) {
+                    versionCode = dataType == TYPE_INT_DEC || dataType == TYPE_INT_HEX ? Long.valueOf(data & 0xFFFFFFFFL)
+                            : text == null ? null : Long.valueOf(text);
+                } else if (resourceId == ATTR_VERSION_NAME || "versionName".equals(name)) {
+                    versionName = text;
+                }
+            }
+            return new ArtifactInfo(file, size, packageName, versionCode, versionName, sha256);
+        }
+
+        private static String[] stringPool(ByteBuffer xml, int pos) {
+            int count = xml.getInt(pos + 8);
+            boolean utf8 = (xml.getInt(pos + 16) & UTF8_FLAG) != 0;
+            int stringsStart = pos + xml.getInt(pos + 20);
+            int offsets = pos + u16(xml, pos + 2);
+            String[] strings = new String[count];
+            for (int i = 0; i < count; i++) {
+                int at = stringsStart + xml.getInt(offsets + i * 4);
+                strings[i] = utf8 ? utf8String(xml, at) : utf16String(xml, at);
+            }
+            return strings;
+        }
+
+        private static String utf8String(ByteBuffer xml, int at) {
+            // utf-16 length, then utf-8 length, each one or two bytes
+            at += (xml.get(at) & 0x80) != 0 ? 2 : 1;
+            int length = xml.get(at) & 0xFF;
+            if ((length & 0x80) != 0) {
+                length = ((length & 0x7F) << 8) | (xml.get(at + 1) & 0xFF);
+                at++;
+            }
+            return new String(xml.array(), at + 1, length, StandardCharsets.UTF_8);
+        }
+
+        private static String utf16String(ByteBuffer xml, int at) {
+            int length = u16(xml, at);
+            if ((length & 0x8000) != 0) {
+                length = ((length & 0x7FFF) << 16) | u16(xml, at + 2);
+                at += 2;
+            }
+            return new String(xml.array(), at + 2, length * 2, StandardCharsets.UTF_16LE);
+        }
+    }
+
+    /**
+     * Decoder for the root element of an aab's protobuf manifest, an aapt2 {@code XmlNode}.
+     */
+    private static class ProtoManifest {
+
+        static ArtifactInfo decode(Path file, long size, byte[] manifest, String sha256) throws IOException {
+            // XmlNode.element = 1
+            ByteBuffer element = field(ByteBuffer.wrap(manifest), 1);
+            if (element == null) {
+                throw new IOException("No manifest element found in " + file);
+            }
+            String packageName = null;
+            Long versionCode = null;
+            String versionName = null;
+            // XmlElement.attribute = 4
+            while (element.hasRemaining()) {
+                long tag = varint(element);
+                if (tag == (4 << 3 | 2)) {
+                    ByteBuffer attribute = lengthDelimited(element);
+                    String name = null;
+                    String value = null;
+                    Long primitive = null;
+                    int resourceId = 0;
+                    while (attribute.hasRemaining()) {
+                        long attributeTag = varint(attribute);
+                        int number = (int) (attributeTag >>> 3);
+                        if (number == 2 && (attributeTag & 7) == 2) {
+                            name = string(lengthDelimited(attribute));
+                        } else if (number == 3 && (attributeTag & 7) == 2) {
+                            value = string(lengthDelimited(attribute));
+                        } else if (number == 5 && (attributeTag & 7) == 0) {
+                            resourceId = (int) varint(attribute);
+                        } else if (number == 6 && (attributeTag & 7) == 2) {
+                            primitive = primitiveInt(lengthDelimited(attribute));
+                        } else {
+                            skip(attribute, attributeTag);
+                        }
+                    }
+                    if ("package".equals(name)) {
+                        packageName = value;
+                    } else if (resourceId == ATTR_VERSION_CODE || "versionCode".equals(name)) {
+                        versionCode = value != null && !value.isEmpty() ? Long.valueOf(value) : primitive;
+                    } else if (resourceId == ATTR_VERSION_NAME || "versionName".equals(name)) {
+                        versionName = value;
+                    }
+                } else {
+                    skip(element, tag);
+                }
+            }
+            return new ArtifactInfo(file, size, packageName, versionCode, versionName, sha256);
+        }
+
+        /**
+         * Read the integer of an {@code Item} holding {@code Primitive prim = 7} with {@code int_decimal_value = 6}
+         * or {@code int_hexadecimal_value = 7}.
+         */
+        private static Long primitiveInt(ByteBuffer item) {
+            ByteBuffer prim = field(item, 7);
+            if (prim == null) {
+                return null;
+            }
+            while (prim.hasRemaining()) {
+                long tag = varint(prim);
+                if ((tag >>> 3 == 6 || tag >>> 3 == 7) && (tag & 7) == 0) {
+                    return varint(prim) & 0xFFFFFFFFL;
+                }
+                skip(prim, tag);
+            }
+            return null;
+        }
+
+        private static ByteBuffer field(ByteBuffer message, int number) {
+            while (message.hasRemaining()) {
+                long tag = varint(message);
+                if (tag >>> 3 == number && (tag & 7) == 2) {
+                    return lengthDelimited(message);
+                }
+                skip(message, tag);
+            }
+            return null;
+        }
+
+        private static long varint(ByteBuffer buffer) {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            return value;
+        }
+
+        private static ByteBuffer lengthDelimited(ByteBuffer buffer) {
+            int length = (int) varint(buffer);
+            ByteBuffer slice = buffer.slice();
+            slice.limit(length);
+            buffer.position(buffer.position() + length);
+            return slice;
+        }
+
+        private static void skip(ByteBuffer buffer, long tag) {
+            switch ((int) (tag & 7)) {
+                case 0:
+                    varint(buffer);
+                    break;
+                case 1:
+                    buffer.position(buffer.position() + 8);
+                    break;
+                case 2:
+                    lengthDelimited(buffer);
+                    break;
+                case 5:
+                    buffer.position(buffer.position() + 4);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported protobuf wire type " + (tag & 7));
+            }
+        }
+
+        private static String string(ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package app.release.publisher.android;
+
+import app.release.model.CommandLineArguments;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caps the upload rate of all publishes of this process that use the same limit, so several publishes running at once
+ * share the rate instead of saturating the uplink.
+ */
+public class BandwidthLimiter {
+
+    /**
+     * Limiter that never waits.
+     */
+    public static final BandwidthLimiter UNLIMITED = new BandwidthLimiter(0);
+
+    private static final Map<Long, BandwidthLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private final long bytesPerSecond;
+    private final double burst;
+    private double available;
+    private long lastRefill = System.nanoTime();
+
+    private BandwidthLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        // a quarter of a second worth of bytes may go out at once
+        this.burst = bytesPerSecond / 4.0;
+        this.available = burst;
+    }
+
+    /**
+     * @return the limiter shared by all uploads with the given rate, or {@link #UNLIMITED} if the rate is not positive
+     */
+    public static BandwidthLimiter forRate(long bytesPerSecond) {
+        return bytesPerSecond <= 0 ? UNLIMITED : LIMITERS.computeIfAbsent(bytesPerSecond, BandwidthLimiter::new);
+    }
+
+    /**
+     * @return a limiter of its own, not shared with other uploads
+     */
+    public static BandwidthLimiter create(long bytesPerSecond) {
+        return bytesPerSecond <= 0 ? UNLIMITED : new BandwidthLimiter(bytesPerSecond);
+    }
+
+    /**
+     * @return the limiter for the {@code -maxUploadRate} of the arguments
+     */
+    public static BandwidthLimiter forArguments(CommandLineArguments arguments) {
+        return arguments.getMaxUploadRateKb() == null ? UNLIMITED : forRate(arguments.getMaxUploadRateKb() * 1024L);
+    }
+
+    /**
+     * Account for bytes about to be sent, waiting as long as needed to stay under the rate.
+     */
+    public void acquire(int bytes) throws IOException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            available = Math.min(burst, available + (now - lastRefill) / 1e9 * bytesPerSecond);
+            lastRefill = now;
+            available -= bytes;
+            wait = available >= 0 ? 0 : (long) Math.ceil(-available * 1000 / bytesPerSecond);
+        }
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for upload bandwidth", e);
+            }
+        }
+    }
+
+    /**
+     * @return the given stream, reading no faster than this limiter allows
+     */
+    public InputStream limit(InputStream in) {
+        if (bytesPerSecond <= 0) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    acquire(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    acquire(read);
+                }
+                return read;
+            }
+        };
+    }
+}
@@ -0,0 +1,172 @@
+package app.release.publisher.android;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * Upload content read from a file channel in large blocks, hashing the bytes with SHA-256 as they are sent and keeping
+ * to a {@link BandwidthLimiter}.
+ * <p>
+ * Once the whole file went out, {@link #verifySha256} checks the bytes sent against the hash the file was inspected
+ * with and the hash Play reports, without reading the file another time. The hash is complete after {@link #getLength}
+ * bytes, so it is also computed when the uploader stops reading at the length instead of at the end of the file.
+ */
+public class ChannelContent extends AbstractInputStreamContent {
+
+    private static final int BLOCK_SIZE = 256 * 1024;
+
+    private final Path file;
+    private final long length;
+    private final BandwidthLimiter limiter;
+    private volatile String sha256;
+
+    public ChannelContent(String type, Path file, BandwidthLimiter limiter) throws IOException {
+        super(type);
+        this.file = file;
+        this.length = Files.size(file);
+        this.limiter = limiter;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean retrySupported() {
+        return true;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        // an empty file is sent completely before the first read
+        sha256 = length == 0 ? ArtifactInspector.hex(ArtifactInspector.sha256().digest()) : null;
+        return new ChannelInputStream(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] block = new byte[BLOCK_SIZE];
+        try (InputStream in = getInputStream()) {
+            int read;
+            while ((read = in.read(block)) != -1) {
+                out.write(block, 0, read);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @return the SHA-256 of the bytes sent, or null if the file was not sent completely
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * Check that the whole file was sent.
+     *
+     * @return the SHA-256 of the bytes sent
+     * @throws IOException if fewer bytes than the length of the file were sent
+     */
+    public String verifySent() throws IOException {
+        return verifySent(file, sha256);
+    }
+
+    /**
+     * Check the bytes sent against an expected hash.
+     *
+     * @param expected expected SHA-256, only the length sent is checked if null
+     * @param source   where the expected hash comes from, for the error message
+     * @throws IOException if the file was not sent completely or the hashes differ
+     */
+    public void verifySha256(String expected, String source) throws IOException {
+        verifySha256(file, sha256, expected, source);
+    }
+
+    static String verifySent(Path file, String sha256) throws IOException {
+        if (sha256 == null) {
+            throw new IOException("No SHA-256 of the bytes uploaded from " + file + ", not all of its bytes were sent,"
+                    + " was the file changed during the upload?");
+        }
+        return sha256;
+    }
+
+    static void verifySha256(Path file, String sha256, String expected, String source) throws IOException {
+        if (expected != null && !expected.equalsIgnoreCase(verifySent(file, sha256))) {
+            throw new IOException("SHA-256 of the bytes uploaded from " + file + " is " + sha256 + " but " + source
+                    + " has " + expected + ", was the file changed during the upload?");
+        }
+    }
+
+    @Override
+    public ChannelContent setType(String type) {
+        return (ChannelContent) super.setType(type);
+    }
+
+    @Override
+    public ChannelContent setCloseInputStream(boolean closeInputStream) {
+        return (ChannelContent) super.setCloseInputStream(closeInputStream);
+    }
+
+    /**
+     * Reads the first {@link #length} bytes of the channel, hashing every byte once.
+     */
+    private class ChannelInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final MessageDigest digest = ArtifactInspector.sha256();
+        private long position;
+
+        ChannelInputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            if (position >= length) {
+                return -1;
+            }
+            int read = channel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(count, length - position)));
+            if (read < 0) {
+                // the file shrank since its length was taken, no hash is computed
+                return -1;
+            }
+            digest.update(buffer, offset, read);
+            position += read;
+            if (position == length) {
+                sha256 = ArtifactInspector.hex(digest.digest());
+            }
+            limiter.acquire(read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, length - position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package app.release.publisher.android;
+
+import app.release.model.CommandLineArguments;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Uploads the deobfuscation mapping and native debug symbols of an artifact into the edit it was uploaded to.
+ * <p>
+ * Both files are sent at the same time, while the release is created on the track. The text mapping is sent in one
+ * request gzip compressed on the fly, which usually shrinks it tenfold; the symbols zip is already compressed and is
+ * sent in resumable chunks as is.
+ */
+@Slf4j
+@SuppressWarnings("try")
+public class DeobfuscationFiles {
+
+    private static final String MIME_TYPE = "application/octet-stream";
+
+    private DeobfuscationFiles() {
+    }
+
+    /**
+     * Start the uploads of the {@code -mapping} and {@code -nativeSymbols} files given in the arguments, if any.
+     *
+     * @return completes once all files are uploaded, or fails with the error of the first failed upload
+     */
+    public static CompletableFuture<Void> upload(AndroidPublisher publisher, PlayRequestExecutor executor, PublishMetrics metrics,
+                                                 CommandLineArguments arguments, String packageName, String editId, long versionCode) {
+        List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        if (arguments.getMappingPath() != null) {
+            Path mapping = FileSystems.getDefault().getPath(arguments.getMappingPath()).normalize();
+            uploads.add(PublishPipeline.async(() -> upload(publisher, executor, metrics, packageName, editId, versionCode,
+                    "proguard", mapping, true, BandwidthLimiter.forArguments(arguments))));
+        }
+        if (arguments.getNativeSymbolsPath() != null) {
+            Path symbols = FileSystems.getDefault().getPath(arguments.getNativeSymbolsPath()).normalize();
+            uploads.add(PublishPipeline.async(() -> upload(publisher, executor, metrics, packageName, editId, versionCode,
+                    "nativeCode", symbols, false, BandwidthLimiter.forArguments(arguments))));
+        }
+        return CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private static Void upload(AndroidPublisher publisher, PlayRequestExecutor executor, PublishMetrics metrics, String packageName,
+                               String editId, long versionCode, String type, Path file, boolean compress,
+                               BandwidthLimiter limiter) throws Exception {
+        log.info("Uploading [{}] deobfuscation file [{}] ([{}] bytes) for Version Code: [{}]...", type, file, Files.size(file), versionCode);
+        ChannelContent content = new ChannelContent(MIME_TYPE, file, limiter);
+        try (PublishMetrics.Stage stage = metrics.stage("deobfuscation." + type)) {
+            executor.executeUpload("deobfuscationfiles.upload", () -> {
+                AndroidPublisher.Edits.Deobfuscationfiles.Upload upload = publisher.edits().deobfuscationfiles()
+                        .upload(packageName, editId, Math.toIntExact(versionCode), type, content);
+                // gzip content encoding is only applied to single request uploads
+                upload.getMediaHttpUploader().setDirectUploadEnabled(compress).setDisableGZipContent(!compress);
+                return upload;
+            });
+        }
+        log.info("[{}] deobfuscation file uploaded for Version Code: [{}], SHA-256 [{}]", type, versionCode, content.verifySent());
+        return null;
+    }
+}
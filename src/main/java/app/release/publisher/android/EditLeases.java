@@ -0,0 +1,204 @@
+package app.release.publisher.android;
+
+import app.release.model.CommandLineArguments;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-package leases taken before an edit is opened, so nodes publishing the same app do not invalidate each other's
+ * edits: Play keeps only the newest edit of an app, and the older one fails at commit.
+ * <p>
+ * A lease is renewed in the background while it is held, every third of the lease time, and expires after the lease
+ * time if its node crashed. A lease that expired anyway, e.g. while the node was paused or could not reach the backend
+ * for the lease time, is lost: {@link Lease#checkHeld} fails the publish before its edit is committed, as it does when
+ * the backend can not be reached at that point. Without {@code -leaseDir} leases are not taken.
+ */
+@Slf4j
+public class EditLeases {
+
+    static final long DEFAULT_TTL_MILLIS = TimeUnit.SECONDS.toMillis(120);
+
+    /**
+     * Leases that are always granted at once, for a single node.
+     */
+    public static final EditLeases NONE = new EditLeases(null, DEFAULT_TTL_MILLIS, 0);
+
+    private static final Map<Path, EditLeases> LEASES = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService RENEWALS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "edit-lease-renewal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LeaseBackend backend;
+    private final long ttlMillis;
+    private final long waitMillis;
+
+    public EditLeases(LeaseBackend backend, long ttlMillis, long waitMillis) {
+        this.backend = backend;
+        this.ttlMillis = ttlMillis;
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * @return the leases of the {@code -leaseDir} of the arguments, shared within this process, or {@link #NONE}
+     */
+    public static EditLeases forArguments(CommandLineArguments arguments) throws IOException {
+        if (arguments.getLeaseDir() == null) {
+            return NONE;
+        }
+        Path lockDir = Paths.get(arguments.getLeaseDir()).toAbsolutePath().normalize();
+        EditLeases leases = LEASES.get(lockDir);
+        if (leases == null) {
+            leases = new EditLeases(new FileLeaseBackend(lockDir), TimeUnit.SECONDS.toMillis(arguments.getLeaseTtlSeconds()),
+                    TimeUnit.SECONDS.toMillis(arguments.getLeaseWaitSeconds()));
+            EditLeases existing = LEASES.putIfAbsent(lockDir, leases);
+            leases = existing == null ? leases : existing;
+        }
+        return leases;
+    }
+
+    /**
+     * @return a lease that is never lost, for a publish without {@code -leaseDir}
+     */
+    public static Lease unleased() {
+        return NONE.new Lease(null, null);
+    }
+
+    /**
+     * Take the lease of the package, waiting while another node or thread holds it.
+     *
+     * @throws IOException if the lease could not be taken within the wait time
+     */
+    public Lease acquire(String packageName) throws IOException, InterruptedException {
+        if (backend == null) {
+            return new Lease(packageName, null);
+        }
+        String owner = owner();
+        long start = System.currentTimeMillis();
+        long backoff = 200;
+        boolean logged = false;
+        long expiresAt = start + ttlMillis;
+        while (!backend.tryAcquire(packageName, owner, expiresAt)) {
+            if (System.currentTimeMillis() - start >= waitMillis) {
+                throw new IOException("Could not lease the edit of " + packageName + " within " + waitMillis / 1000
+                        + " s, another node is publishing it");
+            }
+            if (!logged) {
+                log.info("Edit of [{}] is leased by another publish, waiting...", packageName);
+                logged = true;
+            }
+            Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff));
+            backoff = Math.min(backoff * 2, 5000);
+            expiresAt = System.currentTimeMillis() + ttlMillis;
+        }
+        log.info("Leased the edit of [{}] as [{}] after [{}] ms", packageName, owner, System.currentTimeMillis() - start);
+        Lease lease = new Lease(packageName, owner);
+        lease.expiresAt = expiresAt;
+        lease.renewal = RENEWALS.scheduleWithFixedDelay(lease::renew, ttlMillis / 3, ttlMillis / 3, TimeUnit.MILLISECONDS);
+        return lease;
+    }
+
+    /**
+     * @return an owner id unique per lease, naming the node for whoever looks into the lock directory
+     */
+    private static String owner() {
+        String node = ManagementFactory.getRuntimeMXBean().getName();
+        return (node + "-" + UUID.randomUUID().toString().substring(0, 8)).replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * A lease held until closed.
+     */
+    public class Lease implements AutoCloseable {
+        private final String packageName;
+        private final String owner;
+        private volatile ScheduledFuture<?> renewal;
+        private volatile boolean lost;
+        private volatile long expiresAt;
+
+        private Lease(String packageName, String owner) {
+            this.packageName = packageName;
+            this.owner = owner;
+        }
+
+        /**
+         * @return whether the lease expired while it was held, so another node may have opened an edit meanwhile
+         */
+        public boolean isLost() {
+            return lost;
+        }
+
+        /**
+         * Renew the lease before the edit is committed, so it is known to be held for another lease time.
+         *
+         * @throws IOException if the lease was lost or can not be renewed now, another node may have opened an edit
+         *                     that this commit would invalidate or fail on
+         */
+        public void checkHeld() throws IOException {
+            if (owner != null && !lost) {
+                try {
+                    renewNow();
+                } catch (IOException | RuntimeException e) {
+                    throw new IOException("Could not renew the lease of the edit of " + packageName + ", not committing: "
+                            + e.getMessage(), e);
+                }
+            }
+            if (lost) {
+                throw new IOException("Lost the lease of the edit of " + packageName + ", not committing");
+            }
+        }
+
+        private void renew() {
+            try {
+                renewNow();
+            } catch (IOException | RuntimeException e) {
+                if (System.currentTimeMillis() >= expiresAt) {
+                    // the lease expired in the backend meanwhile, another node may have taken it
+                    lose();
+                } else {
+                    log.warn("Could not renew the lease of the edit of [{}]: {}", packageName, e.getMessage());
+                }
+            }
+        }
+
+        private void renewNow() throws IOException {
+            long renewedUntil = System.currentTimeMillis() + ttlMillis;
+            if (backend.renew(packageName, owner, renewedUntil)) {
+                expiresAt = renewedUntil;
+            } else {
+                lose();
+            }
+        }
+
+        private void lose() {
+            lost = true;
+            log.error("Lost the lease of the edit of [{}], another node may publish it now", packageName);
+            renewal.cancel(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (owner == null) {
+                return;
+            }
+            renewal.cancel(false);
+            if (!lost) {
+                backend.release(packageName, owner);
+                log.info("Released the lease of the edit of [{}]", packageName);
+            }
+        }
+    }
+}
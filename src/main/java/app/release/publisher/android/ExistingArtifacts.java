@@ -0,0 +1,77 @@
+package app.release.publisher.android;
+
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Apk;
+import com.google.api.services.androidpublisher.model.ApksListResponse;
+import com.google.api.services.androidpublisher.model.Bundle;
+import com.google.api.services.androidpublisher.model.BundlesListResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Looks up artifacts Play already has, by content hash, so the same binary is not uploaded twice.
+ */
+@Slf4j
+public class ExistingArtifacts {
+
+    private ExistingArtifacts() {
+    }
+
+    /**
+     * @return the version code of the bundle with the given SHA-256 already known to the edit, or null
+     */
+    public static Long findBundle(AndroidPublisher publisher, PlayRequestExecutor executor, String packageName, String editId, String sha256) throws IOException {
+        Long versionCode = bundles(publisher, executor, packageName, editId).get(sha256.toLowerCase(Locale.ROOT));
+        if (versionCode != null) {
+            log.info("Bundle with sha256 [{}] already on Play with Version Code: [{}]", sha256, versionCode);
+        }
+        return versionCode;
+    }
+
+    /**
+     * @return the version code of the apk with the given SHA-256 already known to the edit, or null
+     */
+    public static Long findApk(AndroidPublisher publisher, PlayRequestExecutor executor, String packageName, String editId, String sha256) throws IOException {
+        Long versionCode = apks(publisher, executor, packageName, editId).get(sha256.toLowerCase(Locale.ROOT));
+        if (versionCode != null) {
+            log.info("Apk with sha256 [{}] already on Play with Version Code: [{}]", sha256, versionCode);
+        }
+        return versionCode;
+    }
+
+    /**
+     * @return the version codes of the bundles known to the edit, by lower case SHA-256, listed with one request
+     */
+    public static Map<String, Long> bundles(AndroidPublisher publisher, PlayRequestExecutor executor, String packageName, String editId) throws IOException {
+        BundlesListResponse response = executor.execute("bundles.list", publisher.edits().bundles().list(packageName, editId));
+        Map<String, Long> versionCodes = new HashMap<>();
+        if (response.getBundles() != null) {
+            for (Bundle bundle : response.getBundles()) {
+                if (bundle.getSha256() != null) {
+                    versionCodes.put(bundle.getSha256().toLowerCase(Locale.ROOT), bundle.getVersionCode().longValue());
+                }
+            }
+        }
+        return versionCodes;
+    }
+
+    /**
+     * @return the version codes of the apks known to the edit, by lower case SHA-256, listed with one request
+     */
+    public static Map<String, Long> apks(AndroidPublisher publisher, PlayRequestExecutor executor, String packageName, String editId) throws IOException {
+        ApksListResponse response = executor.execute("apks.list", publisher.edits().apks().list(packageName, editId));
+        Map<String, Long> versionCodes = new HashMap<>();
+        if (response.getApks() != null) {
+            for (Apk apk : response.getApks()) {
+                if (apk.getBinary() != null && apk.getBinary().getSha256() != null) {
+                    versionCodes.put(apk.getBinary().getSha256().toLowerCase(Locale.ROOT), apk.getVersionCode().longValue());
+                }
+            }
+        }
+        return versionCodes;
+    }
+}
@@ -0,0 +1,125 @@
+package app.release.publisher.android;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Leases as files in a lock directory, e.g. on an NFS or SMB share all nodes mount.
+ * <p>
+ * The lease of a key is the file {@code <key>.lease} holding the owner and the time the lease expires at, replaced
+ * atomically and deleted on release. The owner is checked and the file changed while holding a lock on {@code
+ * <key>.lease.lock}, so a renewal cannot overwrite the lease another node took over after it expired. The share must
+ * support file locks, as NFSv4 and SMB do. Expiry is compared with the clock of each node, so the clocks of the nodes
+ * must be roughly in sync, well within the lease time.
+ */
+@Slf4j
+@SuppressWarnings("try")
+public class FileLeaseBackend implements LeaseBackend {
+
+    private static final String SUFFIX = ".lease";
+    private static final String LOCK_SUFFIX = ".lease.lock";
+
+    private final Path lockDir;
+
+    public FileLeaseBackend(Path lockDir) throws IOException {
+        this.lockDir = lockDir;
+        Files.createDirectories(lockDir);
+    }
+
+    @Override
+    public synchronized boolean tryAcquire(String key, String owner, long expiresAt) throws IOException {
+        Path leaseFile = lockDir.resolve(key + SUFFIX);
+        try (FileChannel lockChannel = lock(key);
+             FileLock lock = lockChannel.lock()) {
+            Holder holder = read(leaseFile);
+            if (holder != null && holder.expiresAt > System.currentTimeMillis()) {
+                return false;
+            }
+            if (holder != null) {
+                log.warn("Lease [{}] of [{}] expired, taking it over", key, holder.owner);
+            }
+            write(leaseFile, owner, expiresAt);
+            return true;
+        }
+    }
+
+    @Override
+    public synchronized boolean renew(String key, String owner, long expiresAt) throws IOException {
+        Path leaseFile = lockDir.resolve(key + SUFFIX);
+        try (FileChannel lockChannel = lock(key);
+             FileLock lock = lockChannel.lock()) {
+            Holder holder = read(leaseFile);
+            if (holder == null || !holder.owner.equals(owner)) {
+                return false;
+            }
+            write(leaseFile, owner, expiresAt);
+            return true;
+        }
+    }
+
+    @Override
+    public synchronized void release(String key, String owner) throws IOException {
+        Path leaseFile = lockDir.resolve(key + SUFFIX);
+        try (FileChannel lockChannel = lock(key);
+             FileLock lock = lockChannel.lock()) {
+            Holder holder = read(leaseFile);
+            if (holder != null && holder.owner.equals(owner)) {
+                Files.deleteIfExists(leaseFile);
+            }
+        }
+    }
+
+    /**
+     * @return the channel of the lock file of the key, locked by the caller
+     */
+    private FileChannel lock(String key) throws IOException {
+        return FileChannel.open(lockDir.resolve(key + LOCK_SUFFIX), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private void write(Path leaseFile, String owner, long expiresAt) throws IOException {
+        Path tmp = leaseFile.resolveSibling(leaseFile.getFileName() + "." + owner + ".tmp");
+        Files.write(tmp, content(owner, expiresAt));
+        Files.move(tmp, leaseFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] content(String owner, long expiresAt) {
+        return (owner + "\n" + expiresAt + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the holder of the lease file, null if there is none
+     */
+    private static Holder read(Path leaseFile) throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(leaseFile, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (lines.size() < 2) {
+            // still being written by its creator, expires a lease time after it was created
+            return new Holder("", Files.getLastModifiedTime(leaseFile).toMillis() + EditLeases.DEFAULT_TTL_MILLIS);
+        }
+        return new Holder(lines.get(0), Long.parseLong(lines.get(1).trim()));
+    }
+
+    private static class Holder {
+        private final String owner;
+        private final long expiresAt;
+
+        Holder(String owner, long expiresAt) {
+            this.owner = owner;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package app.release.publisher.android;
+
+import app.release.model.CommandLineArguments;
+import com.google.api.client.googleapis.GoogleUtils;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.util.SslUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the HTTP transport of the Play API clients, selected with {@code -transport}:
+ * <ul>
+ * <li>{@code net}, the default: {@link NetHttpTransport} on {@code HttpURLConnection}, whose keep-alive cache is
+ * shared by the whole JVM and sized with the {@code http.maxConnections} system property, 5 idle connections per host
+ * by default</li>
+ * <li>{@code apache}: {@link ApacheHttpTransport} on Apache HttpClient 4.5 with a pool of {@code -maxConnections}
+ * connections</li>
+ * </ul>
+ * Both trust the Google certificates only, like {@code GoogleNetHttpTransport}. With {@code -sendBuffer} the socket send
+ * buffer of HTTPS connections is set, so a large upload over a long fat link is not limited by the default buffer.
+ * Connect and read timeouts are applied to every request by {@link AndroidPublisherClientPool}.
+ */
+@Slf4j
+public final class HttpTransports {
+
+    private HttpTransports() {
+    }
+
+    /**
+     * Transport settings of a client; clients with the same settings share a transport.
+     */
+    public static final class Options {
+
+        /**
+         * The settings used before they were configurable: net transport and 3 minute timeouts.
+         */
+        public static final Options DEFAULT = new Options("net", TimeUnit.MINUTES.toMillis(3), TimeUnit.MINUTES.toMillis(3), 0, 20);
+
+        private final String transport;
+        private final int connectTimeoutMillis;
+        private final int readTimeoutMillis;
+        private final int sendBufferBytes;
+        private final int maxConnections;
+
+        public Options(String transport, long connectTimeoutMillis, long readTimeoutMillis, int sendBufferBytes, int maxConnections) {
+            if (!"net".equals(transport) && !"apache".equals(transport)) {
+                throw new IllegalArgumentException("Unknown transport: " + transport + ", expected net or apache");
+            }
+            this.transport = transport;
+            this.connectTimeoutMillis = (int) connectTimeoutMillis;
+            this.readTimeoutMillis = (int) readTimeoutMillis;
+            this.sendBufferBytes = sendBufferBytes;
+            this.maxConnections = Math.max(1, maxConnections);
+        }
+
+        public static Options forArguments(CommandLineArguments arguments) {
+            return new Options(arguments.getTransport(), TimeUnit.SECONDS.toMillis(arguments.getConnectTimeoutSeconds()),
+                    TimeUnit.SECONDS.toMillis(arguments.getReadTimeoutSeconds()), arguments.getSendBufferKb() * 1024,
+                    arguments.getMaxConnections());
+        }
+
+        public int getConnectTimeoutMillis() {
+            return connectTimeoutMillis;
+        }
+
+        public int getReadTimeoutMillis() {
+            return readTimeoutMillis;
+        }
+
+        /**
+         * @return what the transport is built from, the timeouts are set per request
+         */
+        String transportKey() {
+            return transport + "|" + sendBufferBytes + "|" + maxConnections;
+        }
+
+        @Override
+        public String toString() {
+            return "transport [" + transport + "], connect timeout [" + connectTimeoutMillis + "] ms, read timeout ["
+                    + readTimeoutMillis + "] ms, send buffer [" + (sendBufferBytes == 0 ? "default" : sendBufferBytes + " bytes")
+                    + "], max connections [" + maxConnections + "]";
+        }
+    }
+
+    /**
+     * Build a transport with the given settings.
+     */
+    public static HttpTransport create(Options options) throws IOException, GeneralSecurityException {
+        log.info("Building HTTP {}", options);
+        SSLContext sslContext = SslUtils.initSslContext(SslUtils.getTlsSslContext(), GoogleUtils.getCertificateTrustStore(),
+                SslUtils.getPkixTrustManagerFactory());
+        SSLSocketFactory socketFactory = options.sendBufferBytes > 0
+                ? new SendBufferSocketFactory(sslContext.getSocketFactory(), options.sendBufferBytes) : sslContext.getSocketFactory();
+        if ("apache".equals(options.transport)) {
+            Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", new SSLConnectionSocketFactory(socketFactory, SSLConnectionSocketFactory.getDefaultHostnameVerifier()))
+                    .build();
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactories);
+            connectionManager.setMaxTotal(options.maxConnections);
+            connectionManager.setDefaultMaxPerRoute(options.maxConnections);
+            if (options.sendBufferBytes > 0) {
+                connectionManager.setDefaultSocketConfig(SocketConfig.custom().setSndBufSize(options.sendBufferBytes).build());
+            }
+            // the default builder leaves redirects and retries to the Google client, timeouts are set per request
+            return new ApacheHttpTransport(ApacheHttpTransport.newDefaultHttpClientBuilder()
+                    .setConnectionManager(connectionManager)
+                    .build());
+        }
+        return new NetHttpTransport.Builder().setSslSocketFactory(socketFactory).build();
+    }
+
+    /**
+     * Sets the send buffer of every socket it creates.
+     */
+    private static class SendBufferSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+        private final int sendBufferBytes;
+
+        SendBufferSocketFactory(SSLSocketFactory delegate, int sendBufferBytes) {
+            this.delegate = delegate;
+            this.sendBufferBytes = sendBufferBytes;
+        }
+
+        private Socket configure(Socket socket) throws IOException {
+            socket.setSendBufferSize(sendBufferBytes);
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return configure(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return configure(delegate.createSocket(socket, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return configure(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return configure(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return configure(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return configure(delegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
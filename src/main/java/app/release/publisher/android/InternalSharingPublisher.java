@@ -0,0 +1,106 @@
+package app.release.publisher.android;
+
+import app.release.model.CommandLineArguments;
+import app.release.publisher.Publisher;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.InternalAppSharingArtifact;
+import com.google.auth.oauth2.GoogleCredentials;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Uploads an apk or aab through internal app sharing, for testers to install a build within a minute.
+ * <p>
+ * No edit is opened and no track is changed, so uploads of the same app run in parallel with each other and with
+ * releases. The download URL and certificate fingerprint are printed to standard output as one JSON line per upload:
+ * {@code {"packageName": ..., "file": ..., "versionCode": ..., "sha256": ..., "downloadUrl": ...,
+ * "certificateFingerprint": ...}}.
+ */
+@Slf4j
+@SuppressWarnings("try")
+public class InternalSharingPublisher implements Publisher {
+
+    private static final String MIME_TYPE_APK = "application/vnd.android.package-archive";
+    private static final String MIME_TYPE_AAB = "application/octet-stream";
+
+    private final CommandLineArguments arguments;
+    private final AndroidPublisherClientPool clientPool;
+
+    public InternalSharingPublisher(CommandLineArguments arguments, AndroidPublisherClientPool clientPool) {
+        this.arguments = arguments;
+        this.clientPool = clientPool;
+    }
+
+    @Override
+    public void publish() throws Exception {
+        PublishMetrics metrics = new PublishMetrics("internal-sharing", arguments.getFile());
+        try {
+            publish(metrics);
+            metrics.finish(arguments, null);
+        } catch (Exception e) {
+            metrics.finish(arguments, e);
+            throw e;
+        }
+    }
+
+    private void publish(PublishMetrics metrics) throws Exception {
+
+        // hash the file and fetch the access token at the same time
+        Path file = FileSystems.getDefault().getPath(arguments.getFile()).normalize();
+        boolean bundle = file.toString().toLowerCase().endsWith(".aab");
+        CompletableFuture<ArtifactInfo> inspection = PublishPipeline.inspect(arguments, metrics, file);
+        CompletableFuture<GoogleCredentials> authentication = PublishPipeline.credentials(arguments, metrics, clientPool);
+
+        final ArtifactInfo info = PublishPipeline.await(inspection);
+        final String packageName = arguments.getPackageName() == null ? info.getPackageName() : arguments.getPackageName();
+        if (packageName == null) {
+            throw new IllegalArgumentException("Package name not found in " + file + ", give it with -packageName");
+        }
+        metrics.setPackageName(packageName);
+        final String applicationName = arguments.getAppName() == null ? packageName : arguments.getAppName();
+        log.info("Sharing [{}] of [{}], version code [{}]...", file.getFileName(), packageName, info.getVersionCode());
+
+        PublishPipeline.await(authentication);
+        AndroidPublisher publisher;
+        try (PublishMetrics.Stage stage = metrics.stage("client")) {
+            publisher = clientPool.get(arguments, applicationName);
+        }
+        PlayRequestExecutor executor = PlayRequestExecutor.forArguments(arguments);
+
+        // upload in a single request, Play answers with the link once the artifact is processed
+        InternalAppSharingArtifact artifact;
+        try (PublishMetrics.Stage stage = metrics.stage("upload")) {
+            ChannelContent content = new ChannelContent(bundle ? MIME_TYPE_AAB : MIME_TYPE_APK, file,
+                    BandwidthLimiter.forArguments(arguments));
+            artifact = executor.executeUpload(bundle ? "internalappsharing.uploadbundle" : "internalappsharing.uploadapk", () -> {
+                AndroidPublisher.Internalappsharingartifacts artifacts = publisher.internalappsharingartifacts();
+                AbstractGoogleClientRequest<InternalAppSharingArtifact> upload = bundle
+                        ? artifacts.uploadbundle(packageName, content) : artifacts.uploadapk(packageName, content);
+                // apks and aabs are zips already, compressing them again only costs time
+                upload.getMediaHttpUploader().setDirectUploadEnabled(true).setDisableGZipContent(true).setProgressListener(
+                        uploader -> metrics.progressChanged(uploader.getNumBytesUploaded(), info.getSize()));
+                return upload;
+            });
+            content.verifySha256(info.getSha256(), "the inspected file");
+            content.verifySha256(artifact.getSha256(), "Play");
+        }
+        log.info("Shared [{}] of [{}]: [{}]", file.getFileName(), packageName, artifact.getDownloadUrl());
+
+        GenericJson output = new GenericJson();
+        output.setFactory(JacksonFactory.getDefaultInstance());
+        output.put("packageName", packageName);
+        output.put("file", file.toString());
+        output.put("versionCode", info.getVersionCode());
+        output.put("sha256", artifact.getSha256());
+        output.put("downloadUrl", artifact.getDownloadUrl());
+        output.put("certificateFingerprint", artifact.getCertificateFingerprint());
+        // one line per upload, so the output of parallel uploads stays parseable
+        System.out.println(output.toString());
+    }
+}
@@ -0,0 +1,33 @@
+package app.release.publisher.android;
+
+import java.io.IOException;
+
+/**
+ * Storage of the per-package edit leases of {@link EditLeases}, shared by all nodes publishing the same apps.
+ * <p>
+ * A lease is held by an owner until it expires; an expired lease may be taken over by another owner. Implementations
+ * must make {@link #tryAcquire} atomic across nodes, e.g. a lock directory on shared storage ({@link FileLeaseBackend})
+ * or a key-value store with compare-and-set.
+ */
+public interface LeaseBackend {
+
+    /**
+     * Take the lease of the key if it is free or expired.
+     *
+     * @param expiresAt epoch millis the lease expires at unless renewed
+     * @return whether the owner holds the lease now
+     */
+    boolean tryAcquire(String key, String owner, long expiresAt) throws IOException;
+
+    /**
+     * Extend a lease the owner holds.
+     *
+     * @return false if the owner does not hold the lease anymore, e.g. because it expired and was taken over
+     */
+    boolean renew(String key, String owner, long expiresAt) throws IOException;
+
+    /**
+     * Give the lease up, if the owner still holds it.
+     */
+    void release(String key, String owner) throws IOException;
+}
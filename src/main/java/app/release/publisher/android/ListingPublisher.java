@@ -0,0 +1,265 @@
+package app.release.publisher.android;
+
+import app.release.model.CommandLineArguments;
+import app.release.model.StoreListings;
+import app.release.publisher.Publisher;
+import com.google.api.client.http.FileContent;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.AppEdit;
+import com.google.api.services.androidpublisher.model.Image;
+import com.google.api.services.androidpublisher.model.ImagesListResponse;
+import com.google.api.services.androidpublisher.model.Listing;
+import com.google.api.services.androidpublisher.model.ListingsListResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Syncs the store listings and graphics of a {@link StoreListings} directory to Play in a single edit.
+ * <p>
+ * Listing texts are only updated when they differ. Images are compared by SHA-256 with those Play has, per language
+ * and image type: images no longer present locally are deleted and only new ones are uploaded. If the order of the
+ * images that stay no longer matches, all images of that type are replaced. Languages and image types run in parallel,
+ * at most {@code -parallelism} at a time.
+ */
+@Slf4j
+@SuppressWarnings("try")
+public class ListingPublisher implements Publisher {
+
+    private final CommandLineArguments arguments;
+    private final AndroidPublisherClientPool clientPool;
+    private final EditLeases.Lease lease;
+    private final PlayRequestExecutor executor;
+
+    /**
+     * @param lease the lease of the edit of the app, checked before the edit is committed
+     */
+    public ListingPublisher(CommandLineArguments arguments, AndroidPublisherClientPool clientPool, EditLeases.Lease lease) {
+        this.arguments = arguments;
+        this.clientPool = clientPool;
+        this.lease = lease;
+        this.executor = PlayRequestExecutor.forArguments(arguments);
+    }
+
+    @Override
+    public void publish() throws Exception {
+        PublishMetrics metrics = new PublishMetrics("listings", arguments.getListingsPath());
+        try {
+            publish(metrics);
+            metrics.finish(arguments, null);
+        } catch (Exception e) {
+            metrics.finish(arguments, e);
+            throw e;
+        }
+    }
+
+    private void publish(PublishMetrics metrics) throws Exception {
+
+        // load listings
+        log.info("Loading store listings...");
+        StoreListings listings = StoreListings.load(FileSystems.getDefault().getPath(arguments.getListingsPath()).normalize());
+        String packageName = arguments.getPackageName();
+        if (packageName == null) {
+            throw new IllegalArgumentException("Listing sync needs -packageName");
+        }
+        metrics.setPackageName(packageName);
+        String applicationName = arguments.getAppName() == null ? packageName : arguments.getAppName();
+        log.info("Package Name: [{}], [{}] languages", packageName, listings.getLocales().size());
+
+        // init publisher
+        AndroidPublisher publisher;
+        try (PublishMetrics.Stage stage = metrics.stage("client")) {
+            publisher = clientPool.get(arguments, applicationName);
+        }
+
+        // create an edit
+        log.info("Initialising new edit...");
+        AppEdit edit;
+        try (PublishMetrics.Stage stage = metrics.stage("edit.insert")) {
+            edit = executor.execute("edits.insert", publisher.edits().insert(packageName, null));
+        }
+        final String editId = edit.getId();
+        log.info("Edit created with Id: [{}]", editId);
+
+        try {
+            // update listing texts that changed
+            try (PublishMetrics.Stage stage = metrics.stage("listings")) {
+                syncTexts(publisher, packageName, editId, listings);
+            }
+
+            // sync images, one step per language and image type
+            List<PublishPipeline.Step<int[]>> steps = new ArrayList<>();
+            for (StoreListings.LocaleListing locale : listings.getLocales()) {
+                for (Map.Entry<String, List<Path>> images : locale.getImages().entrySet()) {
+                    steps.add(() -> syncImages(metrics, publisher, packageName, editId, locale.getLanguage(), images.getKey(), images.getValue()));
+                }
+            }
+            int uploaded = 0;
+            int deleted = 0;
+            int unchanged = 0;
+            for (int[] counts : PublishPipeline.all(steps, arguments.getParallelism())) {
+                uploaded += counts[0];
+                deleted += counts[1];
+                unchanged += counts[2];
+            }
+            log.info("Images synced: [{}] uploaded, [{}] deleted, [{}] unchanged", uploaded, deleted, unchanged);
+
+            // commit edit
+            log.info("Committing edit...");
+            lease.checkHeld();
+            try (PublishMetrics.Stage stage = metrics.stage("commit")) {
+                executor.executeNonIdempotent("edits.commit", publisher.edits().commit(packageName, editId));
+            }
+            log.info("Success. Committed Edit id: [{}]. Store listings updated.", editId);
+
+            // Success
+        } catch (Exception e) {
+            // error message
+            String msg = "Operation Failed: " + e.getMessage();
+
+            // abort
+            log.error("Operation failed due to an error!, Deleting edit...");
+            try {
+                executor.execute("edits.delete", publisher.edits().delete(packageName, editId));
+            } catch (Exception e2) {
+                // log abort error as well
+                msg += "\nFailed to delete edit: " + e2.getMessage();
+            }
+
+            // forward error with message
+            throw new IOException(msg, e);
+        }
+    }
+
+    private void syncTexts(AndroidPublisher publisher, String packageName, String editId, StoreListings listings) throws IOException {
+        ListingsListResponse response = executor.execute("listings.list", publisher.edits().listings().list(packageName, editId));
+        Map<String, Listing> remote = new HashMap<>();
+        if (response.getListings() != null) {
+            for (Listing listing : response.getListings()) {
+                remote.put(listing.getLanguage(), listing);
+            }
+        }
+        for (StoreListings.LocaleListing locale : listings.getLocales()) {
+            if (!locale.hasText()) {
+                continue;
+            }
+            Listing current = remote.containsKey(locale.getLanguage()) ? remote.get(locale.getLanguage()) : new Listing();
+            Listing listing = new Listing().setLanguage(locale.getLanguage())
+                    .setTitle(locale.getTitle() == null ? current.getTitle() : locale.getTitle())
+                    .setShortDescription(locale.getShortDescription() == null ? current.getShortDescription() : locale.getShortDescription())
+                    .setFullDescription(locale.getFullDescription() == null ? current.getFullDescription() : locale.getFullDescription())
+                    .setVideo(locale.getVideo() == null ? current.getVideo() : locale.getVideo());
+            if (remote.containsKey(locale.getLanguage())
+                    && Objects.equals(listing.getTitle(), current.getTitle())
+                    && Objects.equals(listing.getShortDescription(), current.getShortDescription())
+                    && Objects.equals(listing.getFullDescription(), current.getFullDescription())
+                    && Objects.equals(listing.getVideo(), current.getVideo())) {
+                log.info("Listing [{}] unchanged", locale.getLanguage());
+                continue;
+            }
+            log.info("Updating listing [{}]...", locale.getLanguage());
+            executor.execute("listings.update", publisher.edits().listings().update(packageName, editId, locale.getLanguage(), listing));
+        }
+    }
+
+    /**
+     * @return the number of images uploaded, deleted and unchanged
+     */
+    private int[] syncImages(PublishMetrics metrics, AndroidPublisher publisher, String packageName, String editId,
+                             String language, String imageType, List<Path> files) throws IOException {
+        List<String> localHashes = new ArrayList<>();
+        for (Path file : files) {
+            localHashes.add(sha256(file));
+        }
+        List<Image> remote;
+        try (PublishMetrics.Stage stage = metrics.stage("images.list")) {
+            ImagesListResponse response = executor.execute("images.list",
+                    publisher.edits().images().list(packageName, editId, language, imageType));
+            remote = response.getImages() == null ? new ArrayList<>() : response.getImages();
+        }
+
+        ImageDiff diff = diff(remote, localHashes);
+        if (diff.replaceAll) {
+            log.info("[{}] [{}] order changed, replacing all [{}] images", language, imageType, remote.size());
+            executor.execute("images.deleteall", publisher.edits().images().deleteall(packageName, editId, language, imageType));
+        } else {
+            for (Image image : diff.stale) {
+                executor.execute("images.delete", publisher.edits().images().delete(packageName, editId, language, imageType, image.getId()));
+            }
+        }
+
+        // upload the rest in order
+        List<Path> uploads = files.subList(diff.kept, files.size());
+        try (PublishMetrics.Stage stage = metrics.stage("images.upload")) {
+            for (Path file : uploads) {
+                String name = file.getFileName().toString().toLowerCase();
+                FileContent content = new FileContent(name.endsWith(".png") ? "image/png" : "image/jpeg", file.toFile());
+                executor.executeUpload("images.upload",
+                        () -> publisher.edits().images().upload(packageName, editId, language, imageType, content));
+            }
+        }
+        log.info("[{}] [{}]: [{}] uploaded, [{}] deleted, [{}] unchanged", language, imageType, uploads.size(), diff.stale.size(), diff.kept);
+        return new int[]{uploads.size(), diff.stale.size(), diff.kept};
+    }
+
+    /**
+     * Keep the images Play already has, as long as they stay in the same order: they must be the first local images.
+     *
+     * @param localHashes the SHA-256 of the local images, in order
+     */
+    static ImageDiff diff(List<Image> remote, List<String> localHashes) {
+        Set<String> localSet = new HashSet<>(localHashes);
+        List<Image> stale = new ArrayList<>();
+        List<String> keptHashes = new ArrayList<>();
+        for (Image image : remote) {
+            String hash = image.getSha256() == null ? null : image.getSha256().toLowerCase();
+            if (hash != null && localSet.contains(hash) && !keptHashes.contains(hash)) {
+                keptHashes.add(hash);
+            } else {
+                stale.add(image);
+            }
+        }
+        boolean keepOrder = keptHashes.size() <= localHashes.size()
+                && keptHashes.equals(localHashes.subList(0, keptHashes.size()));
+        return keepOrder ? new ImageDiff(false, stale, keptHashes.size()) : new ImageDiff(true, remote, 0);
+    }
+
+    /**
+     * The images of one language and type to delete, and how many of the first local images Play has already.
+     */
+    static class ImageDiff {
+        final boolean replaceAll;
+        final List<Image> stale;
+        final int kept;
+
+        ImageDiff(boolean replaceAll, List<Image> stale, int kept) {
+            this.replaceAll = replaceAll;
+            this.stale = stale;
+            this.kept = kept;
+        }
+    }
+
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest = ArtifactInspector.sha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return ArtifactInspector.hex(digest.digest());
+    }
+}
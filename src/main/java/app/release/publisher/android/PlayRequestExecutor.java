@@ -0,0 +1,261 @@
+package app.release.publisher.android;
+
+import app.release.model.CommandLineArguments;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpResponseException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes Play Developer API requests with retries and throttling.
+ * <p>
+ * Rate limited (429), server side (5xx) and network errors are retried with exponential backoff and jitter,
+ * honouring a Retry-After header. Requests that must not run twice are only retried when Play rejected them without
+ * processing, i.e. on 429. All requests of one service account at the same rate share a token bucket, so parallel
+ * publishes stay under the API quota instead of running into it.
+ */
+@Slf4j
+public class PlayRequestExecutor {
+
+    private static final long BASE_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 32000;
+    private static final Map<String, TokenBucket> BUCKETS = new ConcurrentHashMap<>();
+
+    private static final AtomicLong CALLS = new AtomicLong();
+    private static final AtomicLong RETRIES = new AtomicLong();
+    private static final AtomicLong FAILURES = new AtomicLong();
+    private static final AtomicLong THROTTLED = new AtomicLong();
+    private static final AtomicLong THROTTLED_MILLIS = new AtomicLong();
+
+    private final TokenBucket bucket;
+    private final int maxAttempts;
+
+    PlayRequestExecutor(double requestsPerSecond, int maxAttempts) {
+        this(new TokenBucket(requestsPerSecond), maxAttempts);
+    }
+
+    private PlayRequestExecutor(TokenBucket bucket, int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Request attempts must be positive");
+        }
+        this.bucket = bucket;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @return how often a request is tried, one more than {@code -maxRetries}
+     */
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Get the executor of the service account of the given arguments, see {@link #forAccount}.
+     */
+    public static PlayRequestExecutor forArguments(CommandLineArguments arguments) {
+        return forAccount(arguments.getJsonKeyPath(), arguments.getApiRate(), arguments.getMaxRetries() + 1);
+    }
+
+    /**
+     * Get an executor of a service account with the given limits. Executors of the same account and request rate share
+     * one token bucket, the number of attempts is that of the caller, e.g. of a server job with its own {@code
+     * -maxRetries}.
+     */
+    public static PlayRequestExecutor forAccount(String jsonKeyPath, double requestsPerSecond, int maxAttempts) {
+        String key = Paths.get(jsonKeyPath).toAbsolutePath().normalize() + "|" + requestsPerSecond;
+        return new PlayRequestExecutor(BUCKETS.computeIfAbsent(key, k -> new TokenBucket(requestsPerSecond)), maxAttempts);
+    }
+
+    /**
+     * Execute a request that may safely run more than once, e.g. a get, list, update or delete.
+     *
+     * @param step name of the step for logging
+     */
+    public <T> T execute(String step, AbstractGoogleClientRequest<T> request) throws IOException {
+        return execute(step, request, true);
+    }
+
+    /**
+     * Execute a request that must not run twice, e.g. a commit or an upload, it is only retried when rate limited.
+     *
+     * @param step name of the step for logging
+     */
+    public <T> T executeNonIdempotent(String step, AbstractGoogleClientRequest<T> request) throws IOException {
+        return execute(step, request, false);
+    }
+
+    /**
+     * Execute a media upload, which like {@link #executeNonIdempotent} is only retried when rate limited. The request is
+     * built again for every attempt, as its {@link com.google.api.client.googleapis.media.MediaHttpUploader} only runs once.
+     *
+     * @param step    name of the step for logging
+     * @param request builds the upload request
+     */
+    public <T> T executeUpload(String step, RequestFactory<T> request) throws IOException {
+        return execute(step, request, false);
+    }
+
+    private <T> T execute(String step, AbstractGoogleClientRequest<T> request, boolean idempotent) throws IOException {
+        return execute(step, () -> request, idempotent);
+    }
+
+    private <T> T execute(String step, RequestFactory<T> request, boolean idempotent) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            acquire();
+            CALLS.incrementAndGet();
+            try {
+                return request.create().execute();
+            } catch (IOException e) {
+                if (attempt >= maxAttempts || !isRetryable(e, idempotent)) {
+                    FAILURES.incrementAndGet();
+                    throw e;
+                }
+                log.warn("[{}] failed (attempt {}/{}): {}", step, attempt, maxAttempts, describe(e));
+                backoff(attempt, e);
+            }
+        }
+    }
+
+    /**
+     * Wait before retrying a request that failed, for requests not sent through {@link #execute}.
+     *
+     * @param attempt the number of the attempt that failed, starting at 1
+     */
+    void backoff(int attempt, IOException e) throws IOException {
+        long delay = backoffMillis(attempt, e);
+        RETRIES.incrementAndGet();
+        log.info("Retrying in [{}] ms", delay);
+        sleep(delay);
+    }
+
+    /**
+     * @return retry and throttle counters of all executors of this process
+     */
+    public static Map<String, Long> metrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("api_calls", CALLS.get());
+        metrics.put("api_retries", RETRIES.get());
+        metrics.put("api_failures", FAILURES.get());
+        metrics.put("api_throttled", THROTTLED.get());
+        metrics.put("api_throttled_millis", THROTTLED_MILLIS.get());
+        return metrics;
+    }
+
+    static boolean isRetryable(IOException e, boolean idempotent) {
+        if (e instanceof HttpResponseException) {
+            int status = ((HttpResponseException) e).getStatusCode();
+            if (status == 429 || isRateLimitReason(e)) {
+                return true;
+            }
+            return idempotent && (status == 500 || status == 502 || status == 503 || status == 504);
+        }
+        // the request may have reached Play before the connection broke
+        return idempotent && (e instanceof SocketTimeoutException || e instanceof SocketException);
+    }
+
+    /**
+     * Play reports exceeding the per-minute limit as 403 with a rate limit reason.
+     */
+    private static boolean isRateLimitReason(IOException e) {
+        if (!(e instanceof GoogleJsonResponseException) || ((GoogleJsonResponseException) e).getDetails() == null) {
+            return false;
+        }
+        GoogleJsonError details = ((GoogleJsonResponseException) e).getDetails();
+        if (details.getErrors() != null) {
+            for (GoogleJsonError.ErrorInfo error : details.getErrors()) {
+                if ("rateLimitExceeded".equals(error.getReason()) || "userRateLimitExceeded".equals(error.getReason())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static long backoffMillis(int attempt, IOException e) {
+        long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 10));
+        long delay = ThreadLocalRandom.current().nextLong(cap / 2, cap + 1);
+        if (e instanceof HttpResponseException && ((HttpResponseException) e).getHeaders() != null) {
+            String retryAfter = ((HttpResponseException) e).getHeaders().getRetryAfter();
+            if (retryAfter != null && retryAfter.trim().matches("\\d+")) {
+                delay = Math.max(delay, Long.parseLong(retryAfter.trim()) * 1000);
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * Take a token from the bucket, waiting until one is available.
+     */
+    void acquire() throws IOException {
+        long wait = bucket.take();
+        if (wait > 0) {
+            THROTTLED.incrementAndGet();
+            THROTTLED_MILLIS.addAndGet(wait);
+            sleep(wait);
+        }
+    }
+
+    private static String describe(IOException e) {
+        if (e instanceof HttpResponseException) {
+            return ((HttpResponseException) e).getStatusCode() + " " + ((HttpResponseException) e).getStatusMessage();
+        }
+        return e.getClass().getSimpleName() + ": " + e.getMessage();
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the Play API", e);
+        }
+    }
+
+    /**
+     * Requests per second of a service account, with a burst of one second of requests.
+     */
+    private static class TokenBucket {
+        private final double requestsPerSecond;
+        private final double burst;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(double requestsPerSecond) {
+            if (requestsPerSecond <= 0) {
+                throw new IllegalArgumentException("Request rate must be positive");
+            }
+            this.requestsPerSecond = requestsPerSecond;
+            this.burst = Math.max(1, requestsPerSecond);
+            this.tokens = burst;
+        }
+
+        /**
+         * @return milliseconds to wait for the token taken
+         */
+        synchronized long take() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * requestsPerSecond);
+            lastRefill = now;
+            tokens -= 1;
+            return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / requestsPerSecond * 1000);
+        }
+    }
+
+    /**
+     * Builds a request, for every attempt of {@link #executeUpload}.
+     */
+    public interface RequestFactory<T> {
+        AbstractGoogleClientRequest<T> create() throws IOException;
+    }
+}
@@ -0,0 +1,157 @@
+package app.release.publisher.android;
+
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import com.google.api.services.androidpublisher.model.TracksListResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks a release against the tracks of the app before any artifact is uploaded, so a release Play would reject
+ * fails in seconds instead of after the upload:
+ * <ul>
+ * <li>the package name of each artifact matches the app</li>
+ * <li>the track exists</li>
+ * <li>a new version code is not used yet and higher than the version codes released on the track</li>
+ * <li>the release status is known, has a user fraction if staged, and is draft as long as the app was never released</li>
+ * </ul>
+ * All problems found are reported together by {@link #verify()}.
+ */
+@Slf4j
+public class Preflight {
+
+    private static final List<String> STATUSES = Arrays.asList("completed", "inProgress", "halted", "draft");
+    private static final List<String> LIVE_STATUSES = Arrays.asList("completed", "inProgress", "halted");
+
+    private final String packageName;
+    private final List<Track> tracks;
+    private final Set<String> problems = new LinkedHashSet<>();
+
+    public Preflight(String packageName, List<Track> tracks) {
+        this.packageName = packageName;
+        this.tracks = tracks == null ? Collections.emptyList() : tracks;
+    }
+
+    /**
+     * List the tracks of the app in the edit, the input of the checks.
+     */
+    public static List<Track> tracks(AndroidPublisher publisher, PlayRequestExecutor executor, String packageName, String editId) throws IOException {
+        TracksListResponse response = executor.execute("tracks.list", publisher.edits().tracks().list(packageName, editId));
+        return response.getTracks() == null ? Collections.emptyList() : response.getTracks();
+    }
+
+    /**
+     * Check an artifact to be released on a track.
+     *
+     * @param uploaded whether Play already has the artifact, so its version code is known to Play
+     */
+    public void checkArtifact(Path file, ArtifactInfo info, String trackName, boolean uploaded) {
+        if (info.getPackageName() != null && !info.getPackageName().equals(packageName)) {
+            problems.add(file + " is package " + info.getPackageName() + ", not " + packageName);
+        }
+        Long versionCode = info.getVersionCode();
+        if (versionCode == null) {
+            return;
+        }
+        if (!uploaded) {
+            for (Track track : tracks) {
+                for (TrackRelease release : releases(track)) {
+                    if (release.getVersionCodes() != null && release.getVersionCodes().contains(versionCode)) {
+                        problems.add("Version code " + versionCode + " of " + file + " is already used by release "
+                                + release.getName() + " on track " + track.getTrack());
+                    }
+                }
+            }
+        }
+        long released = highestReleasedVersionCode(trackName);
+        if (uploaded ? versionCode < released : versionCode <= released) {
+            problems.add("Version code " + versionCode + " of " + file + " is not higher than version code " + released
+                    + " released on track " + trackName);
+        }
+    }
+
+    /**
+     * Check a release with the given status and user fraction on a track.
+     */
+    public void checkRelease(String trackName, String status, Double userFraction) {
+        if (find(trackName) == null) {
+            List<String> names = new ArrayList<>();
+            for (Track track : tracks) {
+                names.add(track.getTrack());
+            }
+            problems.add("Track " + trackName + " does not exist, the app has tracks " + names);
+        }
+        if (!STATUSES.contains(status)) {
+            problems.add("Release status " + status + " is not one of " + STATUSES);
+        } else if (("inProgress".equals(status) || "halted".equals(status)) && (userFraction == null || userFraction <= 0 || userFraction >= 1)) {
+            problems.add("Release status " + status + " needs a user fraction between 0 and 1");
+        } else if (("completed".equals(status) || "draft".equals(status)) && userFraction != null) {
+            problems.add("Release status " + status + " must not have a user fraction");
+        }
+        if (!"draft".equals(status) && !isReleased()) {
+            problems.add("The app was never released, Play only accepts releases with status draft until the first "
+                    + "release is published in the Play Console");
+        }
+    }
+
+    /**
+     * @throws IOException listing all problems found, if any
+     */
+    public void verify() throws IOException {
+        if (!problems.isEmpty()) {
+            for (String problem : problems) {
+                log.error("Preflight: {}", problem);
+            }
+            throw new IOException("Preflight failed, nothing was uploaded: " + String.join("; ", problems));
+        }
+        log.info("Preflight passed for [{}]", packageName);
+    }
+
+    private long highestReleasedVersionCode(String trackName) {
+        long highest = 0;
+        Track track = find(trackName);
+        if (track != null) {
+            for (TrackRelease release : releases(track)) {
+                if (LIVE_STATUSES.contains(release.getStatus()) && release.getVersionCodes() != null) {
+                    for (Long versionCode : release.getVersionCodes()) {
+                        highest = Math.max(highest, versionCode);
+                    }
+                }
+            }
+        }
+        return highest;
+    }
+
+    private boolean isReleased() {
+        for (Track track : tracks) {
+            for (TrackRelease release : releases(track)) {
+                if (LIVE_STATUSES.contains(release.getStatus())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Track find(String trackName) {
+        for (Track track : tracks) {
+            if (trackName.equals(track.getTrack())) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    private static List<TrackRelease> releases(Track track) {
+        return track.getReleases() == null ? Collections.emptyList() : track.getReleases();
+    }
+}
@@ -0,0 +1,238 @@
+package app.release.publisher.android;
+
+import app.release.model.CommandLineArguments;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Timings of the stages of one publish, e.g. inspect, edit insert, upload and commit, and the bytes uploaded.
+ * <p>
+ * At the end of a publish the timings are logged, appended as one JSON line to the {@code -metricsFile} and written
+ * with those of the last publish of every other package to the {@code -prometheusFile}, in the text format of the
+ * Prometheus node exporter textfile collector.
+ */
+@Slf4j
+public class PublishMetrics implements UploadProgressListener {
+
+    /**
+     * Last publish of each package of this process, for the Prometheus file.
+     */
+    private static final Map<String, PublishMetrics> LAST_BY_PACKAGE = new TreeMap<>();
+
+    private final String publisher;
+    private final String file;
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    private final Map<String, long[]> stages = new LinkedHashMap<>();
+    private String packageName;
+    private long totalNanos;
+    private String error;
+    private long uploadedBefore;
+    private long uploadStartOffset = -1;
+    private long uploadedOffset;
+    private long lastProgressLog;
+
+    /**
+     * @param publisher kind of publish, e.g. "aab", "apk" or "plan"
+     * @param file      artifact or plan file published
+     */
+    public PublishMetrics(String publisher, String file) {
+        this.publisher = publisher;
+        this.file = file;
+    }
+
+    /**
+     * Start timing a stage, the stage ends when the returned timer is closed. A stage run several times adds up.
+     */
+    public Stage stage(String name) {
+        return new Stage(name);
+    }
+
+    public void setPackageName(String packageName) {
+        this.packageName = packageName;
+    }
+
+    @Override
+    public synchronized void progressChanged(long bytesUploaded, long totalBytes) {
+        if (uploadStartOffset >= 0 && bytesUploaded < uploadedOffset) {
+            // the next artifact of a plan
+            uploadedBefore += uploadedOffset - uploadStartOffset;
+            uploadStartOffset = -1;
+        }
+        if (uploadStartOffset < 0) {
+            uploadStartOffset = bytesUploaded;
+        }
+        uploadedOffset = bytesUploaded;
+        long now = System.nanoTime();
+        if (bytesUploaded >= totalBytes || now - lastProgressLog > 1_000_000_000L) {
+            lastProgressLog = now;
+            log.info("Upload progress [{}] of [{}] bytes ({}%)", bytesUploaded, totalBytes,
+                    totalBytes == 0 ? 100 : bytesUploaded * 100 / totalBytes);
+        }
+    }
+
+    /**
+     * Finish the publish: log the timings and write them to the files given in the arguments.
+     *
+     * @param e the error the publish failed with, or null
+     */
+    public void finish(CommandLineArguments arguments, Exception e) {
+        totalNanos = System.nanoTime() - startNanos;
+        error = e == null ? null : String.valueOf(e.getMessage());
+        StringBuilder timings = new StringBuilder();
+        synchronized (this) {
+            for (Map.Entry<String, long[]> stage : stages.entrySet()) {
+                timings.append(timings.length() == 0 ? "" : ", ").append(stage.getKey())
+                        .append(" [").append(stage.getValue()[0] / 1_000_000).append("] ms");
+            }
+        }
+        log.info("Publish timings: {}, total [{}] ms, uploaded [{}] bytes at [{}] KB/s", timings, totalNanos / 1_000_000,
+                uploadedBytes(), Math.round(uploadBytesPerSecond() / 1024));
+        try {
+            if (arguments.getMetricsFile() != null) {
+                appendJson(Paths.get(arguments.getMetricsFile()));
+            }
+            if (arguments.getPrometheusFile() != null) {
+                writePrometheus(Paths.get(arguments.getPrometheusFile()), this);
+            }
+        } catch (IOException ioe) {
+            log.warn("Failed to write publish metrics: {}", ioe.getMessage());
+        }
+    }
+
+    /**
+     * @return the summary of the publish as JSON
+     */
+    public synchronized GenericJson toJson() {
+        GenericJson json = new GenericJson();
+        json.set("publisher", publisher);
+        json.set("file", file);
+        json.set("packageName", packageName);
+        json.set("started", startMillis);
+        json.set("status", error == null ? "succeeded" : "failed");
+        if (error != null) {
+            json.set("error", error);
+        }
+        json.set("totalMillis", totalNanos / 1_000_000);
+        Map<String, GenericJson> stageJson = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> stage : stages.entrySet()) {
+            stageJson.put(stage.getKey(), new GenericJson()
+                    .set("millis", stage.getValue()[0] / 1_000_000)
+                    .set("count", stage.getValue()[1]));
+        }
+        json.set("stages", stageJson);
+        json.set("uploadBytes", uploadedBytes());
+        json.set("uploadBytesPerSecond", Math.round(uploadBytesPerSecond()));
+        return json;
+    }
+
+    private synchronized long uploadedBytes() {
+        return uploadedBefore + (uploadStartOffset < 0 ? 0 : uploadedOffset - uploadStartOffset);
+    }
+
+    private synchronized double uploadBytesPerSecond() {
+        long[] upload = stages.get("upload");
+        if (upload == null || uploadedBytes() == 0) {
+            return 0;
+        }
+        return (double) uploadedBytes() / Math.max(upload[0], 1) * 1e9;
+    }
+
+    private synchronized void record(String name, long nanos) {
+        long[] stage = stages.computeIfAbsent(name, k -> new long[2]);
+        stage[0] += nanos;
+        stage[1]++;
+    }
+
+    private void appendJson(Path metricsFile) throws IOException {
+        String line = JacksonFactory.getDefaultInstance().toString(toJson()) + "\n";
+        synchronized (PublishMetrics.class) {
+            Files.write(metricsFile, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private static void writePrometheus(Path prometheusFile, PublishMetrics metrics) throws IOException {
+        synchronized (PublishMetrics.class) {
+            LAST_BY_PACKAGE.put(metrics.packageName == null ? metrics.file : metrics.packageName, metrics);
+            Path tmp = prometheusFile.resolveSibling(prometheusFile.getFileName() + ".tmp");
+            try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                out.write("# HELP release_publish_stage_seconds Duration of a stage of the last publish of a package\n");
+                out.write("# TYPE release_publish_stage_seconds gauge\n");
+                for (Map.Entry<String, PublishMetrics> last : LAST_BY_PACKAGE.entrySet()) {
+                    synchronized (last.getValue()) {
+                        for (Map.Entry<String, long[]> stage : last.getValue().stages.entrySet()) {
+                            out.write(String.format(Locale.ROOT, "release_publish_stage_seconds{package=\"%s\",stage=\"%s\"} %.3f\n",
+                                    label(last.getKey()), stage.getKey(), stage.getValue()[0] / 1e9));
+                        }
+                    }
+                }
+                out.write("# HELP release_publish_seconds Duration of the last publish of a package\n");
+                out.write("# TYPE release_publish_seconds gauge\n");
+                for (Map.Entry<String, PublishMetrics> last : LAST_BY_PACKAGE.entrySet()) {
+                    out.write(String.format(Locale.ROOT, "release_publish_seconds{package=\"%s\",status=\"%s\"} %.3f\n",
+                            label(last.getKey()), last.getValue().error == null ? "succeeded" : "failed",
+                            last.getValue().totalNanos / 1e9));
+                }
+                out.write("# HELP release_publish_timestamp_seconds Start of the last publish of a package\n");
+                out.write("# TYPE release_publish_timestamp_seconds gauge\n");
+                for (Map.Entry<String, PublishMetrics> last : LAST_BY_PACKAGE.entrySet()) {
+                    out.write(String.format(Locale.ROOT, "release_publish_timestamp_seconds{package=\"%s\"} %.3f\n",
+                            label(last.getKey()), last.getValue().startMillis / 1e3));
+                }
+                out.write("# HELP release_publish_upload_bytes Bytes uploaded by the last publish of a package\n");
+                out.write("# TYPE release_publish_upload_bytes gauge\n");
+                for (Map.Entry<String, PublishMetrics> last : LAST_BY_PACKAGE.entrySet()) {
+                    out.write(String.format(Locale.ROOT, "release_publish_upload_bytes{package=\"%s\"} %d\n",
+                            label(last.getKey()), last.getValue().uploadedBytes()));
+                }
+                out.write("# HELP release_publish_upload_bytes_per_second Upload throughput of the last publish of a package\n");
+                out.write("# TYPE release_publish_upload_bytes_per_second gauge\n");
+                for (Map.Entry<String, PublishMetrics> last : LAST_BY_PACKAGE.entrySet()) {
+                    out.write(String.format(Locale.ROOT, "release_publish_upload_bytes_per_second{package=\"%s\"} %.0f\n",
+                            label(last.getKey()), last.getValue().uploadBytesPerSecond()));
+                }
+                for (Map.Entry<String, Long> counter : PlayRequestExecutor.metrics().entrySet()) {
+                    out.write("# TYPE release_" + counter.getKey() + "_total counter\n");
+                    out.write("release_" + counter.getKey() + "_total " + counter.getValue() + "\n");
+                }
+            }
+            Files.move(tmp, prometheusFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static String label(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Timer of one stage, to be used with try-with-resources.
+     */
+    public final class Stage implements AutoCloseable {
+
+        private final String name;
+        private final long start = System.nanoTime();
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            record(name, System.nanoTime() - start);
+        }
+    }
+}
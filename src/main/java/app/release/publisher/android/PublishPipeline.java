@@ -0,0 +1,256 @@
+package app.release.publisher.android;
+
+import app.release.model.CommandLineArguments;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.auth.oauth2.GoogleCredentials;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent steps of a publish at the same time, e.g. hashing the artifact while the access token is fetched
+ * and the edit is inserted.
+ * <p>
+ * Steps run on a shared pool of daemon threads and inherit the MDC of the thread that started them, so their log lines
+ * still end up in the log of the publish server job. The steps all publishers share, inspecting the artifacts,
+ * fetching the access token, building the client, inserting the edit and listing the tracks, are built here.
+ */
+@Slf4j
+@SuppressWarnings("try")
+public final class PublishPipeline {
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(PublishPipeline::newThread);
+
+    /**
+     * A step of a publish.
+     */
+    interface Step<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * A step of a publish that needs the result of an earlier one.
+     */
+    interface NextStep<T, R> {
+        R run(T input) throws Exception;
+    }
+
+    private PublishPipeline() {
+    }
+
+    /**
+     * Start the step in the background.
+     */
+    static <T> CompletableFuture<T> async(Step<T> step) {
+        Executor executor = withMdc(EXECUTOR);
+        return CompletableFuture.supplyAsync(() -> call(step), executor);
+    }
+
+    /**
+     * Run the step in the background once the given step completed, failing with its error if it failed.
+     */
+    static <T, R> CompletableFuture<R> then(CompletableFuture<T> previous, NextStep<T, R> step) {
+        Executor executor = withMdc(EXECUTOR);
+        return previous.thenApplyAsync(input -> call(() -> step.run(input)), executor);
+    }
+
+    /**
+     * Run the steps with at most the given number of them at a time and wait for all of them, rethrowing the error the
+     * first failed step failed with.
+     *
+     * @return the results in the order of the steps
+     */
+    static <T> List<T> all(List<Step<T>> steps, int parallelism) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, steps.size())), PublishPipeline::newThread);
+        try {
+            Executor executor = withMdc(pool);
+            List<CompletableFuture<T>> futures = new ArrayList<>();
+            for (Step<T> step : steps) {
+                futures.add(CompletableFuture.supplyAsync(() -> call(step), executor));
+            }
+            List<T> results = new ArrayList<>();
+            Exception error = null;
+            for (CompletableFuture<T> future : futures) {
+                try {
+                    results.add(await(future));
+                } catch (Exception e) {
+                    error = error == null ? e : error;
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Hash the artifact in the background, or take its information from the artifact cache.
+     */
+    static CompletableFuture<ArtifactInfo> inspect(CommandLineArguments arguments, PublishMetrics metrics, Path file) {
+        return async(() -> {
+            try (PublishMetrics.Stage stage = metrics.stage("inspect")) {
+                return ArtifactCache.open(FileSystems.getDefault().getPath(arguments.getStateDir())).inspect(file);
+            }
+        });
+    }
+
+    /**
+     * Fetch the access token of {@code -key} in the background.
+     */
+    static CompletableFuture<GoogleCredentials> credentials(CommandLineArguments arguments, PublishMetrics metrics,
+                                                            AndroidPublisherClientPool clientPool) {
+        return async(() -> {
+            try (PublishMetrics.Stage stage = metrics.stage("credentials")) {
+                GoogleCredentials credentials = clientPool.credentials(
+                        FileSystems.getDefault().getPath(arguments.getJsonKeyPath()).toAbsolutePath().normalize());
+                credentials.refreshIfExpired();
+                return credentials;
+            }
+        });
+    }
+
+    /**
+     * Build the client once the access token is fetched.
+     */
+    static CompletableFuture<AndroidPublisher> client(CommandLineArguments arguments, PublishMetrics metrics,
+                                                      AndroidPublisherClientPool clientPool,
+                                                      CompletableFuture<GoogleCredentials> authentication, String applicationName) {
+        return then(authentication, credentials -> {
+            try (PublishMetrics.Stage stage = metrics.stage("client")) {
+                return clientPool.get(arguments, applicationName);
+            }
+        });
+    }
+
+    /**
+     * Prepare the resumable upload of the file once the client is built, completes with null unless {@code -chunkSize} is
+     * given.
+     */
+    static CompletableFuture<ResumableUpload> resumable(CommandLineArguments arguments, PlayRequestExecutor executor,
+                                                        CompletableFuture<AndroidPublisher> client, Path file, String mimeType) {
+        return then(client, publisher -> arguments.getChunkSizeMb() == null || arguments.isValidateOnly() ? null
+                : new ResumableUpload(publisher, executor, file, mimeType, arguments.getChunkSizeMb(),
+                FileSystems.getDefault().getPath(arguments.getUploadStatePath())));
+    }
+
+    /**
+     * Insert a new edit once the client is built.
+     *
+     * @return the id of the edit
+     */
+    static CompletableFuture<String> edit(PublishMetrics metrics, PlayRequestExecutor executor,
+                                          CompletableFuture<AndroidPublisher> client, String packageName) {
+        return edit(metrics, executor, client, then(client, publisher -> null), packageName);
+    }
+
+    /**
+     * Continue the edit of an interrupted resumable upload, or insert a new edit.
+     *
+     * @return the id of the edit
+     */
+    static CompletableFuture<String> edit(PublishMetrics metrics, PlayRequestExecutor executor, CompletableFuture<AndroidPublisher> client,
+                                          CompletableFuture<ResumableUpload> resumable, String packageName) {
+        return then(resumable, resumableUpload -> {
+            try (PublishMetrics.Stage stage = metrics.stage("edit.insert")) {
+                String editId = resumableUpload == null ? null : resumableUpload.resumableEditId(packageName);
+                if (editId == null) {
+                    log.info("Initialising new edit...");
+                    editId = executor.execute("edits.insert", await(client).edits().insert(packageName, null)).getId();
+                    log.info("Edit created with Id: [{}]", editId);
+                }
+                return editId;
+            }
+        });
+    }
+
+    /**
+     * List the tracks of the edit for the preflight once it is inserted, and record them in the track index.
+     */
+    static CompletableFuture<List<Track>> tracks(CommandLineArguments arguments, PublishMetrics metrics, PlayRequestExecutor executor,
+                                                 CompletableFuture<AndroidPublisher> client, CompletableFuture<String> edit,
+                                                 String packageName) {
+        return then(edit, editId -> {
+            List<Track> tracks;
+            try (PublishMetrics.Stage stage = metrics.stage("tracks.list")) {
+                tracks = Preflight.tracks(await(client), executor, packageName, editId);
+            }
+            TrackIndex.forArguments(arguments).recordAll(packageName, tracks);
+            return tracks;
+        });
+    }
+
+    /**
+     * Wait for the step, rethrowing the error it failed with.
+     */
+    static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a publish step", e);
+        }
+    }
+
+    private static <T> T call(Step<T> step) {
+        try {
+            return step.run();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "publish-pipeline-" + THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * @return the executor running its tasks with the MDC of the calling thread, e.g. the job of the publish server
+     */
+    public static Executor withMdc(Executor executor) {
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        return task -> executor.execute(() -> {
+            Map<String, String> previous = MDC.getCopyOfContextMap();
+            if (context == null) {
+                MDC.clear();
+            } else {
+                MDC.setContextMap(context);
+            }
+            try {
+                task.run();
+            } finally {
+                if (previous == null) {
+                    MDC.clear();
+                } else {
+                    MDC.setContextMap(previous);
+                }
+            }
+        });
+    }
+}
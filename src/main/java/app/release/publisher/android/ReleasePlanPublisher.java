@@ -0,0 +1,254 @@
+package app.release.publisher.android;
+
+import app.release.model.CommandLineArguments;
+import app.release.model.ReleasePlan;
+import app.release.publisher.Publisher;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.*;
+import com.google.auth.oauth2.GoogleCredentials;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Publishes a {@link ReleasePlan} in a single edit: every artifact is uploaded once, then all track releases are
+ * updated and the edit is committed once.
+ */
+@Slf4j
+@SuppressWarnings("try")
+public class ReleasePlanPublisher implements Publisher {
+
+    private static final String MIME_TYPE_AAB = "application/octet-stream";
+    private static final String MIME_TYPE_APK = "application/vnd.android.package-archive";
+    private final CommandLineArguments arguments;
+    private final AndroidPublisherClientPool clientPool;
+    private final EditLeases.Lease lease;
+    private final PlayRequestExecutor executor;
+
+    /**
+     * @param lease the lease of the edit of the app, checked before the edit is committed
+     */
+    public ReleasePlanPublisher(CommandLineArguments arguments, AndroidPublisherClientPool clientPool, EditLeases.Lease lease) {
+        this.arguments = arguments;
+        this.clientPool = clientPool;
+        this.lease = lease;
+        this.executor = PlayRequestExecutor.forArguments(arguments);
+    }
+
+    @Override
+    public void publish() throws Exception {
+        PublishMetrics metrics = new PublishMetrics("plan", arguments.getPlanPath());
+        try {
+            publish(metrics);
+            metrics.finish(arguments, null);
+        } catch (Exception e) {
+            metrics.finish(arguments, e);
+            throw e;
+        }
+    }
+
+    private void publish(PublishMetrics metrics) throws Exception {
+
+        // load plan
+        log.info("Loading release plan...");
+        ReleasePlan plan = ReleasePlan.load(FileSystems.getDefault().getPath(arguments.getPlanPath()).normalize());
+        String packageName = plan.getPackageName() == null ? arguments.getPackageName() : plan.getPackageName();
+        if (packageName == null) {
+            throw new IllegalArgumentException("Release plan needs a packageName, in the plan or with -packageName");
+        }
+        metrics.setPackageName(packageName);
+        String applicationName = arguments.getAppName() == null ? packageName : arguments.getAppName();
+        log.info("Package Name: [{}], [{}] artifacts, [{}] tracks", packageName, plan.getArtifacts().size(), plan.getTracks().size());
+
+        // hash all artifacts, fetch the access token and insert the edit at the same time
+        Map<Path, CompletableFuture<ArtifactInfo>> inspections = new LinkedHashMap<>();
+        for (Path artifact : plan.getArtifacts()) {
+            inspections.put(artifact, PublishPipeline.inspect(arguments, metrics, artifact));
+        }
+        CompletableFuture<GoogleCredentials> authentication = PublishPipeline.credentials(arguments, metrics, clientPool);
+        CompletableFuture<AndroidPublisher> client = PublishPipeline.client(arguments, metrics, clientPool, authentication, applicationName);
+        CompletableFuture<String> editCreation = PublishPipeline.edit(metrics, executor, client, packageName);
+
+        // list the tracks for the preflight while the artifacts are inspected
+        CompletableFuture<List<Track>> trackList = PublishPipeline.tracks(arguments, metrics, executor, client, editCreation, packageName);
+
+        final AndroidPublisher publisher = PublishPipeline.await(client);
+        final String editId = PublishPipeline.await(editCreation);
+
+        try {
+            // look up the artifacts Play already has, as soon as they are hashed, listing bundles and apks once
+            Map<Path, ArtifactInfo> infos = new LinkedHashMap<>();
+            Map<Path, Long> versionCodes = new LinkedHashMap<>();
+            Map<String, Map<String, Long>> existing = new HashMap<>();
+            for (Path artifact : plan.getArtifacts()) {
+                ArtifactInfo info = PublishPipeline.await(inspections.get(artifact));
+                infos.put(artifact, info);
+                versionCodes.put(artifact, existing(metrics, publisher, packageName, editId, artifact, info, existing));
+            }
+
+            // check all releases against the tracks of the app before any byte is sent
+            try (PublishMetrics.Stage stage = metrics.stage("preflight")) {
+                Preflight preflight = new Preflight(packageName, PublishPipeline.await(trackList));
+                for (ReleasePlan.TrackPlan trackPlan : plan.getTracks()) {
+                    preflight.checkRelease(trackPlan.getTrack(), status(trackPlan), trackPlan.getUserFraction());
+                    for (Path artifact : trackPlan.getArtifacts()) {
+                        preflight.checkArtifact(artifact, infos.get(artifact), trackPlan.getTrack(), versionCodes.get(artifact) != null);
+                    }
+                }
+                preflight.verify();
+            }
+            if (arguments.isValidateOnly()) {
+                log.info("Validation only, deleting edit [{}] without uploading", editId);
+                executor.execute("edits.delete", publisher.edits().delete(packageName, editId));
+                return;
+            }
+
+            // publish each artifact Play does not have yet once
+            for (Path artifact : plan.getArtifacts()) {
+                if (versionCodes.get(artifact) == null) {
+                    versionCodes.put(artifact, upload(metrics, publisher, packageName, editId, artifact, infos.get(artifact)));
+                }
+            }
+
+            // create a release on each track
+            List<Track> tracks = new ArrayList<>();
+            for (ReleasePlan.TrackPlan trackPlan : plan.getTracks()) {
+                List<Long> trackVersionCodes = new ArrayList<>();
+                for (Path artifact : trackPlan.getArtifacts()) {
+                    trackVersionCodes.add(versionCodes.get(artifact));
+                }
+                log.info("Creating a release on track: [{}] with version codes {}", trackPlan.getTrack(), trackVersionCodes);
+                TrackRelease release = new TrackRelease()
+                        .setName(trackPlan.getReleaseName() == null ? arguments.getReleaseName() : trackPlan.getReleaseName())
+                        .setStatus(status(trackPlan))
+                        .setUserFraction(trackPlan.getUserFraction())
+                        .setVersionCodes(trackVersionCodes)
+                        .setReleaseNotes(releaseNotes(trackPlan));
+                Track track = new Track().setReleases(Collections.singletonList(release)).setTrack(trackPlan.getTrack());
+                try (PublishMetrics.Stage stage = metrics.stage("track.update")) {
+                    executor.execute("tracks.update", publisher.edits().tracks().update(packageName, editId, trackPlan.getTrack(), track));
+                }
+                tracks.add(track);
+                log.info("Release created on track: [{}]", trackPlan.getTrack());
+            }
+
+            // commit edit
+            log.info("Committing edit...");
+            lease.checkHeld();
+            try (PublishMetrics.Stage stage = metrics.stage("commit")) {
+                executor.executeNonIdempotent("edits.commit", publisher.edits().commit(packageName, editId));
+            }
+            log.info("Success. Committed Edit id: [{}]. [{}] releases created.", editId, plan.getTracks().size());
+            TrackIndex.forArguments(arguments).record(packageName, tracks);
+
+            // Success
+        } catch (Exception e) {
+            // error message
+            String msg = "Operation Failed: " + e.getMessage();
+
+            // abort
+            log.error("Operation failed due to an error!, Deleting edit...");
+            try {
+                executor.execute("edits.delete", publisher.edits().delete(packageName, editId));
+            } catch (Exception e2) {
+                // log abort error as well
+                msg += "\nFailed to delete edit: " + e2.getMessage();
+            }
+
+            // forward error with message
+            throw new IOException(msg, e);
+        }
+    }
+
+    private String status(ReleasePlan.TrackPlan trackPlan) {
+        return trackPlan.getStatus() != null ? trackPlan.getStatus()
+                : arguments.getStatus() != null ? arguments.getStatus() : "completed";
+    }
+
+    /**
+     * @param existing the version codes of the bundles and apks of the edit by SHA-256, listed on first use
+     * @return the version code of the artifact if Play already has it, otherwise null
+     */
+    private Long existing(PublishMetrics metrics, AndroidPublisher publisher, String packageName, String editId, Path artifact,
+                          ArtifactInfo info, Map<String, Map<String, Long>> existing) throws IOException {
+        String collection = artifact.getFileName().toString().toLowerCase().endsWith(".aab") ? "bundles" : "apks";
+        Long existingVersionCode;
+        try (PublishMetrics.Stage stage = metrics.stage("existing")) {
+            Map<String, Long> versionCodes = existing.get(collection);
+            if (versionCodes == null) {
+                versionCodes = "bundles".equals(collection) ? ExistingArtifacts.bundles(publisher, executor, packageName, editId)
+                        : ExistingArtifacts.apks(publisher, executor, packageName, editId);
+                existing.put(collection, versionCodes);
+            }
+            existingVersionCode = versionCodes.get(info.getSha256().toLowerCase(Locale.ROOT));
+        }
+        if (existingVersionCode != null) {
+            log.info("[{}] already uploaded with Version Code [{}], skipping upload", artifact, existingVersionCode);
+        }
+        return existingVersionCode;
+    }
+
+    private long upload(PublishMetrics metrics, AndroidPublisher publisher, String packageName, String editId, Path artifact,
+                        ArtifactInfo info) throws IOException {
+        String fileName = artifact.getFileName().toString().toLowerCase();
+        if (fileName.endsWith(".aab")) {
+            log.info("Uploading AAB file [{}]...", artifact);
+            ChannelContent content = new ChannelContent(MIME_TYPE_AAB, artifact, BandwidthLimiter.forArguments(arguments));
+            Bundle bundle;
+            try (PublishMetrics.Stage stage = metrics.stage("upload")) {
+                bundle = executor.executeUpload("bundles.upload", () -> {
+                    AndroidPublisher.Edits.Bundles.Upload upload = publisher.edits().bundles().upload(packageName, editId, content);
+                    upload.getMediaHttpUploader().setProgressListener(
+                            uploader -> metrics.progressChanged(uploader.getNumBytesUploaded(), info.getSize()));
+                    return upload;
+                });
+            }
+            content.verifySha256(info.getSha256(), "the inspected file");
+            content.verifySha256(bundle.getSha256(), "Play");
+            log.info("AAB File uploaded with Version Code: [{}]", bundle.getVersionCode());
+            return bundle.getVersionCode();
+        } else if (fileName.endsWith(".apk")) {
+            log.info("Uploading apk file [{}]...", artifact);
+            ChannelContent content = new ChannelContent(MIME_TYPE_APK, artifact, BandwidthLimiter.forArguments(arguments));
+            Apk apk;
+            try (PublishMetrics.Stage stage = metrics.stage("upload")) {
+                apk = executor.executeUpload("apks.upload", () -> {
+                    AndroidPublisher.Edits.Apks.Upload upload = publisher.edits().apks().upload(packageName, editId, content);
+                    upload.getMediaHttpUploader().setProgressListener(
+                            uploader -> metrics.progressChanged(uploader.getNumBytesUploaded(), info.getSize()));
+                    return upload;
+                });
+            }
+            content.verifySha256(info.getSha256(), "the inspected file");
+            content.verifySha256(apk.getBinary() == null ? null : apk.getBinary().getSha256(), "Play");
+            log.info("Apk uploaded. Version Code: [{}]", apk.getVersionCode());
+            return apk.getVersionCode();
+        }
+        throw new IllegalArgumentException("File Type is not supported for: " + artifact);
+    }
+
+    private List<LocalizedText> releaseNotes(ReleasePlan.TrackPlan trackPlan) throws IOException {
+        String notes = trackPlan.getNotes();
+        if (notes == null && arguments.getNotesPath() != null) {
+            notes = new String(Files.readAllBytes(FileSystems.getDefault().getPath(arguments.getNotesPath()).normalize()));
+        } else if (notes == null) {
+            notes = arguments.getNotes();
+        }
+        List<LocalizedText> releaseNotes = new ArrayList<>();
+        if (notes != null) {
+            releaseNotes.add(new LocalizedText().setLanguage(Locale.US.toString()).setText(notes));
+        }
+        return releaseNotes;
+    }
+}
@@ -0,0 +1,370 @@
+package app.release.publisher.android;
+
+import com.google.api.client.http.EmptyContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.InputStreamContent;
+import com.google.api.client.util.ByteStreams;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+
+/**
+ * Uploads a file to a Play edit using the resumable upload protocol, in chunks of a configurable size.
+ * <p>
+ * The session URI and the last offset acknowledged by the server are saved to an {@link UploadState} file after
+ * every chunk. A failed chunk is retried from the offset the server reports, and a rerun with the same state file
+ * continues the upload in the same edit instead of starting over from byte zero. Retries back off, are throttled and
+ * are limited to {@code -maxRetries} by the {@link PlayRequestExecutor} of the account. A client error, e.g. a
+ * rejected file, can not be resumed: the state file is deleted and the upload is not {@link #isInterrupted}.
+ * <p>
+ * The bytes are hashed with SHA-256 as the chunks are sent, a chunk counts once the server acknowledged all of it.
+ * Bytes sent by an earlier run, or only partly acknowledged, are hashed from the file instead. {@link #verifySha256}
+ * then checks the hash against the inspected file and the one Play reports, like {@link ChannelContent} does.
+ */
+@Slf4j
+public class ResumableUpload {
+
+    /**
+     * Chunks must be a multiple of 256 KiB, except for the last one.
+     */
+    private static final int CHUNK_GRANULARITY = 256 * 1024;
+    private static final int HTTP_RESUME_INCOMPLETE = 308;
+
+    private final AndroidPublisher publisher;
+    private final PlayRequestExecutor executor;
+    private final Path file;
+    private final String mimeType;
+    private final int chunkSize;
+    private final Path stateFile;
+
+    private UploadProgressListener progressListener = (bytesUploaded, totalBytes) -> {
+    };
+    private BandwidthLimiter bandwidthLimiter = BandwidthLimiter.UNLIMITED;
+    private UploadState state;
+    private boolean started;
+    private boolean complete;
+    private boolean failed;
+    private MessageDigest digest = ArtifactInspector.sha256();
+    private long hashedOffset;
+    private MessageDigest chunkDigest;
+    private long chunkEnd;
+    private String sha256;
+
+    /**
+     * @param chunkSizeMb size of one chunk in MiB
+     * @param stateFile   where to keep the upload progress
+     */
+    public ResumableUpload(AndroidPublisher publisher, PlayRequestExecutor executor, Path file, String mimeType, int chunkSizeMb, Path stateFile) {
+        if (chunkSizeMb < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1 MB, got: " + chunkSizeMb);
+        }
+        this.publisher = publisher;
+        this.executor = executor;
+        this.file = file;
+        this.mimeType = mimeType;
+        this.chunkSize = chunkSizeMb * 4 * CHUNK_GRANULARITY;
+        this.stateFile = stateFile;
+    }
+
+    public void setProgressListener(UploadProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    /**
+     * Look for an interrupted upload of the same file whose edit is still open.
+     *
+     * @return the id of the edit to continue with, or null if a new edit has to be created
+     */
+    public String resumableEditId(String packageName) throws IOException {
+        state = UploadState.load(stateFile, file, packageName);
+        if (state == null) {
+            return null;
+        }
+        try {
+            executor.execute("edits.get", publisher.edits().get(packageName, state.getEditId()));
+        } catch (HttpResponseException e) {
+            log.info("Edit [{}] of interrupted upload is gone ({}), starting over", state.getEditId(), e.getStatusCode());
+            state.delete();
+            state = null;
+            return null;
+        }
+        log.info("Resuming upload into edit [{}] from offset [{}] of [{}]", state.getEditId(), state.getOffset(), state.getSize());
+        return state.getEditId();
+    }
+
+    /**
+     * Upload the file into the edit.
+     *
+     * @param collection    the edit collection to upload to, e.g. "bundles" or "apks"
+     * @param responseClass type of the resource returned once the upload is complete
+     * @return the uploaded resource
+     * @throws IOException when the upload could not be completed, the state file is kept to resume later unless the
+     *                     server rejected the upload
+     */
+    public <T> T upload(String packageName, String editId, String collection, Class<T> responseClass) throws IOException {
+        started = true;
+        if (state == null || !editId.equals(state.getEditId())) {
+            state = UploadState.create(stateFile, file, packageName, editId);
+        }
+        if (state.getSessionUri() == null) {
+            GenericUrl uploadUrl = new GenericUrl(publisher.getRootUrl() + "upload/" + publisher.getServicePath()
+                    + packageName + "/edits/" + editId + "/" + collection);
+            try {
+                state.setSessionUri(startSession(uploadUrl));
+            } catch (IOException e) {
+                throw failed(e);
+            }
+            state.setOffset(0);
+            state.save();
+        }
+
+        long size = state.getSize();
+        progressListener.progressChanged(state.getOffset(), size);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // a resumed session may have persisted more than the state file knows, ask the server first
+            boolean queryStatus = state.getOffset() > 0;
+            int attempt = 1;
+            while (true) {
+                long offset = state.getOffset();
+                long start = System.nanoTime();
+                HttpResponse response;
+                try {
+                    response = queryStatus || offset >= size ? queryStatus(size)
+                            : sendChunk(channel, offset, Math.min(chunkSize, size - offset), size);
+                } catch (IOException e) {
+                    // the chunk may have been read only partly, the bytes the server has are hashed from the file
+                    chunkDigest = null;
+                    if (!isRetryable(e)) {
+                        failed(e);
+                        throw new IOException("Upload rejected at offset " + offset + " of " + size + ": " + e.getMessage(), e);
+                    }
+                    if (attempt >= executor.getMaxAttempts()) {
+                        throw new IOException("Upload interrupted at offset " + offset + " of " + size
+                                + " after " + attempt + " attempts, rerun to resume", e);
+                    }
+                    log.warn("Chunk at offset [{}] failed (attempt {}/{}): {}", offset, attempt, executor.getMaxAttempts(), e.getMessage());
+                    executor.backoff(attempt, e);
+                    attempt++;
+                    queryStatus = true;
+                    continue;
+                }
+                boolean statusQueried = queryStatus || offset >= size;
+                queryStatus = false;
+                if (!statusQueried) {
+                    // only a chunk that went through ends a run of failed attempts
+                    attempt = 1;
+                }
+                try {
+                    if (response.getStatusCode() == HTTP_RESUME_INCOMPLETE) {
+                        long acknowledged = acknowledgedOffset(response);
+                        if (statusQueried) {
+                            log.info("Server has persisted [{}] of [{}] bytes", acknowledged, size);
+                        } else {
+                            logThroughput(offset, acknowledged, size, start);
+                        }
+                        acknowledge(acknowledged);
+                        state.setOffset(acknowledged);
+                        state.save();
+                        progressListener.progressChanged(acknowledged, size);
+                        continue;
+                    }
+                    if (statusQueried) {
+                        // the last chunk arrived but its response was lost, the status query returns the resource
+                        log.info("Server has received all [{}] bytes", size);
+                    } else {
+                        logThroughput(offset, size, size, start);
+                    }
+                    progressListener.progressChanged(size, size);
+                    acknowledge(size);
+                    hash(channel, size);
+                    sha256 = ArtifactInspector.hex(digest.digest());
+                    T result = response.parseAs(responseClass);
+                    complete = true;
+                    state.delete();
+                    return result;
+                } finally {
+                    response.disconnect();
+                }
+            }
+        }
+    }
+
+    /**
+     * Check the bytes sent against an expected hash.
+     *
+     * @param expected expected SHA-256, only the completion of the upload is checked if null
+     * @param source   where the expected hash comes from, for the error message
+     * @throws IOException if the upload is not complete or the hashes differ
+     */
+    public void verifySha256(String expected, String source) throws IOException {
+        ChannelContent.verifySha256(file, sha256, expected, source);
+    }
+
+    /**
+     * @return true if the upload was started but the server has not received the whole file, and a rerun can resume it
+     */
+    public boolean isInterrupted() {
+        return started && !complete && !failed;
+    }
+
+    /**
+     * Give up the upload if the server rejected it, a rerun would fail the same way.
+     *
+     * @return the error to throw
+     */
+    private IOException failed(IOException e) throws IOException {
+        if (!isRetryable(e)) {
+            failed = true;
+            state.delete();
+        }
+        return e;
+    }
+
+    private String startSession(GenericUrl uploadUrl) throws IOException {
+        uploadUrl.put("uploadType", "resumable");
+        HttpRequest request = publisher.getRequestFactory().buildPostRequest(uploadUrl, new EmptyContent());
+        request.getHeaders().set("X-Upload-Content-Type", mimeType);
+        request.getHeaders().set("X-Upload-Content-Length", state.getSize());
+        executor.acquire();
+        HttpResponse response = request.execute();
+        try {
+            String location = response.getHeaders().getLocation();
+            if (location == null) {
+                throw new IOException("Upload session was not created, no Location header returned");
+            }
+            log.info("Upload session created for [{}] bytes in chunks of [{}] bytes", state.getSize(), chunkSize);
+            return location;
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    private HttpResponse sendChunk(FileChannel channel, long offset, long length, long size) throws IOException {
+        // the chunk is hashed on top of the bytes before it, which were sent by an earlier run if this one resumed
+        hash(channel, offset);
+        chunkDigest = clone(digest);
+        chunkEnd = offset + length;
+        channel.position(offset);
+        InputStreamContent content = new InputStreamContent(mimeType, bandwidthLimiter.limit(
+                new DigestInputStream(ByteStreams.limit(Channels.newInputStream(channel), length), chunkDigest)));
+        content.setLength(length).setCloseInputStream(false);
+        HttpRequest request = sessionRequest(content);
+        request.getHeaders().setContentRange("bytes " + offset + "-" + (offset + length - 1) + "/" + size);
+        return checkStatus(request.execute());
+    }
+
+    /**
+     * Take the hash of the chunk sent last if the server acknowledged all of it. Otherwise it is dropped and the
+     * acknowledged bytes are hashed from the file before the next chunk.
+     */
+    private void acknowledge(long acknowledged) {
+        if (chunkDigest != null && acknowledged == chunkEnd) {
+            digest = chunkDigest;
+            hashedOffset = chunkEnd;
+        }
+        chunkDigest = null;
+    }
+
+    /**
+     * Hash the bytes of the file up to the given offset that are not hashed yet.
+     */
+    private void hash(FileChannel channel, long offset) throws IOException {
+        if (hashedOffset > offset) {
+            // the server has fewer bytes than were hashed, e.g. after a lost chunk of a restarted session
+            digest = ArtifactInspector.sha256();
+            hashedOffset = 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_GRANULARITY);
+        while (hashedOffset < offset) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), offset - hashedOffset));
+            int read = channel.read(buffer, hashedOffset);
+            if (read < 0) {
+                throw new IOException(file + " is shorter than the [" + offset + "] bytes uploaded, was the file changed during the upload?");
+            }
+            digest.update(buffer.array(), 0, read);
+            hashedOffset += read;
+        }
+    }
+
+    private static MessageDigest clone(MessageDigest digest) throws IOException {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IOException("SHA-256 digest cannot be copied", e);
+        }
+    }
+
+    /**
+     * Ask the server how many bytes it has persisted, answered with 308 and the range received so far, or with the
+     * uploaded resource if it has the whole file.
+     */
+    private HttpResponse queryStatus(long size) throws IOException {
+        HttpRequest request = sessionRequest(new EmptyContent());
+        request.getHeaders().setContentRange("bytes */" + size);
+        return checkStatus(request.execute());
+    }
+
+    /**
+     * A chunk is retried from the offset the server reports after network errors, throttling and server errors.
+     * Other client errors, e.g. an expired session, fail the same way again.
+     */
+    static boolean isRetryable(IOException e) {
+        return !(e instanceof HttpResponseException) || PlayRequestExecutor.isRetryable(e, true);
+    }
+
+    private HttpRequest sessionRequest(HttpContent content) throws IOException {
+        HttpRequest request = publisher.getRequestFactory().buildPutRequest(new GenericUrl(state.getSessionUri()), content);
+        request.setParser(publisher.getObjectParser());
+        request.setThrowExceptionOnExecuteError(false);
+        request.setFollowRedirects(false);
+        return request;
+    }
+
+    private HttpResponse checkStatus(HttpResponse response) throws IOException {
+        int status = response.getStatusCode();
+        if (response.isSuccessStatusCode() || status == HTTP_RESUME_INCOMPLETE) {
+            return response;
+        }
+        HttpResponseException error = new HttpResponseException(response);
+        response.disconnect();
+        if (status == 404 || status == 410) {
+            // the session expired, a new one has to be started on the next run
+            state.clearSession();
+            state.save();
+        }
+        throw error;
+    }
+
+    /**
+     * Parse the "Range: bytes=0-N" header of a 308 response, which is absent when nothing was persisted yet.
+     */
+    private static long acknowledgedOffset(HttpResponse response) {
+        String range = response.getHeaders().getRange();
+        if (range == null) {
+            return 0;
+        }
+        return Long.parseLong(range.substring(range.indexOf('-') + 1)) + 1;
+    }
+
+    private static void logThroughput(long from, long to, long size, long startNanos) {
+        double seconds = Math.max(System.nanoTime() - startNanos, 1) / 1e9;
+        log.info("Uploaded bytes [{}-{}] of [{}] ({}%) at [{}] KB/s", from, to, size,
+                size == 0 ? 100 : to * 100 / size, Math.round((to - from) / 1024.0 / seconds));
+    }
+}
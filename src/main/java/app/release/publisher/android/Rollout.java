@@ -0,0 +1,236 @@
+package app.release.publisher.android;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Staged rollout of the release on one track of one app: a ramp of user fractions, each held for a dwell time, and
+ * how far the ramp got. Persisted as a small properties file per package and track in the rollout directory of the
+ * state directory, so the {@link RolloutScheduler} can pick it up from any process.
+ */
+public class Rollout {
+
+    public enum Status {
+        ACTIVE, HALTED, COMPLETED, FAILED
+    }
+
+    /**
+     * A change requested by a command, applied by the scheduler on its next run.
+     */
+    public enum Pending {
+        NONE, HALT, RESUME
+    }
+
+    private static final String KEY_PACKAGE_NAME = "packageName";
+    private static final String KEY_TRACK = "track";
+    private static final String KEY_FRACTIONS = "fractions";
+    private static final String KEY_DWELL_MILLIS = "dwellMillis";
+    private static final String KEY_STEP = "step";
+    private static final String KEY_NEXT_AT = "nextAt";
+    private static final String KEY_STATUS = "status";
+    private static final String KEY_PENDING = "pending";
+    private static final String KEY_LAST_ERROR = "lastError";
+
+    private final Path stateFile;
+    private final Properties properties = new Properties();
+
+    private Rollout(Path stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * Create a rollout starting with the first step of the ramp, due immediately.
+     *
+     * @param ramp steps like {@code 0.01:24h,0.05:24h,0.2:48h,1}, a fraction or percentage and how long to hold it
+     *             in minutes (m), hours (h) or days (d)
+     */
+    public static Rollout create(Path rolloutDir, String packageName, String track, String ramp) {
+        List<String> fractions = new ArrayList<>();
+        List<String> dwellMillis = new ArrayList<>();
+        double previous = 0;
+        for (String step : ramp.split(",")) {
+            String[] parts = step.trim().split(":");
+            String fraction = parts[0].trim();
+            double value = fraction.endsWith("%") ? Double.parseDouble(fraction.substring(0, fraction.length() - 1)) / 100
+                    : Double.parseDouble(fraction);
+            if (value <= previous || value > 1) {
+                throw new IllegalArgumentException("Ramp fractions must increase and be at most 1: " + ramp);
+            }
+            previous = value;
+            fractions.add(Double.toString(value));
+            dwellMillis.add(Long.toString(parts.length > 1 ? duration(parts[1].trim()) : 0));
+        }
+        Rollout rollout = new Rollout(rolloutDir.resolve(fileName(packageName, track)));
+        rollout.properties.setProperty(KEY_PACKAGE_NAME, packageName);
+        rollout.properties.setProperty(KEY_TRACK, track);
+        rollout.properties.setProperty(KEY_FRACTIONS, String.join(",", fractions));
+        rollout.properties.setProperty(KEY_DWELL_MILLIS, String.join(",", dwellMillis));
+        rollout.properties.setProperty(KEY_STEP, "-1");
+        rollout.properties.setProperty(KEY_NEXT_AT, Long.toString(System.currentTimeMillis()));
+        rollout.setStatus(Status.ACTIVE);
+        rollout.setPending(Pending.NONE);
+        return rollout;
+    }
+
+    /**
+     * @return the rollout of the given package and track, or null if there is none
+     */
+    public static Rollout load(Path rolloutDir, String packageName, String track) throws IOException {
+        Path stateFile = rolloutDir.resolve(fileName(packageName, track));
+        return Files.isRegularFile(stateFile) ? load(stateFile) : null;
+    }
+
+    /**
+     * @return all rollouts of the directory
+     */
+    public static List<Rollout> list(Path rolloutDir) throws IOException {
+        List<Rollout> rollouts = new ArrayList<>();
+        if (Files.isDirectory(rolloutDir)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(rolloutDir, "*.properties")) {
+                for (Path file : files) {
+                    rollouts.add(load(file));
+                }
+            }
+        }
+        return rollouts;
+    }
+
+    private static Rollout load(Path stateFile) throws IOException {
+        Rollout rollout = new Rollout(stateFile);
+        try (InputStream in = Files.newInputStream(stateFile)) {
+            rollout.properties.load(in);
+        }
+        return rollout;
+    }
+
+    private static String fileName(String packageName, String track) {
+        return (packageName + "@" + track).replaceAll("[^A-Za-z0-9._@-]", "_") + ".properties";
+    }
+
+    private static long duration(String value) {
+        long amount = Long.parseLong(value.substring(0, value.length() - 1));
+        switch (value.charAt(value.length() - 1)) {
+            case 'm':
+                return TimeUnit.MINUTES.toMillis(amount);
+            case 'h':
+                return TimeUnit.HOURS.toMillis(amount);
+            case 'd':
+                return TimeUnit.DAYS.toMillis(amount);
+            default:
+                throw new IllegalArgumentException("Dwell time must end with m, h or d: " + value);
+        }
+    }
+
+    public String getPackageName() {
+        return properties.getProperty(KEY_PACKAGE_NAME);
+    }
+
+    public String getTrack() {
+        return properties.getProperty(KEY_TRACK);
+    }
+
+    public int getSteps() {
+        return properties.getProperty(KEY_FRACTIONS).split(",").length;
+    }
+
+    /**
+     * @return the index of the step last applied, -1 before the first one
+     */
+    public int getStep() {
+        return Integer.parseInt(properties.getProperty(KEY_STEP));
+    }
+
+    public double getFraction(int step) {
+        return Double.parseDouble(properties.getProperty(KEY_FRACTIONS).split(",")[step]);
+    }
+
+    public long getDwellMillis(int step) {
+        return Long.parseLong(properties.getProperty(KEY_DWELL_MILLIS).split(",")[step]);
+    }
+
+    public long getNextAt() {
+        return Long.parseLong(properties.getProperty(KEY_NEXT_AT));
+    }
+
+    public Status getStatus() {
+        return Status.valueOf(properties.getProperty(KEY_STATUS));
+    }
+
+    public void setStatus(Status status) {
+        properties.setProperty(KEY_STATUS, status.name());
+    }
+
+    public Pending getPending() {
+        return Pending.valueOf(properties.getProperty(KEY_PENDING, Pending.NONE.name()));
+    }
+
+    public void setPending(Pending pending) {
+        properties.setProperty(KEY_PENDING, pending.name());
+    }
+
+    public String getLastError() {
+        return properties.getProperty(KEY_LAST_ERROR);
+    }
+
+    public void setLastError(String lastError) {
+        if (lastError == null) {
+            properties.remove(KEY_LAST_ERROR);
+        } else {
+            properties.setProperty(KEY_LAST_ERROR, lastError);
+        }
+    }
+
+    /**
+     * @return whether the scheduler has something to apply at the given time
+     */
+    public boolean isDue(long now) {
+        return getPending() != Pending.NONE || getStatus() == Status.ACTIVE && getNextAt() <= now;
+    }
+
+    /**
+     * Record that the given step was applied, the next one is due after its dwell time.
+     */
+    public void stepApplied(int step, long now) {
+        properties.setProperty(KEY_STEP, Integer.toString(step));
+        properties.setProperty(KEY_NEXT_AT, Long.toString(now + getDwellMillis(step)));
+        if (step == getSteps() - 1) {
+            setStatus(Status.COMPLETED);
+        }
+    }
+
+    /**
+     * Restart the dwell time of the current step, after a resume.
+     */
+    public void restartDwell(long now) {
+        properties.setProperty(KEY_NEXT_AT, Long.toString(now + (getStep() < 0 ? 0 : getDwellMillis(getStep()))));
+    }
+
+    /**
+     * Write the rollout atomically, so a crash never leaves a half written file behind.
+     */
+    public void save() throws IOException {
+        Files.createDirectories(stateFile.getParent());
+        Path tmp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            properties.store(out, "app-release-manager staged rollout");
+        }
+        Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public String toString() {
+        String fraction = getStep() < 0 ? "-" : Math.round(getFraction(getStep()) * 1000) / 10.0 + "%";
+        return getPackageName() + " [" + getTrack() + "] " + getStatus() + " at " + fraction + " (step " + (getStep() + 1)
+                + "/" + getSteps() + ")" + (getPending() != Pending.NONE ? " pending " + getPending() : "")
+                + (getLastError() != null ? ", last error: " + getLastError() : "");
+    }
+}
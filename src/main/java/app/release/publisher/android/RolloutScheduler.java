@@ -0,0 +1,293 @@
+package app.release.publisher.android;
+
+import app.release.model.CommandLineArguments;
+import app.release.publisher.Publisher;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.AppEdit;
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drives staged rollouts of many apps from one process.
+ * <p>
+ * Commands given with {@code -rollout}:
+ * <ul>
+ * <li>{@code schedule} stores a ramp for {@code -packageName} and {@code -track}, e.g. {@code -ramp 0.01:24h,0.05:24h,0.2:48h,1}</li>
+ * <li>{@code halt} and {@code resume} halt or resume the rollout of a package and track</li>
+ * <li>{@code status} lists all rollouts</li>
+ * <li>{@code tick} applies all due changes once, {@code run} keeps doing so whenever the next change is due</li>
+ * </ul>
+ * Due changes of one package are applied in a single edit: the user fraction of the in progress release of each track
+ * is raised to the next step, or the release is completed at 100%. Halting sets the release status to halted on Play.
+ */
+@Slf4j
+public class RolloutScheduler implements Publisher {
+
+    private static final long POLL_MILLIS = 60000;
+
+    private final CommandLineArguments arguments;
+    private final AndroidPublisherClientPool clientPool;
+    private final PlayRequestExecutor executor;
+    private final Path rolloutDir;
+
+    public RolloutScheduler(CommandLineArguments arguments, AndroidPublisherClientPool clientPool) {
+        this.arguments = arguments;
+        this.clientPool = clientPool;
+        this.executor = PlayRequestExecutor.forArguments(arguments);
+        this.rolloutDir = FileSystems.getDefault().getPath(arguments.getStateDir()).resolve("rollouts");
+    }
+
+    @Override
+    public void publish() throws Exception {
+        switch (arguments.getRollout()) {
+            case "schedule":
+                if (arguments.getRamp() == null) {
+                    throw new IllegalArgumentException("Scheduling a rollout needs -ramp");
+                }
+                Rollout rollout = Rollout.create(rolloutDir, requirePackageName(), requireTrack(), arguments.getRamp());
+                rollout.save();
+                log.info("Scheduled: {}", rollout);
+                break;
+            case "halt":
+                request(Rollout.Pending.HALT);
+                break;
+            case "resume":
+                request(Rollout.Pending.RESUME);
+                break;
+            case "status":
+                for (Rollout existing : Rollout.list(rolloutDir)) {
+                    log.info("{}", existing);
+                }
+                break;
+            case "tick":
+                tick();
+                break;
+            case "run":
+                run();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown rollout command: " + arguments.getRollout()
+                        + ", expected schedule, halt, resume, status, tick or run");
+        }
+    }
+
+    private void request(Rollout.Pending pending) throws IOException {
+        Rollout rollout = Rollout.load(rolloutDir, requirePackageName(), requireTrack());
+        if (rollout == null) {
+            throw new IllegalArgumentException("No rollout scheduled for " + arguments.getPackageName() + " [" + arguments.getTrackName() + "]");
+        }
+        if (rollout.getStatus() == Rollout.Status.COMPLETED || rollout.getStatus() == Rollout.Status.FAILED) {
+            throw new IllegalArgumentException("Rollout is over: " + rollout);
+        }
+        rollout.setPending(pending);
+        rollout.save();
+        log.info("Requested {}: {}", pending, rollout);
+    }
+
+    /**
+     * Apply due changes whenever they are due, polling for new schedules and commands meanwhile.
+     */
+    private void run() throws Exception {
+        log.info("Rollout scheduler started for [{}]", rolloutDir);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                tick();
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                // a failed tick must not stop the scheduler, the changes are retried on the next one
+                log.error("Rollout tick failed: {}", e.getMessage());
+            }
+            long now = System.currentTimeMillis();
+            long next = now + POLL_MILLIS;
+            for (Rollout rollout : Rollout.list(rolloutDir)) {
+                if (rollout.getStatus() == Rollout.Status.ACTIVE) {
+                    next = Math.min(next, rollout.getNextAt());
+                }
+            }
+            Thread.sleep(Math.max(1000, next - now));
+        }
+    }
+
+    /**
+     * Apply all due changes, one edit per package.
+     */
+    private void tick() throws Exception {
+        long now = System.currentTimeMillis();
+        Map<String, List<Rollout>> dueByPackage = new LinkedHashMap<>();
+        for (Rollout rollout : Rollout.list(rolloutDir)) {
+            if (rollout.isDue(now)) {
+                dueByPackage.computeIfAbsent(rollout.getPackageName(), k -> new ArrayList<>()).add(rollout);
+            }
+        }
+        if (dueByPackage.isEmpty()) {
+            return;
+        }
+        log.info("Applying due rollout changes of [{}] packages...", dueByPackage.size());
+        List<PublishPipeline.Step<Boolean>> steps = new ArrayList<>();
+        for (Map.Entry<String, List<Rollout>> due : dueByPackage.entrySet()) {
+            steps.add(() -> {
+                try (EditLeases.Lease lease = EditLeases.forArguments(arguments).acquire(due.getKey())) {
+                    return apply(due.getKey(), due.getValue(), lease);
+                } catch (IOException e) {
+                    log.error("Rollout of [{}] failed: {}", due.getKey(), e.getMessage());
+                    return false;
+                }
+            });
+        }
+        int failed = 0;
+        for (boolean applied : PublishPipeline.all(steps, arguments.getParallelism())) {
+            failed += applied ? 0 : 1;
+        }
+        log.info("Rollout changes applied, [{}] packages failed", failed);
+    }
+
+    /**
+     * @return whether the changes were committed, a failed package is retried on the next tick
+     */
+    private boolean apply(String packageName, List<Rollout> rollouts, EditLeases.Lease lease) throws Exception {
+        AndroidPublisher publisher = clientPool.get(arguments, packageName);
+        AppEdit edit;
+        try {
+            edit = executor.execute("edits.insert", publisher.edits().insert(packageName, null));
+        } catch (IOException e) {
+            log.error("Rollout of [{}] failed, could not create edit: {}", packageName, e.getMessage());
+            return false;
+        }
+        final String editId = edit.getId();
+        long now = System.currentTimeMillis();
+        List<Rollout> changed = new ArrayList<>();
+        List<Track> changedTracks = new ArrayList<>();
+        List<Rollout.Pending> processed = new ArrayList<>();
+        try {
+            for (Rollout rollout : rollouts) {
+                Track track = executor.execute("tracks.get", publisher.edits().tracks().get(packageName, editId, rollout.getTrack()));
+                TrackRelease release = stagedRelease(track, rollout.getStep() < 0);
+                if (release == null) {
+                    log.error("No release to roll out on [{}] [{}], stopping its rollout", packageName, rollout.getTrack());
+                    rollout.setStatus(Rollout.Status.FAILED);
+                    rollout.setLastError("No in progress or halted release on the track");
+                    rollout.setPending(Rollout.Pending.NONE);
+                    rollout.save();
+                    continue;
+                }
+                processed.add(rollout.getPending());
+                if (rollout.getPending() == Rollout.Pending.HALT) {
+                    release.setStatus("halted");
+                    rollout.setStatus(Rollout.Status.HALTED);
+                    log.info("Halting [{}] [{}]", packageName, rollout.getTrack());
+                } else if (rollout.getPending() == Rollout.Pending.RESUME) {
+                    release.setStatus("inProgress");
+                    rollout.setStatus(Rollout.Status.ACTIVE);
+                    rollout.restartDwell(now);
+                    log.info("Resuming [{}] [{}]", packageName, rollout.getTrack());
+                } else {
+                    int step = rollout.getStep() + 1;
+                    double fraction = rollout.getFraction(step);
+                    if (fraction >= 1) {
+                        release.setStatus("completed").setUserFraction(null);
+                        dropSuperseded(track, release);
+                    } else {
+                        release.setStatus("inProgress").setUserFraction(fraction);
+                    }
+                    rollout.stepApplied(step, now);
+                    log.info("Rolling out [{}] [{}] to [{}%]", packageName, rollout.getTrack(), fraction * 100);
+                }
+                rollout.setPending(Rollout.Pending.NONE);
+                rollout.setLastError(null);
+                executor.execute("tracks.update", publisher.edits().tracks().update(packageName, editId, rollout.getTrack(), track));
+                changed.add(rollout);
+                changedTracks.add(track);
+            }
+            if (changed.isEmpty()) {
+                executor.execute("edits.delete", publisher.edits().delete(packageName, editId));
+                return true;
+            }
+            lease.checkHeld();
+            executor.executeNonIdempotent("edits.commit", publisher.edits().commit(packageName, editId));
+            log.info("Committed Edit id: [{}], [{}] rollouts of [{}] changed", editId, changed.size(), packageName);
+            TrackIndex.forArguments(arguments).record(packageName, changedTracks);
+        } catch (Exception e) {
+            log.error("Rollout of [{}] failed, deleting edit: {}", packageName, e.getMessage());
+            try {
+                executor.execute("edits.delete", publisher.edits().delete(packageName, editId));
+            } catch (Exception e2) {
+                log.error("Failed to delete edit: {}", e2.getMessage());
+            }
+            for (Rollout rollout : rollouts) {
+                Rollout latest = Rollout.load(rolloutDir, packageName, rollout.getTrack());
+                if (latest != null && latest.getStatus() != Rollout.Status.FAILED) {
+                    latest.setLastError(e.getMessage());
+                    latest.save();
+                }
+            }
+            return false;
+        }
+
+        // keep a halt or resume requested while the edit was open
+        for (int i = 0; i < changed.size(); i++) {
+            Rollout rollout = changed.get(i);
+            Rollout latest = Rollout.load(rolloutDir, packageName, rollout.getTrack());
+            if (latest != null && latest.getPending() != processed.get(i)) {
+                rollout.setPending(latest.getPending());
+            }
+            rollout.save();
+        }
+        return true;
+    }
+
+    /**
+     * Remove the completed releases the completed release replaces, Play keeps a single completed release per track.
+     */
+    private static void dropSuperseded(Track track, TrackRelease completed) {
+        List<TrackRelease> releases = new ArrayList<>();
+        for (TrackRelease release : track.getReleases()) {
+            if (release == completed || !"completed".equals(release.getStatus())) {
+                releases.add(release);
+            }
+        }
+        track.setReleases(releases);
+    }
+
+    /**
+     * @param first whether the first step is due, which may also start the rollout of a draft release
+     * @return the release of the track a staged rollout applies to
+     */
+    private static TrackRelease stagedRelease(Track track, boolean first) {
+        TrackRelease draft = null;
+        if (track.getReleases() != null) {
+            for (TrackRelease release : track.getReleases()) {
+                if ("inProgress".equals(release.getStatus()) || "halted".equals(release.getStatus())) {
+                    return release;
+                }
+                if (first && draft == null && "draft".equals(release.getStatus())) {
+                    draft = release;
+                }
+            }
+        }
+        return draft;
+    }
+
+    private String requirePackageName() {
+        if (arguments.getPackageName() == null) {
+            throw new IllegalArgumentException("Rollout command needs -packageName");
+        }
+        return arguments.getPackageName();
+    }
+
+    private String requireTrack() {
+        if (arguments.getTrackName() == null) {
+            throw new IllegalArgumentException("Rollout command needs -track");
+        }
+        return arguments.getTrackName();
+    }
+}
@@ -0,0 +1,346 @@
+package app.release.publisher.android;
+
+import app.release.model.CommandLineArguments;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.Key;
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local index of the releases on the tracks of every app this state directory published to or refreshed, so the fleet
+ * view can be answered without opening an edit per app.
+ * <p>
+ * The index is an append-only file of JSON lines in the state directory. A line holds the tracks of one package,
+ * either all of them as listed by Play, replacing what was known, or the tracks a commit changed, whose releases are
+ * merged into the known ones as Play does. Appends of several
+ * processes are serialized by a lock file, and every process catches up with the lines appended since it last read the
+ * file. Once the file holds many more lines than packages it is rewritten with one line per package.
+ */
+@Slf4j
+@SuppressWarnings("try")
+public class TrackIndex {
+
+    private static final String INDEX_FILE = "track-index.jsonl";
+    private static final String LOCK_FILE = "track-index.lock";
+    private static final int COMPACT_MIN_LINES = 1000;
+    private static final JsonFactory JSON = JacksonFactory.getDefaultInstance();
+    private static final Map<Path, TrackIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final Path indexFile;
+    private final Path lockFile;
+    private final Map<String, PackageTracks> packages = new TreeMap<>();
+    private Object fileKey;
+    private long offset;
+    private int lines;
+
+    private TrackIndex(Path indexFile) {
+        this.indexFile = indexFile;
+        this.lockFile = indexFile.resolveSibling(LOCK_FILE);
+    }
+
+    /**
+     * @param stateDir directory holding the index file, created if missing
+     * @return the index of that directory, shared within this process
+     */
+    public static TrackIndex open(Path stateDir) {
+        Path indexFile = stateDir.toAbsolutePath().normalize().resolve(INDEX_FILE);
+        return INDEXES.computeIfAbsent(indexFile, TrackIndex::new);
+    }
+
+    /**
+     * @return the index of the {@code -stateDir} of the arguments
+     */
+    public static TrackIndex forArguments(CommandLineArguments arguments) {
+        return open(Paths.get(arguments.getStateDir()));
+    }
+
+    /**
+     * Record all tracks of a package as listed by Play, forgetting tracks not listed anymore. A failure to write is
+     * logged only, the index is a cache and a publish does not fail because of it.
+     */
+    public void recordAll(String packageName, List<Track> tracks) {
+        long now = System.currentTimeMillis();
+        append(new Entry(packageName, true, now, now, tracks));
+    }
+
+    /**
+     * Record the tracks a commit changed, keeping the other tracks of the package. The releases sent replace the known
+     * releases they supersede, the other releases of the track are kept.
+     */
+    public void record(String packageName, List<Track> tracks) {
+        append(new Entry(packageName, false, null, System.currentTimeMillis(), tracks));
+    }
+
+    /**
+     * @return the packages of the index with their tracks, including lines other processes appended meanwhile
+     */
+    public synchronized Map<String, PackageTracks> read() throws IOException {
+        catchUp();
+        Map<String, PackageTracks> copy = new TreeMap<>();
+        for (Map.Entry<String, PackageTracks> entry : packages.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy;
+    }
+
+    private synchronized void append(Entry entry) {
+        byte[] line = (entry.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            Files.createDirectories(indexFile.getParent());
+            try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = lockChannel.lock()) {
+                catchUp();
+                try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(line);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+                catchUp();
+                if (lines > COMPACT_MIN_LINES && lines > 4 * packages.size()) {
+                    compact();
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not update track index [{}]: {}", indexFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Apply the lines appended since the file was last read, or read it again if it was rewritten meanwhile.
+     */
+    private void catchUp() throws IOException {
+        if (!Files.isRegularFile(indexFile)) {
+            return;
+        }
+        Object key = Files.readAttributes(indexFile, BasicFileAttributes.class).fileKey();
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (!Objects.equals(key, fileKey) || size < offset) {
+                packages.clear();
+                offset = 0;
+                lines = 0;
+                fileKey = key;
+            }
+            if (size == offset) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) (size - offset));
+            while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+                // read up to the size seen
+            }
+            byte[] bytes = buffer.array();
+            int start = 0;
+            for (int i = 0; i < buffer.position(); i++) {
+                if (bytes[i] == '\n') {
+                    apply(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                    start = i + 1;
+                }
+            }
+            // a line still being written is read with the next catch up
+            offset += start;
+        }
+    }
+
+    private void apply(String line) {
+        if (line.trim().isEmpty()) {
+            return;
+        }
+        lines++;
+        Entry entry;
+        try {
+            entry = JSON.createJsonParser(line).parse(Entry.class);
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Skipping unreadable line of track index [{}]: {}", indexFile, e.getMessage());
+            return;
+        }
+        PackageTracks tracks = packages.computeIfAbsent(entry.packageName, PackageTracks::new);
+        if (Boolean.TRUE.equals(entry.full)) {
+            tracks.tracks.clear();
+            tracks.refreshedAt = entry.refreshedAt;
+        }
+        if (entry.tracks != null) {
+            for (Track track : entry.tracks) {
+                Track known = tracks.tracks.get(track.getTrack());
+                tracks.tracks.put(track.getTrack(), known == null ? track : merge(known, track));
+            }
+        }
+        tracks.updatedAt = entry.updatedAt;
+    }
+
+    private void compact() throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (PackageTracks tracks : packages.values()) {
+            Entry entry = new Entry(tracks.packageName, tracks.refreshedAt != null, tracks.refreshedAt, tracks.updatedAt,
+                    new ArrayList<>(tracks.tracks.values()));
+            content.write((entry.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Path tmp = Files.createTempFile(indexFile.getParent(), INDEX_FILE, ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            content.writeTo(out);
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Compacted track index [{}] from [{}] lines to [{}]", indexFile, lines, packages.size());
+        fileKey = Files.readAttributes(indexFile, BasicFileAttributes.class).fileKey();
+        offset = content.size();
+        lines = packages.size();
+    }
+
+    /**
+     * The releases of a track after a commit sent the given ones. Play keeps one completed and one staged release per
+     * track: a release sent replaces the known release of its kind and those of its version codes, and a completed
+     * release ends a staged rollout.
+     */
+    private static Track merge(Track known, Track committed) {
+        List<TrackRelease> releases = new ArrayList<>();
+        Set<String> kinds = new HashSet<>();
+        Set<Long> versionCodes = new HashSet<>();
+        if (committed.getReleases() != null) {
+            for (TrackRelease release : committed.getReleases()) {
+                releases.add(release);
+                kinds.add(kind(release));
+                if (release.getVersionCodes() != null) {
+                    versionCodes.addAll(release.getVersionCodes());
+                }
+            }
+        }
+        if (known.getReleases() != null) {
+            for (TrackRelease release : known.getReleases()) {
+                String kind = kind(release);
+                boolean superseded = !"draft".equals(kind) && kinds.contains(kind)
+                        || "staged".equals(kind) && kinds.contains("completed")
+                        || release.getVersionCodes() != null && !Collections.disjoint(release.getVersionCodes(), versionCodes);
+                if (!superseded) {
+                    releases.add(release);
+                }
+            }
+        }
+        return new Track().setTrack(committed.getTrack()).setReleases(releases);
+    }
+
+    private static String kind(TrackRelease release) {
+        return "inProgress".equals(release.getStatus()) || "halted".equals(release.getStatus()) ? "staged" : String.valueOf(release.getStatus());
+    }
+
+    /**
+     * Keep what the fleet view needs of a release, the release notes and country targeting are left out.
+     */
+    private static Track slim(Track track) {
+        List<TrackRelease> releases = new ArrayList<>();
+        if (track.getReleases() != null) {
+            for (TrackRelease release : track.getReleases()) {
+                releases.add(new TrackRelease().setName(release.getName()).setStatus(release.getStatus())
+                        .setVersionCodes(release.getVersionCodes()).setUserFraction(release.getUserFraction()));
+            }
+        }
+        return new Track().setTrack(track.getTrack()).setReleases(releases);
+    }
+
+    /**
+     * What the index knows about the tracks of one package.
+     */
+    public static class PackageTracks {
+        private final String packageName;
+        private final Map<String, Track> tracks = new LinkedHashMap<>();
+        private Long refreshedAt;
+        private Long updatedAt;
+
+        private PackageTracks(String packageName) {
+            this.packageName = packageName;
+        }
+
+        public String getPackageName() {
+            return packageName;
+        }
+
+        /**
+         * @return the tracks by name
+         */
+        public Map<String, Track> getTracks() {
+            return Collections.unmodifiableMap(tracks);
+        }
+
+        /**
+         * @return when all tracks were last listed from Play, null if only commits were recorded
+         */
+        public Long getRefreshedAt() {
+            return refreshedAt;
+        }
+
+        /**
+         * @return when the package was last recorded
+         */
+        public Long getUpdatedAt() {
+            return updatedAt;
+        }
+
+        private PackageTracks copy() {
+            PackageTracks copy = new PackageTracks(packageName);
+            copy.tracks.putAll(tracks);
+            copy.refreshedAt = refreshedAt;
+            copy.updatedAt = updatedAt;
+            return copy;
+        }
+    }
+
+    /**
+     * One line of the index file.
+     */
+    public static class Entry extends GenericJson {
+        @Key
+        private String packageName;
+        @Key
+        private Boolean full;
+        @Key
+        private Long refreshedAt;
+        @Key
+        private Long updatedAt;
+        @Key
+        private List<Track> tracks;
+
+        public Entry() {
+            setFactory(JSON);
+        }
+
+        Entry(String packageName, boolean full, Long refreshedAt, Long updatedAt, List<Track> tracks) {
+            this();
+            this.packageName = packageName;
+            this.full = full;
+            this.refreshedAt = refreshedAt;
+            this.updatedAt = updatedAt;
+            this.tracks = new ArrayList<>();
+            if (tracks != null) {
+                for (Track track : tracks) {
+                    this.tracks.add(slim(track));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package app.release.publisher.android;
+
+import app.release.model.CommandLineArguments;
+import app.release.publisher.Publisher;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.AppEdit;
+import com.google.api.services.androidpublisher.model.Track;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link TrackIndex} of the state directory up to date and answers the fleet view from it.
+ * <p>
+ * Commands given with {@code -index}:
+ * <ul>
+ * <li>{@code refresh} lists the tracks of {@code -packageName}, or of every package of the index, in an edit that is
+ * deleted again, {@code -parallelism} packages at a time. With {@code -maxAge} only packages not listed for that many
+ * minutes are refreshed, so a frequent cron job keeps a large fleet current with few requests.</li>
+ * <li>{@code query} prints the tracks of all packages, or of {@code -packageName} and {@code -track}, as JSON without
+ * calling Play</li>
+ * </ul>
+ */
+@Slf4j
+public class TrackIndexCommand implements Publisher {
+
+    private final CommandLineArguments arguments;
+    private final AndroidPublisherClientPool clientPool;
+    private final PlayRequestExecutor executor;
+    private final TrackIndex index;
+
+    public TrackIndexCommand(CommandLineArguments arguments, AndroidPublisherClientPool clientPool) {
+        this.arguments = arguments;
+        this.clientPool = clientPool;
+        this.executor = PlayRequestExecutor.forArguments(arguments);
+        this.index = TrackIndex.forArguments(arguments);
+    }
+
+    @Override
+    public void publish() throws Exception {
+        switch (arguments.getIndex()) {
+            case "refresh":
+                refresh();
+                break;
+            case "query":
+                System.out.println(query().toPrettyString());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown index command: " + arguments.getIndex() + ", expected refresh or query");
+        }
+    }
+
+    private void refresh() throws Exception {
+        Map<String, TrackIndex.PackageTracks> known = index.read();
+        List<String> packageNames = arguments.getPackageName() != null ? Collections.singletonList(arguments.getPackageName())
+                : new ArrayList<>(known.keySet());
+        long staleBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(arguments.getMaxAgeMinutes());
+        List<PublishPipeline.Step<Boolean>> steps = new ArrayList<>();
+        for (String packageName : packageNames) {
+            TrackIndex.PackageTracks tracks = known.get(packageName);
+            if (tracks == null || tracks.getRefreshedAt() == null || tracks.getRefreshedAt() <= staleBefore) {
+                steps.add(() -> {
+                    try (EditLeases.Lease lease = EditLeases.forArguments(arguments).acquire(packageName)) {
+                        return refresh(packageName, lease);
+                    } catch (IOException e) {
+                        log.error("Refresh of [{}] failed: {}", packageName, e.getMessage());
+                        return false;
+                    }
+                });
+            }
+        }
+        if (steps.isEmpty()) {
+            log.info("Track index is up to date, [{}] packages", packageNames.size());
+            return;
+        }
+        log.info("Refreshing the tracks of [{}] of [{}] packages...", steps.size(), packageNames.size());
+        int failed = 0;
+        for (boolean refreshed : PublishPipeline.all(steps, arguments.getParallelism())) {
+            failed += refreshed ? 0 : 1;
+        }
+        log.info("Track index refreshed, [{}] packages failed", failed);
+    }
+
+    /**
+     * @return whether the tracks were listed, a failed package keeps what the index knew and is retried next time
+     */
+    private boolean refresh(String packageName, EditLeases.Lease lease) throws Exception {
+        AndroidPublisher publisher = clientPool.get(arguments, packageName);
+        AppEdit edit;
+        try {
+            edit = executor.execute("edits.insert", publisher.edits().insert(packageName, null));
+        } catch (IOException e) {
+            log.error("Refresh of [{}] failed, could not create edit: {}", packageName, e.getMessage());
+            return false;
+        }
+        try {
+            List<Track> tracks = Preflight.tracks(publisher, executor, packageName, edit.getId());
+            // a holder that took over the lease may have changed the tracks since they were listed
+            lease.checkHeld();
+            index.recordAll(packageName, tracks);
+            log.info("Refreshed [{}] tracks of [{}]", tracks.size(), packageName);
+            return true;
+        } catch (IOException e) {
+            log.error("Refresh of [{}] failed: {}", packageName, e.getMessage());
+            return false;
+        } finally {
+            try {
+                executor.execute("edits.delete", publisher.edits().delete(packageName, edit.getId()));
+            } catch (IOException e) {
+                log.error("Failed to delete edit: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return {@code {"<package>": {"refreshedAt": ..., "updatedAt": ..., "tracks": {"<track>": [releases]}}}}
+     */
+    private GenericJson query() throws IOException {
+        GenericJson fleet = new GenericJson();
+        fleet.setFactory(JacksonFactory.getDefaultInstance());
+        for (TrackIndex.PackageTracks tracks : index.read().values()) {
+            if (arguments.getPackageName() != null && !arguments.getPackageName().equals(tracks.getPackageName())) {
+                continue;
+            }
+            Map<String, Object> releasesByTrack = new LinkedHashMap<>();
+            for (Track track : tracks.getTracks().values()) {
+                if (arguments.getTrackName() == null || arguments.getTrackName().equals(track.getTrack())) {
+                    releasesByTrack.put(track.getTrack(), track.getReleases() == null ? Collections.emptyList() : track.getReleases());
+                }
+            }
+            GenericJson app = new GenericJson();
+            if (tracks.getRefreshedAt() != null) {
+                app.put("refreshedAt", Instant.ofEpochMilli(tracks.getRefreshedAt()).toString());
+            }
+            app.put("updatedAt", Instant.ofEpochMilli(tracks.getUpdatedAt()).toString());
+            app.put("tracks", releasesByTrack);
+            fleet.put(tracks.getPackageName(), app);
+        }
+        return fleet;
+    }
+}
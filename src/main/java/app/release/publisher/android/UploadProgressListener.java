@@ -0,0 +1,14 @@
+package app.release.publisher.android;
+
+/**
+ * Notified while an artifact is uploaded, like {@link com.google.api.client.googleapis.media.MediaHttpUploaderProgressListener}
+ * but also for {@link ResumableUpload}.
+ */
+public interface UploadProgressListener {
+
+    /**
+     * @param bytesUploaded bytes the server has received so far, including those of an earlier interrupted run
+     * @param totalBytes    size of the artifact
+     */
+    void progressChanged(long bytesUploaded, long totalBytes);
+}
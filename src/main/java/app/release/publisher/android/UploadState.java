@@ -0,0 +1,120 @@
+package app.release.publisher.android;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Progress of a resumable upload, persisted to a small properties file so an interrupted upload
+ * can continue from the last acknowledged offset on retry or rerun.
+ */
+@Slf4j
+public class UploadState {
+
+    private static final String KEY_FILE = "file";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_PACKAGE_NAME = "packageName";
+    private static final String KEY_EDIT_ID = "editId";
+    private static final String KEY_SESSION_URI = "sessionUri";
+    private static final String KEY_OFFSET = "offset";
+
+    private final Path stateFile;
+    private final Properties properties = new Properties();
+
+    private UploadState(Path stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * Create a fresh state for uploading the given file into the given edit.
+     */
+    public static UploadState create(Path stateFile, Path file, String packageName, String editId) throws IOException {
+        UploadState state = new UploadState(stateFile);
+        state.properties.setProperty(KEY_FILE, file.toAbsolutePath().toString());
+        state.properties.setProperty(KEY_SIZE, Long.toString(Files.size(file)));
+        state.properties.setProperty(KEY_LAST_MODIFIED, Long.toString(Files.getLastModifiedTime(file).toMillis()));
+        state.properties.setProperty(KEY_PACKAGE_NAME, packageName);
+        state.properties.setProperty(KEY_EDIT_ID, editId);
+        state.properties.setProperty(KEY_OFFSET, "0");
+        return state;
+    }
+
+    /**
+     * Load a previously saved state, if there is one and it still describes the given file.
+     *
+     * @return the saved state or null if there is nothing to resume
+     */
+    public static UploadState load(Path stateFile, Path file, String packageName) throws IOException {
+        if (!Files.isRegularFile(stateFile)) {
+            return null;
+        }
+        UploadState state = new UploadState(stateFile);
+        try (InputStream in = Files.newInputStream(stateFile)) {
+            state.properties.load(in);
+        }
+        boolean sameFile = file.toAbsolutePath().toString().equals(state.properties.getProperty(KEY_FILE))
+                && Long.toString(Files.size(file)).equals(state.properties.getProperty(KEY_SIZE))
+                && Long.toString(Files.getLastModifiedTime(file).toMillis()).equals(state.properties.getProperty(KEY_LAST_MODIFIED))
+                && packageName.equals(state.properties.getProperty(KEY_PACKAGE_NAME));
+        if (!sameFile || state.getEditId() == null) {
+            log.info("Ignoring stale upload state [{}]", stateFile);
+            state.delete();
+            return null;
+        }
+        return state;
+    }
+
+    public String getEditId() {
+        return properties.getProperty(KEY_EDIT_ID);
+    }
+
+    public long getSize() {
+        return Long.parseLong(properties.getProperty(KEY_SIZE));
+    }
+
+    public String getSessionUri() {
+        return properties.getProperty(KEY_SESSION_URI);
+    }
+
+    public void setSessionUri(String sessionUri) {
+        properties.setProperty(KEY_SESSION_URI, sessionUri);
+    }
+
+    /**
+     * Forget the session and its offset, the next upload starts a new session from byte zero.
+     */
+    public void clearSession() {
+        properties.remove(KEY_SESSION_URI);
+        properties.setProperty(KEY_OFFSET, "0");
+    }
+
+    public long getOffset() {
+        return Long.parseLong(properties.getProperty(KEY_OFFSET, "0"));
+    }
+
+    public void setOffset(long offset) {
+        properties.setProperty(KEY_OFFSET, Long.toString(offset));
+    }
+
+    /**
+     * Write the state atomically, so a crash never leaves a half written file behind.
+     */
+    public void save() throws IOException {
+        Path tmp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            properties.store(out, "app-release-manager resumable upload");
+        }
+        Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void delete() throws IOException {
+        Files.deleteIfExists(stateFile);
+    }
+}
@@ -0,0 +1,68 @@
+package app.release.publisher.server;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Copies log events written by a worker thread into the log of the job it is running, which is identified by the
+ * {@value #MDC_JOB} MDC key.
+ */
+class JobLogAppender extends AppenderBase<ILoggingEvent> {
+
+    static final String MDC_JOB = "job";
+
+    private final Map<String, PublishJob> jobs;
+
+    private JobLogAppender(Map<String, PublishJob> jobs) {
+        this.jobs = jobs;
+    }
+
+    /**
+     * Attach an appender for the given jobs to the root logger.
+     */
+    static JobLogAppender install(Map<String, PublishJob> jobs) {
+        JobLogAppender appender = new JobLogAppender(jobs);
+        appender.setContext(root().getLoggerContext());
+        appender.setName("publish-jobs");
+        appender.start();
+        root().addAppender(appender);
+        return appender;
+    }
+
+    /**
+     * Detach the appender from the root logger.
+     */
+    void uninstall() {
+        root().detachAppender(this);
+        stop();
+    }
+
+    private static Logger root() {
+        return (Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+    }
+
+    static void setJob(String jobId) {
+        MDC.put(MDC_JOB, jobId);
+    }
+
+    static void clearJob() {
+        MDC.remove(MDC_JOB);
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        String jobId = event.getMDCPropertyMap().get(MDC_JOB);
+        PublishJob job = jobId == null ? null : jobs.get(jobId);
+        if (job != null) {
+            job.log(new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(event.getTimeStamp()))
+                    + " " + event.getLevel() + " " + event.getFormattedMessage());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package app.release.publisher.server;
+
+import com.google.api.client.json.GenericJson;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A publish submitted to the {@link PublishServer}, with its status and the log lines written while it ran.
+ */
+public class PublishJob {
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    private static final int MAX_LOG_LINES = 2000;
+
+    private final String id;
+    private final Map<String, String> options;
+    private final long submitted = System.currentTimeMillis();
+    private final List<String> log = new ArrayList<>();
+    private volatile Status status = Status.QUEUED;
+    private volatile long started;
+    private volatile long finished;
+    private volatile String error;
+
+    PublishJob(String id, Map<String, String> options) {
+        this.id = id;
+        this.options = options;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Map<String, String> getOptions() {
+        return Collections.unmodifiableMap(options);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    void started() {
+        started = System.currentTimeMillis();
+        status = Status.RUNNING;
+    }
+
+    void finished(Exception e) {
+        finished = System.currentTimeMillis();
+        error = e == null ? null : e.getMessage();
+        status = e == null ? Status.SUCCEEDED : Status.FAILED;
+    }
+
+    synchronized void log(String line) {
+        if (log.size() < MAX_LOG_LINES) {
+            log.add(line);
+        }
+    }
+
+    /**
+     * @param withLog whether to include the log lines
+     */
+    synchronized GenericJson toJson(boolean withLog) {
+        GenericJson json = new GenericJson();
+        json.set("id", id);
+        json.set("status", status.name());
+        json.set("options", options);
+        json.set("submitted", submitted);
+        if (started > 0) {
+            json.set("started", started);
+        }
+        if (finished > 0) {
+            json.set("finished", finished);
+        }
+        if (error != null) {
+            json.set("error", error);
+        }
+        if (withLog) {
+            json.set("log", new ArrayList<>(log));
+        }
+        return json;
+    }
+}
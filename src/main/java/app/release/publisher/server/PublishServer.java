@@ -0,0 +1,274 @@
+package app.release.publisher.server;
+
+import app.release.model.CommandLineArguments;
+import app.release.publisher.BatchPublisher;
+import app.release.publisher.PublisherFactory;
+import app.release.publisher.android.PlayRequestExecutor;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resident publish process: accepts publish jobs over a local HTTP endpoint and runs them on a worker pool that keeps
+ * HTTP clients and credentials warm between jobs.
+ * <ul>
+ * <li>{@code POST /jobs} with a JSON object of option values, e.g. {@code {"file": "app.aab", "track": "internal"}},
+ * queues a job and returns its id. Options not given are taken from the server's command line.</li>
+ * <li>{@code GET /jobs} lists all jobs.</li>
+ * <li>{@code GET /jobs/<id>} returns the status and log of one job.</li>
+ * <li>{@code GET /metrics} returns the Play API request, retry and throttle counters.</li>
+ * </ul>
+ */
+@Slf4j
+public class PublishServer {
+
+    private static final int MAX_JOBS = 1000;
+    private static final JsonFactory JSON = JacksonFactory.getDefaultInstance();
+
+    private final CommandLineArguments arguments;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final Map<String, PublishJob> jobs = Collections.synchronizedMap(new LinkedHashMap<String, PublishJob>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PublishJob> eldest) {
+            return size() > MAX_JOBS && eldest.getValue().getStatus() != PublishJob.Status.QUEUED
+                    && eldest.getValue().getStatus() != PublishJob.Status.RUNNING;
+        }
+    });
+    /**
+     * Jobs waiting for a job of one of their packages, in the order they were submitted.
+     */
+    private final List<Waiting> waiting = new ArrayList<>();
+    /**
+     * Packages a running job opens edits of.
+     */
+    private final Set<String> runningPackages = new HashSet<>();
+    private final ExecutorService workers;
+    private HttpServer server;
+    private JobLogAppender logAppender;
+
+    public PublishServer(CommandLineArguments arguments) {
+        this.arguments = arguments;
+        this.workers = Executors.newFixedThreadPool(Math.max(1, arguments.getParallelism()));
+    }
+
+    /**
+     * Start serving, the call returns once the server is listening.
+     */
+    public void start() throws IOException {
+        logAppender = JobLogAppender.install(jobs);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), arguments.getPort()), 0);
+        server.createContext("/jobs", this::handle);
+        server.createContext("/metrics", this::handleMetrics);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        log.info("Publish server listening on [{}] with [{}] workers", server.getAddress(), Math.max(1, arguments.getParallelism()));
+    }
+
+    /**
+     * Stop serving and interrupt the running jobs.
+     */
+    public void stop() {
+        server.stop(0);
+        workers.shutdownNow();
+        logAppender.uninstall();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if ("POST".equals(method) && "/jobs".equals(path)) {
+                PublishJob job = submit(readOptions(exchange.getRequestBody()));
+                respond(exchange, 202, job.toJson(false));
+            } else if ("GET".equals(method) && ("/jobs".equals(path) || "/jobs/".equals(path))) {
+                List<GenericJson> list = new ArrayList<>();
+                synchronized (jobs) {
+                    for (PublishJob job : jobs.values()) {
+                        list.add(job.toJson(false));
+                    }
+                }
+                respond(exchange, 200, new GenericJson().set("jobs", list));
+            } else if ("GET".equals(method) && path.startsWith("/jobs/")) {
+                PublishJob job = jobs.get(path.substring("/jobs/".length()));
+                if (job == null) {
+                    respond(exchange, 404, new GenericJson().set("error", "No such job"));
+                } else {
+                    respond(exchange, 200, job.toJson(true));
+                }
+            } else {
+                respond(exchange, 405, new GenericJson().set("error", "Unsupported request " + method + " " + path));
+            }
+        } catch (Exception e) {
+            respond(exchange, 400, new GenericJson().set("error", e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            GenericJson metrics = new GenericJson();
+            metrics.putAll(PlayRequestExecutor.metrics());
+            respond(exchange, 200, metrics);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    PublishJob submit(Map<String, String> options) throws Exception {
+        // validate now, so a bad job is rejected instead of failing later
+        CommandLineArguments jobArguments = arguments.withOverrides(options);
+        if (jobArguments.getPlanPath() == null && jobArguments.getManifestPath() == null && jobArguments.getListingsPath() == null
+                && (jobArguments.getFile() == null || jobArguments.getTrackName() == null && !jobArguments.isInternalSharing())) {
+            throw new IllegalArgumentException("Job needs a file and a track, a plan, a manifest or listings, internalSharing needs no track");
+        }
+        if (jobArguments.getListingsPath() == null && !jobArguments.isInternalSharing() && jobArguments.getReleaseName() == null) {
+            throw new IllegalArgumentException("Job needs a releasename");
+        }
+        PublishJob job = new PublishJob(Long.toString(nextId.getAndIncrement()), options);
+        jobs.put(job.getId(), job);
+        log.info("Job [{}] queued: {}", job.getId(), options);
+        JobLogAppender.setJob(job.getId());
+        try {
+            // Play allows only one open edit per app, so a job waits while an earlier job of one of its packages runs
+            // or waits, without holding a worker; decided here so that jobs queue in the order they were submitted
+            Set<String> packages = packageKeys(job, jobArguments);
+            synchronized (waiting) {
+                if (!Collections.disjoint(runningPackages, packages) || waitingFor(packages)) {
+                    log.info("Job [{}] waits for the running jobs of {}", job.getId(), packages);
+                    waiting.add(new Waiting(job, jobArguments, packages));
+                    return job;
+                }
+                runningPackages.addAll(packages);
+            }
+            workers.submit(() -> publish(job, jobArguments, packages));
+        } finally {
+            JobLogAppender.clearJob();
+        }
+        return job;
+    }
+
+    private void publish(PublishJob job, CommandLineArguments jobArguments, Set<String> packages) {
+        JobLogAppender.setJob(job.getId());
+        try {
+            job.started();
+            log.info("Job [{}] started", job.getId());
+            PublisherFactory.buildPublisher(jobArguments).publish();
+            job.finished(null);
+            log.info("Job [{}] succeeded", job.getId());
+        } catch (Exception e) {
+            log.error("Job [{}] failed: {}", job.getId(), e.getMessage());
+            job.finished(e);
+        } finally {
+            JobLogAppender.clearJob();
+            // hand the waiting jobs whose packages are free now to the pool, in the order they were submitted
+            List<Waiting> next = new ArrayList<>();
+            synchronized (waiting) {
+                runningPackages.removeAll(packages);
+                Set<String> claimed = new HashSet<>(runningPackages);
+                for (Iterator<Waiting> it = waiting.iterator(); it.hasNext(); ) {
+                    Waiting candidate = it.next();
+                    if (Collections.disjoint(claimed, candidate.packages)) {
+                        it.remove();
+                        runningPackages.addAll(candidate.packages);
+                        next.add(candidate);
+                    }
+                    claimed.addAll(candidate.packages);
+                }
+            }
+            for (Waiting candidate : next) {
+                workers.submit(() -> publish(candidate.job, candidate.jobArguments, candidate.packages));
+            }
+        }
+    }
+
+    private boolean waitingFor(Set<String> packages) {
+        for (Waiting other : waiting) {
+            if (!Collections.disjoint(other.packages, packages)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the packages whose edits the job opens: the package of its artifact or plan, read from the artifact if
+     * not given, or those of the releases of a manifest; or a key of its own for an internal sharing upload, which
+     * opens no edit, or a job whose package is not known
+     */
+    private static Set<String> packageKeys(PublishJob job, CommandLineArguments jobArguments) {
+        Set<String> packages = new HashSet<>();
+        if (!jobArguments.isInternalSharing()) {
+            try {
+                if (jobArguments.getManifestPath() != null) {
+                    packages.addAll(BatchPublisher.packageNames(jobArguments));
+                } else {
+                    String packageName = PublisherFactory.packageName(jobArguments);
+                    if (packageName != null) {
+                        packages.add(packageName);
+                    }
+                }
+            } catch (Exception e) {
+                // the publish fails on its own for an artifact, plan or manifest that can not be read
+                log.warn("Could not read the package name of job [{}]: {}", job.getId(), e.getMessage());
+            }
+        }
+        if (packages.isEmpty()) {
+            packages.add("job-" + job.getId());
+        }
+        return packages;
+    }
+
+    private static Map<String, String> readOptions(InputStream body) throws IOException {
+        GenericJson json = JSON.createJsonParser(body, StandardCharsets.UTF_8).parse(GenericJson.class);
+        Map<String, String> options = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> option : json.entrySet()) {
+            options.put(option.getKey(), String.valueOf(option.getValue()));
+        }
+        return options;
+    }
+
+    private static void respond(HttpExchange exchange, int status, GenericJson json) throws IOException {
+        byte[] body = JSON.toPrettyString(json).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static class Waiting {
+        private final PublishJob job;
+        private final CommandLineArguments jobArguments;
+        private final Set<String> packages;
+
+        Waiting(PublishJob job, CommandLineArguments jobArguments, Set<String> packages) {
+            this.job = job;
+            this.jobArguments = jobArguments;
+            this.packages = packages;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package app.release.benchmark;
+
+import app.release.model.CommandLineArguments;
+import app.release.publisher.PublisherFactory;
+import app.release.publisher.android.PlayRequestExecutor;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * End to end throughput benchmark of the publishers against a {@link FakePlayServer} in the same process.
+ * <p>
+ * Scenarios:
+ * <ul>
+ * <li>{@code single}: publishes of one aab, one after the other</li>
+ * <li>{@code batch}: manifests of several releases published in parallel by the batch publisher</li>
+ * <li>{@code large}: publishes of a large aab</li>
+ * </ul>
+ * Each publish goes to its own package, so no upload is skipped as already known. For every scenario the publishes per
+ * minute, the median publish time, the mean time per stage as recorded by the publish metrics and the peak heap are
+ * reported and written as JSON to {@code -out}. Given a {@code -baseline} of an earlier run, the benchmark fails when the
+ * publishes per minute of a scenario dropped by more than {@code -tolerance}. With failures injected, publishes that fail
+ * are counted instead of failing the benchmark, as uploads and commits are not retried on 503.
+ * <p>
+ * The artifacts are synthetic aabs of random, incompressible content, unless {@code -file} is given.
+ */
+@Slf4j
+public class ThroughputBenchmark {
+
+    private static final JsonFactory JSON = JacksonFactory.getDefaultInstance();
+
+    private final Options options;
+    private final Path workDir;
+    private FakePlayServer server;
+    private Path keyFile;
+    private int nextPackage;
+
+    private ThroughputBenchmark(Options options) throws IOException {
+        this.options = options;
+        this.workDir = options.workDir != null ? Paths.get(options.workDir) : Files.createTempDirectory("throughput-benchmark");
+    }
+
+    public static void main(String... args) {
+        Options options = new Options();
+        CmdLineParser parser = new CmdLineParser(options);
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            log.error("ERROR: [{}]", e.getMessage());
+            parser.printUsage(System.err);
+            System.exit(2);
+        }
+        try {
+            boolean passed = new ThroughputBenchmark(options).run();
+            System.exit(passed ? 0 : 1);
+        } catch (Exception e) {
+            log.error("ERROR: [{}]", e.getMessage());
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+
+    /**
+     * @return false if a scenario is slower than the baseline allows
+     */
+    private boolean run() throws Exception {
+        server = new FakePlayServer(0, options.latencyMillis, options.bandwidthKb * 1024L, options.failureRate, options.throttleRate);
+        server.start();
+        try {
+            keyFile = workDir.resolve("key.json");
+            server.writeServiceAccountKey(keyFile);
+            Path artifact = options.file != null ? Paths.get(options.file) : syntheticAab(workDir.resolve("app.aab"), options.sizeMb);
+            Path largeArtifact = syntheticAab(workDir.resolve("large.aab"), options.largeMb);
+
+            // warm up the client pool, credentials and class loading, not measured
+            publish(artifact, "warmup", workDir.resolve("warmup.jsonl"));
+
+            GenericJson scenarios = new GenericJson();
+            scenarios.put("single", scenario("single", options.runs, 1, metrics -> publish(artifact, "single", metrics)));
+            scenarios.put("batch", scenario("batch", options.runs, options.batchSize, metrics -> publishBatch(artifact, metrics)));
+            scenarios.put("large", scenario("large", options.largeRuns, 1, metrics -> publish(largeArtifact, "large", metrics)));
+
+            GenericJson settings = new GenericJson();
+            settings.put("sizeMb", options.file != null ? Files.size(artifact) / (1024 * 1024) : options.sizeMb);
+            settings.put("largeMb", options.largeMb);
+            settings.put("runs", options.runs);
+            settings.put("largeRuns", options.largeRuns);
+            settings.put("batchSize", options.batchSize);
+            settings.put("latencyMillis", options.latencyMillis);
+            settings.put("bandwidthKb", options.bandwidthKb);
+            settings.put("failureRate", options.failureRate);
+            settings.put("throttleRate", options.throttleRate);
+            settings.put("apiRate", options.apiRate);
+            GenericJson results = new GenericJson();
+            results.put("settings", settings);
+            results.put("scenarios", scenarios);
+            results.put("server", server.stats());
+            results.put("api", PlayRequestExecutor.metrics());
+            write(Paths.get(options.out), results);
+            log.info("Benchmark results written to [{}]", options.out);
+
+            if (options.baseline == null) {
+                return true;
+            }
+            Path baseline = Paths.get(options.baseline);
+            if (options.updateBaseline || !Files.exists(baseline)) {
+                write(baseline, results);
+                log.info("Baseline written to [{}]", baseline);
+                return true;
+            }
+            return compare(settings, scenarios, baseline);
+        } finally {
+            server.stop();
+            if (options.workDir == null) {
+                deleteRecursively(workDir);
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private GenericJson scenario(String name, int runs, int publishesPerRun, Run run) throws Exception {
+        log.info("Running scenario [{}]: [{}] runs of [{}] publishes...", name, runs, publishesPerRun);
+        Path metricsFile = workDir.resolve(name + ".jsonl");
+        Files.deleteIfExists(metricsFile);
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            try {
+                run.run(metricsFile);
+            } catch (Exception e) {
+                // injected failures make some publishes fail, they are counted below
+                log.warn("Run [{}] of scenario [{}] failed: {}", i + 1, name, e.getMessage());
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        List<Long> totals = new ArrayList<>();
+        Map<String, Long> stageMillis = new TreeMap<>();
+        int failed = 0;
+        List<String> lines = Files.exists(metricsFile) ? Files.readAllLines(metricsFile, StandardCharsets.UTF_8) : Collections.emptyList();
+        for (String line : lines) {
+            GenericJson publish = JSON.fromString(line, GenericJson.class);
+            if (!"succeeded".equals(publish.get("status"))) {
+                if (options.failureRate == 0 && options.throttleRate == 0) {
+                    throw new IOException("A publish of scenario " + name + " failed: " + line);
+                }
+                failed++;
+                continue;
+            }
+            totals.add(((Number) publish.get("totalMillis")).longValue());
+            Map<?, ?> stages = (Map<?, ?>) publish.get("stages");
+            for (Map.Entry<?, ?> stage : stages.entrySet()) {
+                long millis = ((Number) ((Map<?, ?>) stage.getValue()).get("millis")).longValue();
+                stageMillis.merge(stage.getKey().toString(), millis, Long::sum);
+            }
+        }
+        Collections.sort(totals);
+        Map<String, Long> meanStageMillis = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> stage : stageMillis.entrySet()) {
+            meanStageMillis.put(stage.getKey(), stage.getValue() / Math.max(1, totals.size()));
+        }
+
+        GenericJson result = new GenericJson();
+        result.put("publishes", totals.size());
+        result.put("failed", failed);
+        result.put("publishesPerMinute", Math.round(totals.size() * 60e9 / elapsedNanos * 10) / 10.0);
+        result.put("medianMillis", totals.isEmpty() ? 0 : totals.get(totals.size() / 2));
+        result.put("stageMillis", meanStageMillis);
+        result.put("peakHeapBytes", peakHeap);
+        log.info("Scenario [{}]: [{}] publishes per minute, median [{}] ms, stages [{}] ms, peak heap [{}] MB", name,
+                result.get("publishesPerMinute"), result.get("medianMillis"), meanStageMillis, peakHeap / (1024 * 1024));
+        return result;
+    }
+
+    private void publish(Path artifact, String scenario, Path metricsFile) throws Exception {
+        String packageName = "com.example.benchmark." + scenario + (nextPackage++);
+        List<String> args = commonArguments(metricsFile);
+        args.addAll(Arrays.asList("-file", artifact.toString(), "-track", "internal",
+                "-releasename", scenario, "-packageName", packageName));
+        PublisherFactory.buildPublisher(CommandLineArguments.parse(args.toArray(new String[0]))).publish();
+    }
+
+    private void publishBatch(Path artifact, Path metricsFile) throws Exception {
+        List<GenericJson> releases = new ArrayList<>();
+        for (int i = 0; i < options.batchSize; i++) {
+            GenericJson release = new GenericJson();
+            release.put("file", artifact.toString());
+            release.put("packageName", "com.example.benchmark.batch" + (nextPackage++));
+            release.put("track", "internal");
+            release.put("releasename", "batch");
+            releases.add(release);
+        }
+        GenericJson manifest = new GenericJson();
+        manifest.put("releases", releases);
+        Path manifestFile = workDir.resolve("manifest.json");
+        write(manifestFile, manifest);
+        List<String> args = commonArguments(metricsFile);
+        args.addAll(Arrays.asList("-manifest", manifestFile.toString(), "-parallelism", Integer.toString(options.batchSize)));
+        PublisherFactory.buildPublisher(CommandLineArguments.parse(args.toArray(new String[0]))).publish();
+    }
+
+    private List<String> commonArguments(Path metricsFile) {
+        List<String> args = new ArrayList<>();
+        Collections.addAll(args, "-key", keyFile.toString(), "-rootUrl", server.getRootUrl(),
+                "-stateDir", workDir.resolve("state").toString(), "-metricsFile", metricsFile.toString(),
+                "-apiRate", Double.toString(options.apiRate));
+        return args;
+    }
+
+    private boolean compare(GenericJson settings, GenericJson scenarios, Path baselineFile) throws IOException {
+        GenericJson baseline;
+        try (InputStream in = Files.newInputStream(baselineFile)) {
+            baseline = JSON.createJsonParser(in, StandardCharsets.UTF_8).parse(GenericJson.class);
+        }
+        // numbers of runs with other settings are not comparable, compare the JSON to ignore number types
+        if (!JSON.toString(settings).equals(JSON.toString(baseline.get("settings")))) {
+            throw new IOException("Settings " + JSON.toString(settings) + " differ from those of the baseline "
+                    + JSON.toString(baseline.get("settings")) + ", run with the same settings or -updateBaseline");
+        }
+        Map<?, ?> baselineScenarios = (Map<?, ?>) baseline.get("scenarios");
+        boolean passed = true;
+        for (Map.Entry<String, Object> scenario : scenarios.entrySet()) {
+            Map<?, ?> expected = baselineScenarios == null ? null : (Map<?, ?>) baselineScenarios.get(scenario.getKey());
+            if (expected == null) {
+                continue;
+            }
+            double baselineRate = ((Number) expected.get("publishesPerMinute")).doubleValue();
+            double rate = ((Number) ((Map<?, ?>) scenario.getValue()).get("publishesPerMinute")).doubleValue();
+            if (rate < baselineRate * (1 - options.tolerance)) {
+                log.error("Scenario [{}] regressed: [{}] publishes per minute, baseline [{}]", scenario.getKey(), rate, baselineRate);
+                passed = false;
+            } else {
+                log.info("Scenario [{}]: [{}] publishes per minute, baseline [{}]", scenario.getKey(), rate, baselineRate);
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * Write an aab with a minimal protobuf manifest and a stored entry of random bytes of the given size.
+     */
+    public static Path syntheticAab(Path file, int sizeMb) throws IOException {
+        byte[] payload = new byte[sizeMb * 1024 * 1024];
+        new Random(sizeMb).nextBytes(payload);
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file))) {
+            zip.putNextEntry(new ZipEntry("base/manifest/AndroidManifest.xml"));
+            // no package attribute, every publish names its own package with -packageName
+            zip.write(protoManifest("1", "1.0"));
+            zip.closeEntry();
+            ZipEntry dex = new ZipEntry("base/dex/classes.dex");
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            dex.setMethod(ZipEntry.STORED);
+            dex.setSize(payload.length);
+            dex.setCrc(crc.getValue());
+            zip.putNextEntry(dex);
+            zip.write(payload);
+            zip.closeEntry();
+        }
+        return file;
+    }
+
+    /**
+     * XmlNode { element = 1: XmlElement { name = 3, attribute = 4: XmlAttribute { name = 2, value = 3 } } }
+     */
+    private static byte[] protoManifest(String versionCode, String versionName) throws IOException {
+        ByteArrayOutputStream element = new ByteArrayOutputStream();
+        lengthDelimited(element, 3, "manifest".getBytes(StandardCharsets.UTF_8));
+        lengthDelimited(element, 4, attribute("versionCode", versionCode));
+        lengthDelimited(element, 4, attribute("versionName", versionName));
+        ByteArrayOutputStream node = new ByteArrayOutputStream();
+        lengthDelimited(node, 1, element.toByteArray());
+        return node.toByteArray();
+    }
+
+    private static byte[] attribute(String name, String value) throws IOException {
+        ByteArrayOutputStream attribute = new ByteArrayOutputStream();
+        lengthDelimited(attribute, 2, name.getBytes(StandardCharsets.UTF_8));
+        lengthDelimited(attribute, 3, value.getBytes(StandardCharsets.UTF_8));
+        return attribute.toByteArray();
+    }
+
+    private static void lengthDelimited(ByteArrayOutputStream out, int field, byte[] value) throws IOException {
+        varint(out, field << 3 | 2);
+        varint(out, value.length);
+        out.write(value);
+    }
+
+    private static void varint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void write(Path file, GenericJson json) throws IOException {
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        Files.write(file, (JSON.toPrettyString(json) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private interface Run {
+        void run(Path metricsFile) throws Exception;
+    }
+
+    public static class Options {
+
+        @Option(name = "-file", usage = "(optional) aab or apk to publish, a synthetic aab of -sizeMb is used if not given")
+        private String file;
+
+        @Option(name = "-sizeMb", usage = "(optional) Size of the synthetic aab, defaults to 5")
+        private int sizeMb = 5;
+
+        @Option(name = "-largeMb", usage = "(optional) Size of the aab of the large scenario, defaults to 100")
+        private int largeMb = 100;
+
+        @Option(name = "-runs", usage = "(optional) Publishes of the single scenario and manifests of the batch scenario, defaults to 10")
+        private int runs = 10;
+
+        @Option(name = "-largeRuns", usage = "(optional) Publishes of the large scenario, defaults to 3")
+        private int largeRuns = 3;
+
+        @Option(name = "-batchSize", usage = "(optional) Releases per manifest of the batch scenario, defaults to 8")
+        private int batchSize = 8;
+
+        @Option(name = "-latency", usage = "(optional) Milliseconds the fake server adds to every request, defaults to 20")
+        private long latencyMillis = 20;
+
+        @Option(name = "-bandwidth", usage = "(optional) KB per second the fake server reads uploads at, defaults to no limit")
+        private long bandwidthKb;
+
+        @Option(name = "-failureRate", usage = "(optional) Share of requests the fake server answers with 503, defaults to 0")
+        private double failureRate;
+
+        @Option(name = "-throttleRate", usage = "(optional) Share of requests the fake server answers with 429, defaults to 0")
+        private double throttleRate;
+
+        @Option(name = "-apiRate", usage = "(optional) -apiRate of the publishes, defaults to 100 so the fake server is the limit")
+        private double apiRate = 100;
+
+        @Option(name = "-out", usage = "(optional) File to write the results to, defaults to target/benchmark-results.json")
+        private String out = "target/benchmark-results.json";
+
+        @Option(name = "-baseline", usage = "(optional) Results of an earlier run to compare with, written if missing")
+        private String baseline;
+
+        @Option(name = "-updateBaseline", depends = "-baseline", usage = "(optional) Replace the baseline with the results of this run")
+        private boolean updateBaseline;
+
+        @Option(name = "-tolerance", usage = "(optional) Share the publishes per minute may drop below the baseline, defaults to 0.25")
+        private double tolerance = 0.25;
+
+        @Option(name = "-workDir", usage = "(optional) Directory for the key, artifacts and state, defaults to a temporary directory")
+        private String workDir;
+    }
+}
@@ -0,0 +1,230 @@
+package app.release.benchmark;
+
+import app.release.publisher.android.AndroidPublisherClientPool;
+import app.release.publisher.android.HttpTransports;
+import com.google.api.client.http.FileContent;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.AppEdit;
+import lombok.extern.slf4j.Slf4j;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the HTTP transports of {@code -transport} against a {@link FakePlayServer} in the same process.
+ * <p>
+ * For every transport:
+ * <ul>
+ * <li>{@code upload}: MB per second of bundle uploads of {@code -sizeMb}, each in its own edit</li>
+ * <li>{@code sequential}: median and 95th percentile latency of {@code -calls} track lists, one after the other</li>
+ * <li>{@code parallel}: calls per second and latencies of the same track lists from {@code -parallelism} threads</li>
+ * </ul>
+ * Each transport has its own client pool, so no connection is shared between them. The fake server speaks plain HTTP,
+ * so {@code -sendBuffer}, which applies to HTTPS connections, is not measured here. Results are written as JSON to
+ * {@code -out}.
+ */
+@Slf4j
+public class TransportBenchmark {
+
+    private static final JsonFactory JSON = JacksonFactory.getDefaultInstance();
+
+    private final Options options;
+    private FakePlayServer server;
+    private Path keyFile;
+
+    private TransportBenchmark(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String... args) {
+        Options options = new Options();
+        CmdLineParser parser = new CmdLineParser(options);
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            log.error("ERROR: [{}]", e.getMessage());
+            parser.printUsage(System.err);
+            System.exit(2);
+        }
+        try {
+            new TransportBenchmark(options).run();
+            System.exit(0);
+        } catch (Exception e) {
+            log.error("ERROR: [{}]", e.getMessage());
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+
+    private void run() throws Exception {
+        Path workDir = Files.createTempDirectory("transport-benchmark");
+        server = new FakePlayServer(0, options.latencyMillis, options.bandwidthKb * 1024L, 0, 0);
+        server.start();
+        try {
+            keyFile = workDir.resolve("key.json");
+            server.writeServiceAccountKey(keyFile);
+            Path artifact = ThroughputBenchmark.syntheticAab(workDir.resolve("app.aab"), options.sizeMb);
+
+            GenericJson transports = new GenericJson();
+            for (String transport : options.transports.split(",")) {
+                transport = transport.trim();
+                HttpTransports.Options transportOptions = new HttpTransports.Options(transport, TimeUnit.MINUTES.toMillis(3),
+                        TimeUnit.MINUTES.toMillis(3), options.sendBufferKb * 1024, options.maxConnections);
+                AndroidPublisher publisher = new AndroidPublisherClientPool()
+                        .get(keyFile.toString(), "transport-benchmark", server.getRootUrl(), transportOptions);
+                transports.put(transport, measure(transport, publisher, artifact));
+            }
+
+            GenericJson settings = new GenericJson();
+            settings.put("sizeMb", options.sizeMb);
+            settings.put("uploads", options.uploads);
+            settings.put("calls", options.calls);
+            settings.put("parallelism", options.parallelism);
+            settings.put("maxConnections", options.maxConnections);
+            settings.put("latencyMillis", options.latencyMillis);
+            settings.put("bandwidthKb", options.bandwidthKb);
+            GenericJson results = new GenericJson();
+            results.put("settings", settings);
+            results.put("transports", transports);
+            results.put("server", server.stats());
+            Path out = Paths.get(options.out);
+            if (out.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(out.toAbsolutePath().getParent());
+            }
+            Files.write(out, (JSON.toPrettyString(results) + "\n").getBytes(StandardCharsets.UTF_8));
+            log.info("Benchmark results written to [{}]", out);
+        } finally {
+            server.stop();
+            Files.deleteIfExists(keyFile);
+            Files.deleteIfExists(workDir.resolve("app.aab"));
+            Files.deleteIfExists(workDir);
+        }
+    }
+
+    private GenericJson measure(String transport, AndroidPublisher publisher, Path artifact) throws Exception {
+        String packageName = "com.example.transport." + transport;
+        AppEdit edit = publisher.edits().insert(packageName, null).execute();
+
+        // warm up the credentials, connections and class loading, not measured
+        for (int i = 0; i < 10; i++) {
+            publisher.edits().tracks().list(packageName, edit.getId()).execute();
+        }
+
+        log.info("Transport [{}]: uploading [{}] bundles of [{}] MB...", transport, options.uploads, options.sizeMb);
+        long uploadNanos = 0;
+        for (int i = 0; i < options.uploads; i++) {
+            AppEdit uploadEdit = publisher.edits().insert(packageName, null).execute();
+            long start = System.nanoTime();
+            publisher.edits().bundles().upload(packageName, uploadEdit.getId(),
+                    new FileContent("application/octet-stream", artifact.toFile())).execute();
+            uploadNanos += System.nanoTime() - start;
+            publisher.edits().delete(packageName, uploadEdit.getId()).execute();
+        }
+        GenericJson upload = new GenericJson();
+        upload.put("mbPerSecond", round(options.uploads * (double) options.sizeMb * 1e9 / uploadNanos));
+
+        log.info("Transport [{}]: [{}] sequential track lists...", transport, options.calls);
+        List<Long> sequentialMicros = new ArrayList<>();
+        for (int i = 0; i < options.calls; i++) {
+            sequentialMicros.add(timedList(publisher, packageName, edit.getId()));
+        }
+        GenericJson sequential = latencies(sequentialMicros);
+
+        log.info("Transport [{}]: [{}] track lists from [{}] threads...", transport, options.calls, options.parallelism);
+        ExecutorService threads = Executors.newFixedThreadPool(options.parallelism);
+        List<Long> parallelMicros = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            List<Future<Long>> calls = new ArrayList<>();
+            for (int i = 0; i < options.calls; i++) {
+                calls.add(threads.submit(() -> timedList(publisher, packageName, edit.getId())));
+            }
+            for (Future<Long> call : calls) {
+                parallelMicros.add(call.get());
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+        GenericJson parallel = latencies(parallelMicros);
+        parallel.put("callsPerSecond", round(options.calls * 1e9 / (System.nanoTime() - start)));
+        publisher.edits().delete(packageName, edit.getId()).execute();
+
+        GenericJson result = new GenericJson();
+        result.put("upload", upload);
+        result.put("sequential", sequential);
+        result.put("parallel", parallel);
+        log.info("Transport [{}]: upload [{}] MB/s, sequential median [{}] ms p95 [{}] ms, parallel [{}] calls/s p95 [{}] ms",
+                transport, upload.get("mbPerSecond"), sequential.get("medianMillis"), sequential.get("p95Millis"),
+                parallel.get("callsPerSecond"), parallel.get("p95Millis"));
+        return result;
+    }
+
+    /**
+     * @return microseconds of one track list
+     */
+    private static long timedList(AndroidPublisher publisher, String packageName, String editId) throws Exception {
+        long start = System.nanoTime();
+        publisher.edits().tracks().list(packageName, editId).execute();
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    }
+
+    private static GenericJson latencies(List<Long> micros) {
+        Collections.sort(micros);
+        GenericJson latencies = new GenericJson();
+        latencies.put("medianMillis", round(micros.get(micros.size() / 2) / 1000.0));
+        latencies.put("p95Millis", round(micros.get(Math.min(micros.size() - 1, micros.size() * 95 / 100)) / 1000.0));
+        return latencies;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    public static class Options {
+
+        @Option(name = "-transports", usage = "(optional) Comma separated transports to compare, defaults to net,apache")
+        private String transports = "net,apache";
+
+        @Option(name = "-sizeMb", usage = "(optional) Size of the uploaded synthetic aab, defaults to 20")
+        private int sizeMb = 20;
+
+        @Option(name = "-uploads", usage = "(optional) Uploads per transport, defaults to 5")
+        private int uploads = 5;
+
+        @Option(name = "-calls", usage = "(optional) Small calls per transport, sequential and parallel each, defaults to 500")
+        private int calls = 500;
+
+        @Option(name = "-parallelism", usage = "(optional) Threads of the parallel small calls, defaults to 8")
+        private int parallelism = 8;
+
+        @Option(name = "-maxConnections", usage = "(optional) -maxConnections of the transports, defaults to 20")
+        private int maxConnections = 20;
+
+        @Option(name = "-sendBuffer", usage = "(optional) -sendBuffer of the transports in KB, defaults to the OS default")
+        private int sendBufferKb;
+
+        @Option(name = "-latency", usage = "(optional) Milliseconds the fake server adds to every request, defaults to 0")
+        private long latencyMillis;
+
+        @Option(name = "-bandwidth", usage = "(optional) KB per second the fake server reads uploads at, defaults to no limit")
+        private long bandwidthKb;
+
+        @Option(name = "-out", usage = "(optional) File to write the results to, defaults to target/transport-benchmark-results.json")
+        private String out = "target/transport-benchmark-results.json";
+    }
+}
@@ -0,0 +1,57 @@
+package app.release.model;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReleaseManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsTheOptionsOfEachRelease() throws IOException {
+        Path manifest = write("{\"releases\": [{\"file\": \"a.aab\", \"track\": \"internal\", \"parallelism\": 2},"
+                + " {\"file\": \"b.apk\", \"packageName\": \"com.example.b\"}]}");
+        List<Map<String, String>> releases = ReleaseManifest.load(manifest).getReleases();
+
+        assertEquals(2, releases.size());
+        assertEquals("a.aab", releases.get(0).get("file"));
+        assertEquals("2", releases.get(0).get("parallelism"));
+        assertEquals("com.example.b", releases.get(1).get("packageName"));
+    }
+
+    @Test
+    public void failsForANullOption() throws IOException {
+        Path manifest = write("{\"releases\": [{\"file\": \"a.aab\", \"track\": null}]}");
+        try {
+            ReleaseManifest.load(manifest);
+            fail("A null option was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(manifest.toString()));
+            assertTrue(e.getMessage(), e.getMessage().contains("\"track\""));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void failsWithoutReleases() throws IOException {
+        ReleaseManifest.load(write("{\"release\": []}"));
+    }
+
+    private Path write(String json) throws IOException {
+        Path manifest = folder.getRoot().toPath().resolve("manifest.json");
+        Files.write(manifest, json.getBytes(StandardCharsets.UTF_8));
+        return manifest;
+    }
+}
@@ -0,0 +1,91 @@
+package app.release.model;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReleasePlanTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsTracksWithTheirArtifactsAndOptions() throws IOException {
+        Path plan = write("{\"packageName\": \"com.example.app\", \"artifacts\": [\"app.aab\", \"wear/../wear.apk\", \"app.aab\"],"
+                + " \"tracks\": [{\"track\": \"internal\"},"
+                + " {\"track\": \"alpha\", \"artifacts\": [\"app.aab\"], \"status\": \"inProgress\", \"userFraction\": 0.2,"
+                + " \"releaseName\": \"1.2\", \"notes\": \"alpha release\"}]}");
+        ReleasePlan releasePlan = ReleasePlan.load(plan);
+        Path aab = folder.getRoot().toPath().resolve("plans/app.aab");
+        Path apk = folder.getRoot().toPath().resolve("plans/wear.apk");
+
+        assertEquals("com.example.app", releasePlan.getPackageName());
+        // relative to the plan, normalized and listed once
+        assertEquals(Arrays.asList(aab, apk), releasePlan.getArtifacts());
+        ReleasePlan.TrackPlan internal = releasePlan.getTracks().get(0);
+        assertEquals("internal", internal.getTrack());
+        assertEquals(Arrays.asList(aab, apk), internal.getArtifacts());
+        assertNull(internal.getStatus());
+        assertNull(internal.getUserFraction());
+        ReleasePlan.TrackPlan alpha = releasePlan.getTracks().get(1);
+        assertEquals(Collections.singletonList(aab), alpha.getArtifacts());
+        assertEquals("inProgress", alpha.getStatus());
+        assertEquals(0.2, alpha.getUserFraction(), 1e-9);
+        assertEquals("1.2", alpha.getReleaseName());
+        assertEquals("alpha release", alpha.getNotes());
+    }
+
+    @Test
+    public void takesThePackageFromTheCommandLineIfNotGiven() throws IOException {
+        assertNull(ReleasePlan.load(write("{\"artifacts\": [\"app.aab\"], \"tracks\": [{\"track\": \"beta\"}]}")).getPackageName());
+    }
+
+    @Test
+    public void failsWithoutArtifacts() throws IOException {
+        assertFails(write("{\"tracks\": [{\"track\": \"beta\"}]}"), "has no \"artifacts\"");
+    }
+
+    @Test
+    public void failsWithoutTracks() throws IOException {
+        assertFails(write("{\"artifacts\": [\"app.aab\"]}"), "has no \"tracks\" list");
+    }
+
+    @Test
+    public void failsForATrackWithoutName() throws IOException {
+        assertFails(write("{\"artifacts\": [\"app.aab\"], \"tracks\": [{\"status\": \"draft\"}]}"), "contains a track without a name");
+    }
+
+    @Test
+    public void failsForATrackWithAnUnlistedArtifact() throws IOException {
+        assertFails(write("{\"artifacts\": [\"app.aab\"], \"tracks\": [{\"track\": \"beta\", \"artifacts\": [\"other.aab\"]}]}"),
+                "Track beta of plan");
+    }
+
+    private static void assertFails(Path plan, String message) {
+        try {
+            ReleasePlan.load(plan);
+            fail("An invalid plan was loaded");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(plan.toString()));
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private Path write(String json) throws IOException {
+        Path plan = Files.createDirectories(folder.getRoot().toPath().resolve("plans")).resolve("plan.json");
+        Files.write(plan, json.getBytes(StandardCharsets.UTF_8));
+        return plan;
+    }
+}
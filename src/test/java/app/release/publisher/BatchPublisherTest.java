@@ -0,0 +1,123 @@
+package app.release.publisher;
+
+import app.release.benchmark.FakePlayServer;
+import app.release.benchmark.ThroughputBenchmark;
+import app.release.model.CommandLineArguments;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class BatchPublisherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakePlayServer server;
+    private Path keyFile;
+    private Path aab;
+
+    @Before
+    public void setUp() throws Exception {
+        // slow enough that the releases of a package would overlap if they ran in parallel
+        server = new FakePlayServer(0, 20, 0, 0, 0);
+        server.start();
+        keyFile = key("account0");
+        // without a package of its own, every release names its package
+        aab = ThroughputBenchmark.syntheticAab(folder.getRoot().toPath().resolve("app.aab"), 1);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void publishesTheReleasesOfAPackageOneAfterTheOther() throws Exception {
+        List<String> releases = new ArrayList<>();
+        for (String track : new String[]{"internal", "alpha"}) {
+            for (int i = 0; i < 3; i++) {
+                releases.add(release("com.example.batch" + i, track));
+            }
+        }
+        publish(manifest(releases), "-parallelism", "6");
+
+        assertEquals(0L, (long) server.stats().get("overlappingEdits"));
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(server.committedTrack("com.example.batch" + i, "internal"));
+            assertEquals(1, ((List<?>) server.committedTrack("com.example.batch" + i, "alpha").get("releases")).size());
+        }
+    }
+
+    @Test
+    public void shardsEachPackageOnOneServiceAccount() throws Exception {
+        List<String> emails = Arrays.asList("account0@example.com", "account1@example.com", "account2@example.com");
+        Path shard1 = key("account1");
+        Path shard2 = key("account2");
+        List<String> releases = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            releases.add(release("com.example.shard" + i, "internal"));
+            releases.add(release("com.example.shard" + i, "alpha"));
+        }
+        publish(manifest(releases), "-parallelism", "4", "-shardKeys", shard1 + "," + shard2);
+
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < 6; i++) {
+            String packageName = "com.example.shard" + i;
+            String expected = emails.get(Math.floorMod(packageName.hashCode(), emails.size()));
+            assertEquals(packageName, Collections.singleton(expected), server.accounts(packageName));
+            used.add(expected);
+        }
+        // these packages spread over all accounts
+        assertEquals(new HashSet<>(emails), used);
+    }
+
+    @Test
+    public void keepsTheKeyOfARelease() throws Exception {
+        Path own = key("own");
+        Path shard = key("account1");
+        List<String> releases = Collections.singletonList("{\"file\": \"" + aab + "\", \"packageName\": \"com.example.own\","
+                + " \"track\": \"internal\", \"releasename\": \"own\", \"key\": \"" + own + "\"}");
+        publish(manifest(releases), "-shardKeys", shard.toString());
+
+        assertEquals(Collections.singleton("own@example.com"), server.accounts("com.example.own"));
+    }
+
+    private String release(String packageName, String track) {
+        return "{\"file\": \"" + aab + "\", \"packageName\": \"" + packageName + "\", \"track\": \"" + track + "\","
+                + " \"releasename\": \"" + track + "\"}";
+    }
+
+    private Path manifest(List<String> releases) throws Exception {
+        Path manifest = folder.getRoot().toPath().resolve("manifest.json");
+        Files.write(manifest, ("{\"releases\": [" + String.join(", ", releases) + "]}").getBytes(StandardCharsets.UTF_8));
+        return manifest;
+    }
+
+    private Path key(String account) throws Exception {
+        Path key = folder.getRoot().toPath().resolve(account + ".json");
+        server.writeServiceAccountKey(key, account + "@example.com");
+        return key;
+    }
+
+    private void publish(Path manifest, String... options) throws Exception {
+        List<String> args = new ArrayList<>(Arrays.asList("-key", keyFile.toString(), "-rootUrl", server.getRootUrl(),
+                "-stateDir", folder.getRoot().toPath().resolve("state").toString(), "-manifest", manifest.toString()));
+        Collections.addAll(args, options);
+        PublisherFactory.buildPublisher(CommandLineArguments.parse(args.toArray(new String[0]))).publish();
+    }
+}
@@ -0,0 +1,20 @@
+package app.release.publisher;
+
+import app.release.model.CommandLineArguments;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PublisherFactoryTest {
+
+    @Test
+    public void failsClearlyWithoutAFile() throws Exception {
+        try {
+            PublisherFactory.buildPublisher(CommandLineArguments.parse("-key", "key.json", "-track", "internal", "-releasename", "test"));
+            fail("A publisher was built without a file");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("No -file given"));
+        }
+    }
+}
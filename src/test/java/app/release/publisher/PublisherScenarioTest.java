@@ -0,0 +1,161 @@
+package app.release.publisher;
+
+import app.release.benchmark.FakePlayServer;
+import app.release.benchmark.ThroughputBenchmark;
+import app.release.model.CommandLineArguments;
+import com.google.api.client.json.GenericJson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Single, batch, plan and large publishes against the fake Play API, end to end through {@link PublisherFactory}.
+ */
+public class PublisherScenarioTest {
+
+    private static final String PACKAGE_NAME = "com.example.fixture";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakePlayServer server;
+    private Path keyFile;
+    private Path aab;
+    private Path apk;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakePlayServer(0, 0, 0, 0, 0);
+        server.start();
+        keyFile = folder.getRoot().toPath().resolve("key.json");
+        server.writeServiceAccountKey(keyFile);
+        aab = copy("fixture.aab");
+        apk = copy("fixture.apk");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void publishesABundle() throws Exception {
+        publish("-file", aab.toString(), "-track", "internal", "-releasename", "2.5.2");
+
+        assertEquals(1, server.committedArtifacts(PACKAGE_NAME, "bundles"));
+        assertRelease(PACKAGE_NAME, "internal", "2.5.2", 1);
+        assertRelease(PACKAGE_NAME, "production", "initial", 1);
+    }
+
+    @Test
+    public void publishesAnApk() throws Exception {
+        publish("-file", apk.toString(), "-track", "alpha", "-releasename", "2.5.1");
+
+        assertEquals(1, server.committedArtifacts(PACKAGE_NAME, "apks"));
+        // the apk publisher names its releases itself
+        assertRelease(PACKAGE_NAME, "alpha", "Automated publish", 1);
+    }
+
+    @Test
+    public void publishesAPlanInOneEdit() throws Exception {
+        Path plan = write("plan.json", "{\"packageName\": \"" + PACKAGE_NAME + "\","
+                + " \"artifacts\": [\"fixture.aab\", \"fixture.apk\"],"
+                + " \"tracks\": [{\"track\": \"internal\"}, {\"track\": \"beta\", \"artifacts\": [\"fixture.aab\"], \"releaseName\": \"beta\"}]}");
+        publish("-plan", plan.toString(), "-releasename", "plan");
+
+        assertEquals(1, server.committedArtifacts(PACKAGE_NAME, "bundles"));
+        assertEquals(1, server.committedArtifacts(PACKAGE_NAME, "apks"));
+        assertRelease(PACKAGE_NAME, "internal", "plan", 2);
+        assertRelease(PACKAGE_NAME, "beta", "beta", 1);
+    }
+
+    @Test
+    public void listsTheArtifactsOfAPlanOncePerEdit() throws Exception {
+        ThroughputBenchmark.syntheticAab(folder.getRoot().toPath().resolve("one.aab"), 1);
+        ThroughputBenchmark.syntheticAab(folder.getRoot().toPath().resolve("two.aab"), 2);
+        Path plan = write("plan.json", "{\"packageName\": \"" + PACKAGE_NAME + "\","
+                + " \"artifacts\": [\"fixture.aab\", \"one.aab\", \"two.aab\", \"fixture.apk\"],"
+                + " \"tracks\": [{\"track\": \"internal\"}]}");
+        publish("-plan", plan.toString(), "-releasename", "plan");
+
+        // one bundles.list and one apks.list
+        assertEquals(2L, (long) server.stats().get("artifactLists"));
+        assertEquals(3, server.committedArtifacts(PACKAGE_NAME, "bundles"));
+        assertRelease(PACKAGE_NAME, "internal", "plan", 4);
+    }
+
+    @Test
+    public void publishesABatchOfPackages() throws Exception {
+        // without a package of its own, every release names its package
+        Path synthetic = ThroughputBenchmark.syntheticAab(folder.getRoot().toPath().resolve("batch.aab"), 1);
+        List<String> releases = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            releases.add("{\"file\": \"" + synthetic + "\", \"packageName\": \"com.example.batch" + i + "\","
+                    + " \"track\": \"internal\", \"releasename\": \"batch" + i + "\"}");
+        }
+        Path manifest = write("manifest.json", "{\"releases\": [" + String.join(", ", releases) + "]}");
+        publish("-manifest", manifest.toString(), "-parallelism", "3");
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1, server.committedArtifacts("com.example.batch" + i, "bundles"));
+            assertRelease("com.example.batch" + i, "internal", "batch" + i, 1);
+        }
+    }
+
+    @Test
+    public void publishesALargeBundleInResumedChunks() throws Exception {
+        Path large = ThroughputBenchmark.syntheticAab(folder.getRoot().toPath().resolve("large.aab"), 40);
+        // one chunk is cut off and resumed from the offset the server acknowledged
+        server.failUploads(1);
+        publish("-file", large.toString(), "-packageName", "com.example.large", "-track", "internal",
+                "-releasename", "large", "-chunkSize", "8");
+
+        assertEquals(1L, (long) server.stats().get("injectedFailures"));
+        assertTrue(server.stats().get("uploadedBytes") >= Files.size(large));
+        assertEquals(1, server.committedArtifacts("com.example.large", "bundles"));
+        assertRelease("com.example.large", "internal", "large", 1);
+    }
+
+    private void publish(String... options) throws Exception {
+        List<String> args = new ArrayList<>(Arrays.asList("-key", keyFile.toString(), "-rootUrl", server.getRootUrl(),
+                "-stateDir", folder.getRoot().toPath().resolve("state").toString()));
+        Collections.addAll(args, options);
+        PublisherFactory.buildPublisher(CommandLineArguments.parse(args.toArray(new String[0]))).publish();
+    }
+
+    private void assertRelease(String packageName, String trackName, String releaseName, int versionCodes) {
+        GenericJson track = server.committedTrack(packageName, trackName);
+        List<?> releases = (List<?>) track.get("releases");
+        assertEquals(track.toString(), 1, releases.size());
+        Map<?, ?> release = (Map<?, ?>) releases.get(0);
+        assertEquals(releaseName, release.get("name"));
+        assertEquals(track.toString(), versionCodes, ((List<?>) release.get("versionCodes")).size());
+    }
+
+    private Path write(String name, String content) throws Exception {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private Path copy(String fixture) throws Exception {
+        Path file = folder.getRoot().toPath().resolve(fixture);
+        Files.copy(Paths.get(getClass().getResource("/app/release/publisher/android/" + fixture).toURI()), file);
+        return file;
+    }
+}
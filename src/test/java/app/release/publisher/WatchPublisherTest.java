@@ -0,0 +1,156 @@
+package app.release.publisher;
+
+import app.release.benchmark.FakePlayServer;
+import app.release.model.CommandLineArguments;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WatchPublisherTest {
+
+    private static final String PACKAGE_NAME = "com.example.fixture";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Thread> watchers = new ArrayList<>();
+    private FakePlayServer server;
+    private Path keyFile;
+    private Path dir;
+    private byte[] aab;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakePlayServer(0, 0, 0, 0, 0);
+        server.start();
+        keyFile = folder.getRoot().toPath().resolve("key.json");
+        server.writeServiceAccountKey(keyFile);
+        dir = Files.createDirectories(folder.getRoot().toPath().resolve("builds"));
+        aab = Files.readAllBytes(Paths.get(getClass().getResource("/app/release/publisher/android/fixture.aab").toURI()));
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        for (Thread watcher : watchers) {
+            watcher.interrupt();
+            watcher.join(5000);
+        }
+        server.stop();
+    }
+
+    @Test
+    public void publishesAFileOnceItSettled() throws Exception {
+        watch("-settle", "2");
+        Path file = dir.resolve("app.aab");
+        // a build still writing the file
+        Files.write(file, Arrays.copyOf(aab, aab.length / 2));
+        Thread.sleep(1000);
+        Files.write(file, Arrays.copyOfRange(aab, aab.length / 2, aab.length), StandardOpenOption.APPEND);
+        long written = System.currentTimeMillis();
+        Thread.sleep(1000);
+        assertNull(server.committedTrack(PACKAGE_NAME, "internal"));
+
+        await(() -> published() == 1);
+        assertTrue(System.currentTimeMillis() - written >= 2000);
+        assertEquals(1, processed().size());
+        assertTrue(processed().toString(), processed().values().iterator().next().toString().endsWith("succeeded"));
+    }
+
+    @Test
+    public void publishesAMarkedFileWithoutWaiting() throws Exception {
+        watch("-settle", "60");
+        Path file = dir.resolve("app.aab");
+        Files.write(file, aab);
+        Files.createFile(dir.resolve("app.aab.done"));
+
+        await(() -> published() == 1);
+    }
+
+    @Test
+    public void publishesAFileOnceUntilItIsRebuilt() throws Exception {
+        Path file = dir.resolve("app.aab");
+        Files.write(file, aab);
+        Thread first = watch("-settle", "1");
+        await(() -> published() == 1);
+        long requests = server.stats().get("requests");
+        Thread.sleep(2500);
+        assertEquals(requests, (long) server.stats().get("requests"));
+
+        // a restarted watcher remembers the file
+        first.interrupt();
+        first.join(5000);
+        watch("-settle", "1");
+        Thread.sleep(2500);
+        assertEquals(requests, (long) server.stats().get("requests"));
+
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        await(() -> processed().size() == 2);
+        assertTrue(server.stats().get("requests") > requests);
+    }
+
+    private Thread watch(String... options) throws Exception {
+        List<String> args = new ArrayList<>(Arrays.asList("-key", keyFile.toString(), "-rootUrl", server.getRootUrl(),
+                "-stateDir", folder.getRoot().toPath().resolve("state").toString(), "-watch", dir + "=internal"));
+        Collections.addAll(args, options);
+        Publisher publisher = PublisherFactory.buildPublisher(CommandLineArguments.parse(args.toArray(new String[0])));
+        Thread watcher = new Thread(() -> {
+            try {
+                publisher.publish();
+            } catch (InterruptedException e) {
+                // stopped by the test
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }, "watcher");
+        watcher.start();
+        watchers.add(watcher);
+        return watcher;
+    }
+
+    private int published() {
+        return server.committedArtifacts(PACKAGE_NAME, "bundles");
+    }
+
+    private Properties processed() {
+        Properties processed = new Properties();
+        Path stateFile = folder.getRoot().toPath().resolve("state").resolve("watch-processed.properties");
+        if (Files.exists(stateFile)) {
+            try (InputStream in = Files.newInputStream(stateFile)) {
+                processed.load(in);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return processed;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out");
+            }
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package app.release.publisher.android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ArtifactCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path aab;
+    private Path stateDir;
+
+    @Before
+    public void setUp() throws Exception {
+        aab = folder.getRoot().toPath().resolve("app.aab");
+        Files.copy(ArtifactInspectorTest.fixture("fixture.aab"), aab);
+        stateDir = folder.getRoot().toPath().resolve("state");
+    }
+
+    @Test
+    public void cachesTheInspection() throws IOException {
+        ArtifactInfo inspected = ArtifactCache.open(stateDir).inspect(aab);
+        Properties written = cacheFile();
+        assertEquals(1, written.size());
+
+        ArtifactInfo cached = ArtifactCache.open(stateDir).inspect(aab);
+        assertEquals(inspected.getPackageName(), cached.getPackageName());
+        assertEquals(inspected.getVersionCode(), cached.getVersionCode());
+        assertEquals(inspected.getVersionName(), cached.getVersionName());
+        assertEquals(inspected.getSha256(), cached.getSha256());
+    }
+
+    @Test
+    public void inspectsWhenTheCacheCanNotBeWritten() throws IOException {
+        // a state directory that is a file can hold no cache
+        Files.write(stateDir, new byte[0]);
+        ArtifactInfo info = ArtifactCache.open(stateDir).inspect(aab);
+        assertEquals("com.example.fixture", info.getPackageName());
+    }
+
+    @Test
+    public void startsEmptyWithACorruptCacheFile() throws IOException {
+        Files.createDirectories(stateDir);
+        Files.write(stateDir.resolve("artifact-cache.properties"), "key = \\uZZZZ\n".getBytes(StandardCharsets.UTF_8));
+        ArtifactInfo info = ArtifactCache.open(stateDir).inspect(aab);
+
+        assertEquals("com.example.fixture", info.getPackageName());
+        assertEquals(1, cacheFile().size());
+    }
+
+    @Test
+    public void inspectsAgainForACorruptEntry() throws IOException {
+        String key = aab.toAbsolutePath().normalize() + "|" + Files.size(aab) + "|" + Files.getLastModifiedTime(aab).toMillis();
+        Properties written = new Properties();
+        written.setProperty(key, "com.example.fixture\tnot a number");
+        Files.createDirectories(stateDir);
+        try (OutputStream out = Files.newOutputStream(stateDir.resolve("artifact-cache.properties"))) {
+            written.store(out, null);
+        }
+
+        ArtifactInfo info = ArtifactCache.open(stateDir).inspect(aab);
+        assertEquals(20502L, (long) info.getVersionCode());
+        assertTrue(cacheFile().getProperty(key).endsWith(info.getSha256()));
+    }
+
+    private Properties cacheFile() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(stateDir.resolve("artifact-cache.properties"))) {
+            properties.load(in);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,94 @@
+package app.release.publisher.android;
+
+import net.dongliu.apk.parser.ApkFile;
+import net.dongliu.apk.parser.bean.ApkMeta;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArtifactInspectorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsAnApkLikeTheApkParser() throws Exception {
+        Path apk = fixture("fixture.apk");
+        ArtifactInfo info = ArtifactInspector.inspect(apk);
+
+        try (ApkFile apkFile = new ApkFile(apk.toFile())) {
+            ApkMeta meta = apkFile.getApkMeta();
+            assertEquals(meta.getPackageName(), info.getPackageName());
+            assertEquals(meta.getVersionCode(), info.getVersionCode());
+            assertEquals(meta.getVersionName(), info.getVersionName());
+        }
+        assertEquals("com.example.fixture", info.getPackageName());
+        assertEquals(ChannelContentTest.sha256(Files.readAllBytes(apk)), info.getSha256());
+        assertEquals(Files.size(apk), info.getSize());
+    }
+
+    @Test
+    public void readsTheProtobufManifestOfAnAab() throws Exception {
+        Path aab = fixture("fixture.aab");
+        ArtifactInfo info = ArtifactInspector.inspect(aab);
+
+        assertEquals("com.example.fixture", info.getPackageName());
+        assertEquals(20502L, (long) info.getVersionCode());
+        assertEquals("2.5.2", info.getVersionName());
+        assertEquals(ChannelContentTest.sha256(Files.readAllBytes(aab)), info.getSha256());
+    }
+
+    @Test
+    public void failsWithTheFileForATruncatedArchive() throws Exception {
+        byte[] apk = Files.readAllBytes(fixture("fixture.apk"));
+        Path truncated = folder.getRoot().toPath().resolve("truncated.apk");
+        Files.write(truncated, Arrays.copyOf(apk, apk.length - 100));
+        assertFailsNaming(truncated);
+    }
+
+    @Test
+    public void failsWithTheFileForACorruptManifest() throws Exception {
+        // XmlNode.element claims 127 bytes that are not there
+        Path corrupt = folder.getRoot().toPath().resolve("corrupt.aab");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(corrupt))) {
+            zip.putNextEntry(new ZipEntry("base/manifest/AndroidManifest.xml"));
+            zip.write(new byte[]{0x0a, 0x7f, 0x12});
+            zip.closeEntry();
+        }
+        assertFailsNaming(corrupt);
+    }
+
+    @Test
+    public void failsWithTheFileForAnotherFile() throws Exception {
+        Path text = folder.getRoot().toPath().resolve("notes.apk");
+        Files.write(text, "not a zip".getBytes(StandardCharsets.UTF_8));
+        assertFailsNaming(text);
+    }
+
+    private static void assertFailsNaming(Path file) {
+        try {
+            ArtifactInspector.inspect(file);
+            fail("A corrupt artifact was inspected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(file.toString()));
+        }
+    }
+
+    static Path fixture(String name) throws URISyntaxException {
+        return Paths.get(ArtifactInspectorTest.class.getResource(name).toURI());
+    }
+}
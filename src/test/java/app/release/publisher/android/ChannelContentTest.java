@@ -0,0 +1,111 @@
+package app.release.publisher.android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ChannelContentTest {
+
+    private static final int SIZE = 1024 * 1024 + 123;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private byte[] bytes;
+
+    @Before
+    public void setUp() throws IOException {
+        bytes = new byte[SIZE];
+        new Random(15).nextBytes(bytes);
+        file = folder.getRoot().toPath().resolve("app.aab");
+        Files.write(file, bytes);
+    }
+
+    @Test
+    public void hashesWhenReadUpToTheLength() throws IOException {
+        ChannelContent content = new ChannelContent("application/octet-stream", file, BandwidthLimiter.UNLIMITED);
+        // the uploader reads the length of the content and stops, without reading to the end of the stream
+        try (InputStream in = content.getInputStream()) {
+            byte[] buffer = new byte[64 * 1024];
+            long remaining = content.getLength();
+            while (remaining > 0) {
+                remaining -= in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            }
+        }
+        assertEquals(sha256(bytes), content.getSha256());
+        content.verifySha256(sha256(bytes), "the inspected file");
+        content.verifySha256(null, "Play");
+    }
+
+    @Test
+    public void failsWhenNotSentCompletely() throws IOException {
+        ChannelContent content = new ChannelContent("application/octet-stream", file, BandwidthLimiter.UNLIMITED);
+        try (InputStream in = content.getInputStream()) {
+            in.read(new byte[1000]);
+        }
+        assertNull(content.getSha256());
+        try {
+            content.verifySha256(sha256(bytes), "the inspected file");
+            fail("A partly sent file was verified");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            content.verifySent();
+            fail("A partly sent file was verified");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void failsForAnotherHash() throws IOException {
+        ChannelContent content = new ChannelContent("application/octet-stream", file, BandwidthLimiter.UNLIMITED);
+        content.writeTo(new ByteArrayOutputStream());
+        byte[] changed = bytes.clone();
+        changed[0]++;
+        try {
+            content.verifySha256(sha256(changed), "Play");
+            fail("The hash of other bytes was accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void sendsTheLengthOfAGrowingFile() throws IOException {
+        ChannelContent content = new ChannelContent("application/octet-stream", file, BandwidthLimiter.UNLIMITED);
+        Files.write(file, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        content.writeTo(out);
+        assertArrayEquals(bytes, out.toByteArray());
+        content.verifySha256(sha256(bytes), "the inspected file");
+    }
+
+    @Test
+    public void hashesAnEmptyFile() throws IOException {
+        Path empty = folder.newFile("empty.txt").toPath();
+        ChannelContent content = new ChannelContent("text/plain", empty, BandwidthLimiter.UNLIMITED);
+        content.writeTo(new ByteArrayOutputStream());
+        assertEquals(sha256(new byte[0]), content.verifySent());
+    }
+
+    static String sha256(byte[] bytes) {
+        return ArtifactInspector.hex(ArtifactInspector.sha256().digest(bytes));
+    }
+}
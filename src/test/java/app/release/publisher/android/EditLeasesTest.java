@@ -0,0 +1,97 @@
+package app.release.publisher.android;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EditLeasesTest {
+
+    private final StubBackend backend = new StubBackend();
+
+    @Test
+    public void heldLeaseIsRenewedBeforeTheCommit() throws Exception {
+        try (EditLeases.Lease lease = new EditLeases(backend, 60000, 0).acquire("com.example.app")) {
+            lease.checkHeld();
+            assertFalse(lease.isLost());
+        }
+        assertEquals(1, backend.renewals.get());
+        assertEquals(1, backend.releases.get());
+    }
+
+    @Test
+    public void checkFailsWhenTheBackendCanNotBeReached() throws Exception {
+        try (EditLeases.Lease lease = new EditLeases(backend, 60000, 0).acquire("com.example.app")) {
+            backend.unreachable = true;
+            assertCheckFails(lease, "Could not renew the lease of the edit of com.example.app");
+        }
+    }
+
+    @Test
+    public void checkFailsForALeaseThatExpired() throws Exception {
+        EditLeases.Lease lease = new EditLeases(backend, 60000, 0).acquire("com.example.app");
+        backend.expired = true;
+        assertCheckFails(lease, "Lost the lease of the edit of com.example.app");
+        assertTrue(lease.isLost());
+        lease.close();
+        // a lost lease belongs to someone else now
+        assertEquals(0, backend.releases.get());
+    }
+
+    @Test
+    public void leaseIsLostWhenRenewalsFailForTheLeaseTime() throws Exception {
+        EditLeases.Lease lease = new EditLeases(backend, 300, 0).acquire("com.example.app");
+        backend.unreachable = true;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!lease.isLost() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(lease.isLost());
+        backend.unreachable = false;
+        assertCheckFails(lease, "Lost the lease of the edit of com.example.app");
+        lease.close();
+    }
+
+    private static void assertCheckFails(EditLeases.Lease lease, String message) {
+        try {
+            lease.checkHeld();
+            fail("The lease check passed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+        }
+    }
+
+    /**
+     * Grants every lease, then renews, fails or reports the lease taken over as told.
+     */
+    private static class StubBackend implements LeaseBackend {
+        private final AtomicInteger renewals = new AtomicInteger();
+        private final AtomicInteger releases = new AtomicInteger();
+        private volatile boolean unreachable;
+        private volatile boolean expired;
+
+        @Override
+        public boolean tryAcquire(String key, String owner, long expiresAt) {
+            return true;
+        }
+
+        @Override
+        public boolean renew(String key, String owner, long expiresAt) throws IOException {
+            if (unreachable) {
+                throw new IOException("Share not reachable");
+            }
+            renewals.incrementAndGet();
+            return !expired;
+        }
+
+        @Override
+        public void release(String key, String owner) {
+            releases.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package app.release.publisher.android;
+
+import com.google.api.services.androidpublisher.model.Image;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ListingPublisherTest {
+
+    @Test
+    public void keepsUnchangedImages() {
+        ListingPublisher.ImageDiff diff = ListingPublisher.diff(images("a", "b"), Arrays.asList("a", "b"));
+
+        assertFalse(diff.replaceAll);
+        assertTrue(diff.stale.isEmpty());
+        assertEquals(2, diff.kept);
+    }
+
+    @Test
+    public void deletesARemovedImage() {
+        ListingPublisher.ImageDiff diff = ListingPublisher.diff(images("a", "b", "c"), Arrays.asList("a", "c"));
+
+        assertFalse(diff.replaceAll);
+        assertEquals(Arrays.asList("b"), ids(diff.stale));
+        assertEquals(2, diff.kept);
+    }
+
+    @Test
+    public void appendsANewImage() {
+        ListingPublisher.ImageDiff diff = ListingPublisher.diff(images("a"), Arrays.asList("a", "b"));
+
+        assertFalse(diff.replaceAll);
+        assertTrue(diff.stale.isEmpty());
+        // only the second local image is uploaded
+        assertEquals(1, diff.kept);
+    }
+
+    @Test
+    public void deletesADuplicateImage() {
+        ListingPublisher.ImageDiff diff = ListingPublisher.diff(images("a", "a", "b"), Arrays.asList("a", "b"));
+
+        assertFalse(diff.replaceAll);
+        assertEquals(1, diff.stale.size());
+        assertEquals(2, diff.kept);
+    }
+
+    @Test
+    public void comparesHashesIgnoringCase() {
+        ListingPublisher.ImageDiff diff = ListingPublisher.diff(images("AB"), Arrays.asList("ab"));
+
+        assertTrue(diff.stale.isEmpty());
+        assertEquals(1, diff.kept);
+    }
+
+    @Test
+    public void replacesAllImagesWhenTheOrderChanges() {
+        List<Image> remote = images("a", "b");
+        ListingPublisher.ImageDiff diff = ListingPublisher.diff(remote, Arrays.asList("b", "a"));
+
+        assertTrue(diff.replaceAll);
+        assertEquals(remote, diff.stale);
+        assertEquals(0, diff.kept);
+    }
+
+    @Test
+    public void replacesAllImagesWhenANewImageComesFirst() {
+        ListingPublisher.ImageDiff diff = ListingPublisher.diff(images("a"), Arrays.asList("b", "a"));
+
+        assertTrue(diff.replaceAll);
+        assertEquals(0, diff.kept);
+    }
+
+    private static List<Image> images(String... hashes) {
+        List<Image> images = new ArrayList<>();
+        for (int i = 0; i < hashes.length; i++) {
+            images.add(new Image().setId(String.valueOf((char) ('a' + i))).setSha256(hashes[i]));
+        }
+        return images;
+    }
+
+    private static List<String> ids(List<Image> images) {
+        List<String> ids = new ArrayList<>();
+        for (Image image : images) {
+            ids.add(image.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,65 @@
+package app.release.publisher.android;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlayRequestExecutorTest {
+
+    @Test
+    public void retriesServerErrorsOfIdempotentRequestsOnly() {
+        assertTrue(PlayRequestExecutor.isRetryable(status(503), true));
+        assertTrue(PlayRequestExecutor.isRetryable(status(500), true));
+        assertFalse(PlayRequestExecutor.isRetryable(status(503), false));
+        assertTrue(PlayRequestExecutor.isRetryable(new SocketTimeoutException(), true));
+        assertFalse(PlayRequestExecutor.isRetryable(new SocketException(), false));
+    }
+
+    @Test
+    public void retriesThrottlingAlways() {
+        assertTrue(PlayRequestExecutor.isRetryable(status(429), true));
+        assertTrue(PlayRequestExecutor.isRetryable(status(429), false));
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() {
+        assertFalse(PlayRequestExecutor.isRetryable(status(400), true));
+        assertFalse(PlayRequestExecutor.isRetryable(status(404), true));
+    }
+
+    @Test
+    public void retriesChunksAfterNetworkAndServerErrors() {
+        // a chunk is only taken by the server up to the offset it reports, so it is retried like an idempotent request
+        assertTrue(ResumableUpload.isRetryable(new IOException("Connection reset")));
+        assertTrue(ResumableUpload.isRetryable(status(503)));
+        assertTrue(ResumableUpload.isRetryable(status(429)));
+        assertFalse(ResumableUpload.isRetryable(status(404)));
+        assertFalse(ResumableUpload.isRetryable(status(410)));
+    }
+
+    @Test
+    public void backsOffExponentiallyAndHonoursRetryAfter() {
+        for (int i = 0; i < 100; i++) {
+            long first = PlayRequestExecutor.backoffMillis(1, new IOException());
+            assertTrue(first >= 500 && first <= 1000);
+            long third = PlayRequestExecutor.backoffMillis(3, new IOException());
+            assertTrue(third >= 2000 && third <= 4000);
+            long capped = PlayRequestExecutor.backoffMillis(20, new IOException());
+            assertTrue(capped >= 16000 && capped <= 32000);
+        }
+        HttpHeaders headers = new HttpHeaders().setRetryAfter("7");
+        IOException throttled = new HttpResponseException.Builder(429, "Too Many Requests", headers).build();
+        assertTrue(PlayRequestExecutor.backoffMillis(1, throttled) >= 7000);
+    }
+
+    private static HttpResponseException status(int status) {
+        return new HttpResponseException.Builder(status, null, new HttpHeaders()).build();
+    }
+}
@@ -0,0 +1,125 @@
+package app.release.publisher.android;
+
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PreflightTest {
+
+    private static final String PACKAGE_NAME = "com.example.app";
+    private static final Path FILE = Paths.get("app.aab");
+
+    private final List<Track> tracks = Arrays.asList(
+            track("production", release("v10", "completed", 10L), release("v11", "halted", 11L)),
+            track("beta", release("v12", "draft", 12L)),
+            track("internal"));
+
+    @Test
+    public void passesANewHigherVersionCode() throws IOException {
+        Preflight preflight = new Preflight(PACKAGE_NAME, tracks);
+        preflight.checkRelease("production", "inProgress", 0.1);
+        preflight.checkArtifact(FILE, artifact(PACKAGE_NAME, 13L), "production", false);
+        preflight.verify();
+    }
+
+    @Test
+    public void passesAnUploadedArtifactReleasedOnAnotherTrack() throws IOException {
+        Preflight preflight = new Preflight(PACKAGE_NAME, tracks);
+        preflight.checkRelease("internal", "completed", null);
+        preflight.checkArtifact(FILE, artifact(PACKAGE_NAME, 11L), "internal", true);
+        preflight.verify();
+    }
+
+    @Test
+    public void failsAnArtifactOfAnotherPackage() {
+        Preflight preflight = new Preflight(PACKAGE_NAME, tracks);
+        preflight.checkArtifact(FILE, artifact("com.example.other", 13L), "production", false);
+        assertFails(preflight, "is package com.example.other, not com.example.app");
+    }
+
+    @Test
+    public void failsAVersionCodeInUse() {
+        Preflight preflight = new Preflight(PACKAGE_NAME, tracks);
+        preflight.checkArtifact(FILE, artifact(PACKAGE_NAME, 12L), "internal", false);
+        assertFails(preflight, "Version code 12 of app.aab is already used by release v12 on track beta");
+    }
+
+    @Test
+    public void failsAVersionCodeNotAboveTheReleasedOnes() {
+        // the halted release counts
+        Preflight preflight = new Preflight(PACKAGE_NAME, tracks);
+        preflight.checkArtifact(FILE, artifact(PACKAGE_NAME, 10L), "production", true);
+        assertFails(preflight, "Version code 10 of app.aab is not higher than version code 11 released on track production");
+    }
+
+    @Test
+    public void ignoresDraftsForTheHighestReleasedVersionCode() throws IOException {
+        Preflight preflight = new Preflight(PACKAGE_NAME, tracks);
+        preflight.checkArtifact(FILE, artifact(PACKAGE_NAME, 12L), "beta", true);
+        preflight.verify();
+    }
+
+    @Test
+    public void failsAMissingTrackAndAStagedReleaseWithoutFraction() {
+        Preflight preflight = new Preflight(PACKAGE_NAME, tracks);
+        preflight.checkRelease("alpha", "inProgress", null);
+        try {
+            preflight.verify();
+            fail("The preflight passed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Track alpha does not exist, the app has tracks [production, beta, internal]"));
+            assertTrue(e.getMessage(), e.getMessage().contains("Release status inProgress needs a user fraction between 0 and 1"));
+        }
+    }
+
+    @Test
+    public void failsAFractionOnACompletedRelease() {
+        Preflight preflight = new Preflight(PACKAGE_NAME, tracks);
+        preflight.checkRelease("production", "completed", 0.5);
+        assertFails(preflight, "Release status completed must not have a user fraction");
+    }
+
+    @Test
+    public void acceptsOnlyDraftsForAnAppNeverReleased() throws IOException {
+        List<Track> unreleased = Arrays.asList(track("production", release("v1", "draft", 1L)), track("internal"));
+        Preflight draft = new Preflight(PACKAGE_NAME, unreleased);
+        draft.checkRelease("internal", "draft", null);
+        draft.verify();
+
+        Preflight completed = new Preflight(PACKAGE_NAME, unreleased);
+        completed.checkRelease("internal", "completed", null);
+        assertFails(completed, "The app was never released");
+    }
+
+    private static void assertFails(Preflight preflight, String problem) {
+        try {
+            preflight.verify();
+            fail("The preflight passed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Preflight failed, nothing was uploaded: "));
+            assertTrue(e.getMessage(), e.getMessage().contains(problem));
+        }
+    }
+
+    private static ArtifactInfo artifact(String packageName, Long versionCode) {
+        return new ArtifactInfo(FILE, 1, packageName, versionCode, "1.0", "00");
+    }
+
+    private static Track track(String name, TrackRelease... releases) {
+        return new Track().setTrack(name).setReleases(Arrays.asList(releases));
+    }
+
+    private static TrackRelease release(String name, String status, Long versionCode) {
+        return new TrackRelease().setName(name).setStatus(status).setVersionCodes(Collections.singletonList(versionCode));
+    }
+}
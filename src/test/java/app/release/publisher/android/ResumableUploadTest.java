@@ -0,0 +1,244 @@
+package app.release.publisher.android;
+
+import app.release.benchmark.FakePlayServer;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Bundle;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResumableUploadTest {
+
+    private static final String PACKAGE_NAME = "com.example.resumable";
+    private static final int SIZE = 3 * 1024 * 1024 + 4321;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakePlayServer server;
+    private AndroidPublisher publisher;
+    private PlayRequestExecutor executor;
+    private Path file;
+    private Path stateFile;
+    private byte[] bytes;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakePlayServer(0, 0, 0, 0, 0);
+        server.start();
+        Path keyFile = folder.getRoot().toPath().resolve("key.json");
+        server.writeServiceAccountKey(keyFile);
+        publisher = new AndroidPublisherClientPool().get(keyFile.toString(), "test", server.getRootUrl(), HttpTransports.Options.DEFAULT);
+        executor = new PlayRequestExecutor(1000, 3);
+
+        bytes = new byte[SIZE];
+        new Random(16).nextBytes(bytes);
+        file = folder.getRoot().toPath().resolve("app.aab");
+        Files.write(file, bytes);
+        stateFile = folder.getRoot().toPath().resolve("upload.properties");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void uploadsInChunks() throws IOException {
+        ResumableUpload upload = upload();
+        assertEquals(null, upload.resumableEditId(PACKAGE_NAME));
+        Bundle bundle = upload.upload(PACKAGE_NAME, edit(), "bundles", Bundle.class);
+
+        assertEquals(ChannelContentTest.sha256(bytes), bundle.getSha256());
+        upload.verifySha256(ChannelContentTest.sha256(bytes), "the inspected file");
+        upload.verifySha256(bundle.getSha256(), "Play");
+        assertFalse(upload.isInterrupted());
+        assertFalse(Files.exists(stateFile));
+    }
+
+    @Test
+    public void resumesADroppedChunkFromTheServerOffset() throws IOException {
+        server.dropUploads(2);
+        ResumableUpload upload = upload();
+        Bundle bundle = upload.upload(PACKAGE_NAME, edit(), "bundles", Bundle.class);
+
+        upload.verifySha256(ChannelContentTest.sha256(bytes), "the inspected file");
+        upload.verifySha256(bundle.getSha256(), "Play");
+        // the halves received before the drops are not sent again
+        assertEquals(2, (long) server.stats().get("injectedFailures"));
+        assertEquals(SIZE, (long) server.stats().get("uploadedBytes"));
+    }
+
+    @Test
+    public void retriesAFailedChunk() throws IOException {
+        server.failUploads(1);
+        ResumableUpload upload = upload();
+        Bundle bundle = upload.upload(PACKAGE_NAME, edit(), "bundles", Bundle.class);
+
+        upload.verifySha256(bundle.getSha256(), "Play");
+        assertEquals(1, (long) server.stats().get("injectedFailures"));
+    }
+
+    @Test
+    public void givesUpAnUploadTheServerRejects() throws IOException {
+        server.rejectUploads(1);
+        ResumableUpload upload = upload();
+        try {
+            upload.upload(PACKAGE_NAME, edit(), "bundles", Bundle.class);
+            fail("A rejected upload succeeded");
+        } catch (IOException e) {
+            // a rerun would be rejected the same way, so there is nothing to resume
+            assertFalse(upload.isInterrupted());
+            assertFalse(Files.exists(stateFile));
+        }
+        assertEquals(1, (long) server.stats().get("injectedFailures"));
+    }
+
+    @Test
+    public void stopsAfterTheRetriesOfTheExecutor() throws IOException {
+        AtomicInteger backoffs = new AtomicInteger();
+        PlayRequestExecutor twoAttempts = new PlayRequestExecutor(1000, 2) {
+            @Override
+            void backoff(int attempt, IOException e) {
+                backoffs.incrementAndGet();
+            }
+        };
+        ResumableUpload upload = new ResumableUpload(publisher, twoAttempts, file, "application/octet-stream", 1, stateFile);
+        String editId = edit();
+        // nothing is received any more after the first chunk
+        upload.setProgressListener((bytesUploaded, totalBytes) -> {
+            if (bytesUploaded > 0) {
+                server.stop();
+            }
+        });
+        try {
+            upload.upload(PACKAGE_NAME, editId, "bundles", Bundle.class);
+            fail("The upload succeeded without a server");
+        } catch (IOException e) {
+            assertTrue(upload.isInterrupted());
+            assertTrue(Files.exists(stateFile));
+        }
+        assertEquals(1, backoffs.get());
+    }
+
+    @Test
+    public void resumesAnInterruptedUploadInTheSameEdit() throws IOException {
+        String editId = edit();
+        ResumableUpload interrupted = upload();
+        interrupted.setProgressListener((bytesUploaded, totalBytes) -> {
+            if (bytesUploaded >= 2 * 1024 * 1024) {
+                throw new IllegalStateException("Killed");
+            }
+        });
+        try {
+            interrupted.upload(PACKAGE_NAME, editId, "bundles", Bundle.class);
+            fail("The upload was not interrupted");
+        } catch (IllegalStateException e) {
+            assertTrue(interrupted.isInterrupted());
+        }
+
+        ResumableUpload resumed = upload();
+        List<Long> offsets = new ArrayList<>();
+        resumed.setProgressListener((bytesUploaded, totalBytes) -> offsets.add(bytesUploaded));
+        assertEquals(editId, resumed.resumableEditId(PACKAGE_NAME));
+        Bundle bundle = resumed.upload(PACKAGE_NAME, editId, "bundles", Bundle.class);
+
+        assertEquals(2 * 1024 * 1024, (long) offsets.get(0));
+        resumed.verifySha256(ChannelContentTest.sha256(bytes), "the inspected file");
+        resumed.verifySha256(bundle.getSha256(), "Play");
+        assertEquals(SIZE, (long) server.stats().get("uploadedBytes"));
+    }
+
+    @Test
+    public void getsTheResourceOfACompletedSessionWhoseResponseWasLost() throws IOException {
+        String editId = edit();
+        ResumableUpload interrupted = upload();
+        interrupted.setProgressListener((bytesUploaded, totalBytes) -> {
+            if (bytesUploaded == totalBytes) {
+                throw new IllegalStateException("Killed");
+            }
+        });
+        try {
+            interrupted.upload(PACKAGE_NAME, editId, "bundles", Bundle.class);
+            fail("The upload was not interrupted");
+        } catch (IllegalStateException e) {
+            // the server has the whole file, the state file still has the offset of the chunk before
+        }
+
+        ResumableUpload resumed = upload();
+        assertEquals(editId, resumed.resumableEditId(PACKAGE_NAME));
+        Bundle bundle = resumed.upload(PACKAGE_NAME, editId, "bundles", Bundle.class);
+
+        resumed.verifySha256(ChannelContentTest.sha256(bytes), "the inspected file");
+        resumed.verifySha256(bundle.getSha256(), "Play");
+        assertEquals(SIZE, (long) server.stats().get("uploadedBytes"));
+    }
+
+    @Test
+    public void detectsAFileChangedBetweenRuns() throws IOException {
+        String editId = edit();
+        ResumableUpload interrupted = upload();
+        interrupted.setProgressListener((bytesUploaded, totalBytes) -> {
+            if (bytesUploaded >= 1024 * 1024) {
+                throw new IllegalStateException("Killed");
+            }
+        });
+        try {
+            interrupted.upload(PACKAGE_NAME, editId, "bundles", Bundle.class);
+            fail("The upload was not interrupted");
+        } catch (IllegalStateException e) {
+            // interrupted after the first chunk
+        }
+
+        // change a byte Play already has, keeping size and modification time so the state file still matches
+        FileTime modified = Files.getLastModifiedTime(file);
+        byte[] changed = bytes.clone();
+        changed[10]++;
+        Files.write(file, changed);
+        Files.setLastModifiedTime(file, modified);
+
+        ResumableUpload resumed = upload();
+        assertEquals(editId, resumed.resumableEditId(PACKAGE_NAME));
+        Bundle bundle = resumed.upload(PACKAGE_NAME, editId, "bundles", Bundle.class);
+        try {
+            resumed.verifySha256(bundle.getSha256(), "Play");
+            fail("The hash of the changed file matched the bytes Play received");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void cannotVerifyAnIncompleteUpload() {
+        try {
+            upload().verifySha256(ChannelContentTest.sha256(bytes), "the inspected file");
+            fail("An upload that was not sent was verified");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private ResumableUpload upload() {
+        return new ResumableUpload(publisher, executor, file, "application/octet-stream", 1, stateFile);
+    }
+
+    private String edit() throws IOException {
+        return executor.execute("edits.insert", publisher.edits().insert(PACKAGE_NAME, null)).getId();
+    }
+}
@@ -0,0 +1,134 @@
+package app.release.publisher.android;
+
+import app.release.benchmark.FakePlayServer;
+import app.release.model.CommandLineArguments;
+import app.release.publisher.PublisherFactory;
+import com.google.api.client.json.GenericJson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RolloutSchedulerTest {
+
+    private static final String PACKAGE_NAME = "com.example.fixture";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakePlayServer server;
+    private Path keyFile;
+    private Path stateDir;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakePlayServer(0, 0, 0, 0, 0);
+        server.start();
+        keyFile = folder.getRoot().toPath().resolve("key.json");
+        server.writeServiceAccountKey(keyFile);
+        stateDir = folder.getRoot().toPath().resolve("state");
+        Path aab = folder.getRoot().toPath().resolve("app.aab");
+        Files.copy(ArtifactInspectorTest.fixture("fixture.aab"), aab);
+        run("-file", aab.toString(), "-track", "production", "-status", "draft", "-releasename", "2.5.2");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void stepsHaltsAndResumesTheRelease() throws Exception {
+        rollout("schedule", "-ramp", "0.1:0m,1");
+        rollout("tick");
+        assertRelease("inProgress", 0.1);
+        assertRollout(Rollout.Status.ACTIVE, 0);
+
+        rollout("halt");
+        rollout("tick");
+        assertRelease("halted", 0.1);
+        assertRollout(Rollout.Status.HALTED, 0);
+        // a halted rollout does not step
+        rollout("tick");
+        assertRelease("halted", 0.1);
+
+        rollout("resume");
+        rollout("tick");
+        assertRelease("inProgress", 0.1);
+        assertRollout(Rollout.Status.ACTIVE, 0);
+
+        rollout("tick");
+        assertRelease("completed", null);
+        assertRollout(Rollout.Status.COMPLETED, 1);
+    }
+
+    @Test
+    public void refusesToHaltARolloutThatIsOver() throws Exception {
+        rollout("schedule", "-ramp", "1");
+        rollout("tick");
+        assertRelease("completed", null);
+        try {
+            rollout("halt");
+            fail("A completed rollout was halted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Rollout is over"));
+        }
+    }
+
+    @Test
+    public void failsTheRolloutOfATrackWithoutARelease() throws Exception {
+        run("-rollout", "schedule", "-packageName", PACKAGE_NAME, "-track", "beta", "-ramp", "0.5:1h,1");
+        run("-rollout", "tick");
+
+        Rollout rollout = Rollout.load(stateDir.resolve("rollouts"), PACKAGE_NAME, "beta");
+        assertEquals(Rollout.Status.FAILED, rollout.getStatus());
+        assertEquals("No in progress or halted release on the track", rollout.getLastError());
+    }
+
+    private void rollout(String command, String... options) throws Exception {
+        List<String> args = new ArrayList<>(Arrays.asList("-rollout", command, "-packageName", PACKAGE_NAME, "-track", "production"));
+        Collections.addAll(args, options);
+        run(args.toArray(new String[0]));
+    }
+
+    private void run(String... options) throws Exception {
+        List<String> args = new ArrayList<>(Arrays.asList("-key", keyFile.toString(), "-rootUrl", server.getRootUrl(),
+                "-stateDir", stateDir.toString()));
+        Collections.addAll(args, options);
+        PublisherFactory.buildPublisher(CommandLineArguments.parse(args.toArray(new String[0]))).publish();
+    }
+
+    private void assertRelease(String status, Double userFraction) {
+        GenericJson track = server.committedTrack(PACKAGE_NAME, "production");
+        List<?> releases = (List<?>) track.get("releases");
+        assertEquals(track.toString(), 1, releases.size());
+        Map<?, ?> release = (Map<?, ?>) releases.get(0);
+        assertEquals(track.toString(), status, release.get("status"));
+        if (userFraction == null) {
+            assertNull(track.toString(), release.get("userFraction"));
+        } else {
+            assertEquals(userFraction, ((Number) release.get("userFraction")).doubleValue(), 1e-9);
+        }
+    }
+
+    private void assertRollout(Rollout.Status status, int step) throws Exception {
+        Rollout rollout = Rollout.load(stateDir.resolve("rollouts"), PACKAGE_NAME, "production");
+        assertEquals(rollout.toString(), status, rollout.getStatus());
+        assertEquals(rollout.toString(), step, rollout.getStep());
+        assertEquals(Rollout.Pending.NONE, rollout.getPending());
+    }
+}
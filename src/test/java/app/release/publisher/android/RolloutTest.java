@@ -0,0 +1,93 @@
+package app.release.publisher.android;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RolloutTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsTheRamp() {
+        Rollout rollout = Rollout.create(dir(), "com.example.app", "production", "1%:30m, 0.2:24h,50%:2d,1");
+
+        assertEquals(4, rollout.getSteps());
+        assertEquals(-1, rollout.getStep());
+        assertEquals(0.01, rollout.getFraction(0), 1e-9);
+        assertEquals(0.5, rollout.getFraction(2), 1e-9);
+        assertEquals(TimeUnit.MINUTES.toMillis(30), rollout.getDwellMillis(0));
+        assertEquals(TimeUnit.HOURS.toMillis(24), rollout.getDwellMillis(1));
+        assertEquals(TimeUnit.DAYS.toMillis(2), rollout.getDwellMillis(2));
+        assertEquals(0, rollout.getDwellMillis(3));
+        assertTrue(rollout.isDue(System.currentTimeMillis()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAFallingRamp() {
+        Rollout.create(dir(), "com.example.app", "production", "0.2:1h,0.1:1h,1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsADwellTimeWithoutUnit() {
+        Rollout.create(dir(), "com.example.app", "production", "0.1:12,1");
+    }
+
+    @Test
+    public void stepsAfterTheDwellTimeAndCompletesAtTheLastStep() {
+        Rollout rollout = Rollout.create(dir(), "com.example.app", "production", "0.1:1h,1");
+        long now = 1000;
+        rollout.stepApplied(0, now);
+
+        assertEquals(Rollout.Status.ACTIVE, rollout.getStatus());
+        assertFalse(rollout.isDue(now + TimeUnit.HOURS.toMillis(1) - 1));
+        assertTrue(rollout.isDue(now + TimeUnit.HOURS.toMillis(1)));
+        rollout.stepApplied(1, now);
+        assertEquals(Rollout.Status.COMPLETED, rollout.getStatus());
+        assertFalse(rollout.isDue(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void haltedRolloutIsDueOnlyForAPendingCommand() {
+        Rollout rollout = Rollout.create(dir(), "com.example.app", "production", "0.1:1h,1");
+        rollout.stepApplied(0, 0);
+        rollout.setStatus(Rollout.Status.HALTED);
+        assertFalse(rollout.isDue(Long.MAX_VALUE));
+
+        rollout.setPending(Rollout.Pending.RESUME);
+        assertTrue(rollout.isDue(0));
+        rollout.restartDwell(5000);
+        assertEquals(5000 + TimeUnit.HOURS.toMillis(1), rollout.getNextAt());
+    }
+
+    @Test
+    public void keepsItsStateAcrossProcesses() throws IOException {
+        Rollout rollout = Rollout.create(dir(), "com.example.app", "beta", "0.1:1h,1");
+        rollout.stepApplied(0, 1000);
+        rollout.setPending(Rollout.Pending.HALT);
+        rollout.setLastError("Play unavailable");
+        rollout.save();
+
+        Rollout loaded = Rollout.load(dir(), "com.example.app", "beta");
+        assertEquals(0, loaded.getStep());
+        assertEquals(rollout.getNextAt(), loaded.getNextAt());
+        assertEquals(Rollout.Pending.HALT, loaded.getPending());
+        assertEquals("Play unavailable", loaded.getLastError());
+        assertEquals(1, Rollout.list(dir()).size());
+        assertNull(Rollout.load(dir(), "com.example.app", "production"));
+    }
+
+    private Path dir() {
+        return folder.getRoot().toPath().resolve("rollouts");
+    }
+}
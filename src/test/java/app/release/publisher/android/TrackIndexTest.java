@@ -0,0 +1,88 @@
+package app.release.publisher.android;
+
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TrackIndexTest {
+
+    private static final String PACKAGE_NAME = "com.example.index";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TrackIndex index;
+
+    @Before
+    public void setUp() {
+        index = TrackIndex.open(folder.getRoot().toPath());
+    }
+
+    @Test
+    public void keepsTheCompletedReleaseWhenAStagedReleaseIsCommitted() throws IOException {
+        index.recordAll(PACKAGE_NAME, Collections.singletonList(track(release("completed", 10))));
+        index.record(PACKAGE_NAME, Collections.singletonList(track(release("inProgress", 11))));
+
+        assertEquals(Arrays.asList("inProgress 11", "completed 10"), releases());
+    }
+
+    @Test
+    public void replacesTheStagedReleaseOfTheTrack() throws IOException {
+        index.recordAll(PACKAGE_NAME, Collections.singletonList(track(release("completed", 10), release("halted", 11))));
+        index.record(PACKAGE_NAME, Collections.singletonList(track(release("inProgress", 12))));
+
+        assertEquals(Arrays.asList("inProgress 12", "completed 10"), releases());
+    }
+
+    @Test
+    public void completedReleaseEndsTheStagedRollout() throws IOException {
+        index.recordAll(PACKAGE_NAME, Collections.singletonList(track(release("completed", 10), release("inProgress", 11),
+                release("draft", 13))));
+        index.record(PACKAGE_NAME, Collections.singletonList(track(release("completed", 12))));
+
+        assertEquals(Arrays.asList("completed 12", "draft 13"), releases());
+    }
+
+    @Test
+    public void releaseReplacesTheReleaseOfItsVersionCodes() throws IOException {
+        index.recordAll(PACKAGE_NAME, Collections.singletonList(track(release("completed", 10), release("draft", 11))));
+        index.record(PACKAGE_NAME, Collections.singletonList(track(release("inProgress", 11))));
+
+        assertEquals(Arrays.asList("inProgress 11", "completed 10"), releases());
+    }
+
+    @Test
+    public void listedTracksReplaceWhatWasKnown() throws IOException {
+        index.record(PACKAGE_NAME, Collections.singletonList(track(release("completed", 10), release("inProgress", 11))));
+        index.recordAll(PACKAGE_NAME, Collections.singletonList(track(release("completed", 11))));
+
+        assertEquals(Collections.singletonList("completed 11"), releases());
+    }
+
+    private List<String> releases() throws IOException {
+        List<String> releases = new ArrayList<>();
+        for (TrackRelease release : index.read().get(PACKAGE_NAME).getTracks().get("production").getReleases()) {
+            releases.add(release.getStatus() + " " + release.getVersionCodes().get(0));
+        }
+        return releases;
+    }
+
+    private static Track track(TrackRelease... releases) {
+        return new Track().setTrack("production").setReleases(Arrays.asList(releases));
+    }
+
+    private static TrackRelease release(String status, long versionCode) {
+        return new TrackRelease().setStatus(status).setVersionCodes(Collections.singletonList(versionCode));
+    }
+}
@@ -0,0 +1,136 @@
+package app.release.publisher.server;
+
+import app.release.benchmark.FakePlayServer;
+import app.release.model.CommandLineArguments;
+import com.google.api.client.json.GenericJson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PublishServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakePlayServer play;
+    private PublishServer server;
+    private Path aab;
+
+    @Before
+    public void setUp() throws Exception {
+        // slow enough that a job runs for a while
+        play = new FakePlayServer(0, 100, 0, 0, 0);
+        play.start();
+        Path keyFile = folder.getRoot().toPath().resolve("key.json");
+        play.writeServiceAccountKey(keyFile);
+        aab = folder.getRoot().toPath().resolve("app.aab");
+        Files.copy(fixture(), aab);
+        server = new PublishServer(CommandLineArguments.parse("-key", keyFile.toString(), "-rootUrl", play.getRootUrl(),
+                "-releasename", "test", "-server", "-port", "0", "-parallelism", "4",
+                "-stateDir", folder.getRoot().toPath().resolve("state").toString()));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        play.stop();
+    }
+
+    @Test
+    public void manifestJobWaitsForTheJobOfItsPackage() throws Exception {
+        PublishJob single = server.submit(options("file", aab.toString(), "track", "internal"));
+        PublishJob manifest = server.submit(options("manifest", manifest("alpha").toString()));
+        // opens no edit, so it does not wait
+        PublishJob sharing = server.submit(options("file", aab.toString(), "internalSharing", "true"));
+
+        await(single, manifest, sharing);
+        assertEquals(PublishJob.Status.SUCCEEDED, single.getStatus());
+        assertEquals(PublishJob.Status.SUCCEEDED, manifest.getStatus());
+        assertEquals(PublishJob.Status.SUCCEEDED, sharing.getStatus());
+        assertTrue(time(manifest, "started") >= time(single, "finished"));
+        assertTrue(time(sharing, "started") < time(single, "finished"));
+    }
+
+    @Test
+    public void jobWaitsBehindAnEarlierWaitingJob() throws Exception {
+        PublishJob first = server.submit(options("file", aab.toString(), "track", "internal"));
+        PublishJob second = server.submit(options("file", aab.toString(), "track", "alpha"));
+        PublishJob third = server.submit(options("file", aab.toString(), "track", "beta"));
+
+        await(first, second, third);
+        assertTrue(time(second, "started") >= time(first, "finished"));
+        assertTrue(time(third, "started") >= time(second, "finished"));
+    }
+
+    @Test
+    public void jobWhosePackageCanNotBeReadFails() throws Exception {
+        Path notAnArtifact = folder.getRoot().toPath().resolve("notes.aab");
+        Files.write(notAnArtifact, "not a zip".getBytes(StandardCharsets.UTF_8));
+        PublishJob job = server.submit(options("file", notAnArtifact.toString(), "track", "internal"));
+
+        await(job);
+        assertEquals(PublishJob.Status.FAILED, job.getStatus());
+    }
+
+    @Test
+    public void manifestReleasesLogIntoTheJob() throws Exception {
+        PublishJob job = server.submit(options("manifest", manifest("internal").toString()));
+
+        await(job);
+        @SuppressWarnings("unchecked")
+        List<String> log = (List<String>) job.toJson(true).get("log");
+        assertTrue(log.toString(), log.stream().anyMatch(line -> line.contains("Committed Edit id")));
+    }
+
+    private Path manifest(String track) throws Exception {
+        Path manifest = folder.getRoot().toPath().resolve("manifest-" + track + ".json");
+        String json = "{\"releases\": [{\"file\": \"" + aab + "\", \"track\": \"" + track + "\"}]}";
+        Files.write(manifest, json.getBytes(StandardCharsets.UTF_8));
+        return manifest;
+    }
+
+    private static Map<String, String> options(String... keysAndValues) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            options.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return options;
+    }
+
+    private static void await(PublishJob... jobs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 60000;
+        for (PublishJob job : jobs) {
+            while (job.getStatus() == PublishJob.Status.QUEUED || job.getStatus() == PublishJob.Status.RUNNING) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("Job " + job.getId() + " did not finish: " + job.toJson(true));
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static long time(PublishJob job, String field) {
+        GenericJson json = job.toJson(false);
+        return ((Number) json.get(field)).longValue();
+    }
+
+    private static Path fixture() throws URISyntaxException {
+        return Paths.get(PublishServerTest.class.getResource("/app/release/publisher/android/fixture.aab").toURI());
+    }
+}